@@ -0,0 +1,112 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2016, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.provision.fs;
+
+import java.io.File;
+import java.util.concurrent.TimeUnit;
+
+import org.jboss.provision.util.IoUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Looks up paths in a path tree of the configured size. The benchmark
+ * is in the engine package because the tree is not part of the public API.
+ *
+ * @author Alexey Loubyansky
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PathLookupBenchmark {
+
+    @Param({"1000", "100000"})
+    int pathCount;
+
+    private File dir;
+    private RootPathNode root;
+    private String[] paths;
+    private int next;
+
+    @Setup
+    public void setUp() throws Exception {
+        dir = IoUtils.createRandomTmpDir();
+        final FSEnvironment env = FSEnvironment.create(FSEnvironmentConfig.builder()
+                .setHomeDir(new File(dir, "home"))
+                .setHistoryDir(new File(dir, "history"))
+                .build());
+        root = new RootPathNode(env);
+        paths = new String[pathCount];
+        for(int i = 0; i < pathCount; ++i) {
+            paths[i] = "d" + (i & 31) + "/d" + ((i >> 5) & 31) + "/f" + i + ".txt";
+            root.getOrNew(paths[i]);
+        }
+    }
+
+    @Benchmark
+    public PathNode get() {
+        return root.get(nextPath());
+    }
+
+    @Benchmark
+    public PathNode getOrNew() throws Exception {
+        return root.getOrNew(nextPath());
+    }
+
+    /**
+     * Ownership of a path the history has never seen, which is answered
+     * by the filter of the tracked paths without touching the disk.
+     */
+    @Benchmark
+    public boolean isOwnedByUntracked() throws Exception {
+        return root.isOwnedBy(nextPath(), "user");
+    }
+
+    @Benchmark
+    public boolean isDeleted() {
+        return root.isDeleted(nextPath());
+    }
+
+    private String nextPath() {
+        final String path = paths[next];
+        next = (next + 7919) % paths.length;
+        return path;
+    }
+
+    @TearDown
+    public void tearDown() {
+        IoUtils.recursiveDelete(dir);
+    }
+}
@@ -0,0 +1,123 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2016, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.jboss.provision.fs.bench;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.jboss.provision.fs.CommitFuture;
+import org.jboss.provision.fs.CommitQueue;
+import org.jboss.provision.fs.FSEnvironment;
+import org.jboss.provision.fs.FSEnvironmentConfig;
+import org.jboss.provision.fs.MutableEnvImage;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Commits many images writing a single small file each, one by one
+ * and through a commit queue, which commits them in a single batch. The sessions are undone after each
+ * invocation so that the depth of the history stays the same.
+ *
+ * @author Alexey Loubyansky
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class GroupCommitBenchmark {
+
+    @Param({"16", "128"})
+    int imageCount;
+
+    @Param({"1", "8"})
+    int userCount;
+
+    @Param({"NONE", "GROUP"})
+    FSEnvironmentConfig.Durability durability;
+
+    private FSEnvironment env;
+    private CommitQueue queue;
+    private String initialSessionId;
+    private List<MutableEnvImage> images;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        env = Workload.newEnvironment(durability);
+        queue = env.newCommitQueue();
+        env.newImage().getUserImage(Workload.user(0)).write(Workload.content(64, 0), Workload.SHARED_PATH).getEnvImage().commit();
+        initialSessionId = env.getImage().getSessionId();
+    }
+
+    @Setup(Level.Invocation)
+    public void schedule() throws Exception {
+        images = new ArrayList<MutableEnvImage>(imageCount);
+        for(int i = 0; i < imageCount; ++i) {
+            images.add(env.newImage()
+                    .getUserImage(Workload.user(i % userCount))
+                    .write(Workload.content(64, i), "f" + i + ".txt")
+                    .getEnvImage());
+        }
+    }
+
+    @Benchmark
+    public void commit() throws Exception {
+        for(MutableEnvImage image : images) {
+            image.commit();
+        }
+    }
+
+    @Benchmark
+    public void queue() throws Exception {
+        final List<CommitFuture> futures = new ArrayList<CommitFuture>(images.size());
+        for(MutableEnvImage image : images) {
+            futures.add(queue.submit(image));
+        }
+        for(CommitFuture future : futures) {
+            future.get();
+        }
+    }
+
+    @TearDown(Level.Invocation)
+    public void undo() throws Exception {
+        env.undoTo(initialSessionId);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        Workload.delete(env);
+    }
+}
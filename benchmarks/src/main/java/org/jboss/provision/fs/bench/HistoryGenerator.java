@@ -0,0 +1,255 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2016, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.provision.fs.bench;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import org.jboss.provision.ProvisionException;
+import org.jboss.provision.fs.EnvImage;
+import org.jboss.provision.fs.FSEnvironment;
+import org.jboss.provision.fs.FSEnvironmentConfig;
+import org.jboss.provision.fs.MutableEnvImage;
+import org.jboss.provision.fs.MutableUserImage;
+import org.jboss.provision.util.IoUtils;
+
+/**
+ * Builds a synthetic history through the public image API and records how
+ * the time of the engine operations changes as the history grows.
+ *
+ * <p>Every session is committed by a randomly chosen user. Most of the paths
+ * a session writes come from the user's own part of the path space, the rest
+ * from a pool of paths shared by all the users, so that the shared paths end up
+ * owned by many users. A session may also delete some of the user's own paths.
+ * The same configuration and seed always produce the same operations.
+ *
+ * <p>Every {@code checkpoint} sessions the average commit time since the previous
+ * checkpoint is reported along with the time to undo a probe session and the time
+ * to iterate the whole history. At the end some of the users are deleted.
+ * The results are printed as CSV lines {@code sessions,operation,count,nanos}.
+ *
+ * <p>The configuration is passed as {@code name=value} arguments, e.g.
+ * {@code paths=1000000 users=1000 sessions=10000}.
+ *
+ * @author Alexey Loubyansky
+ */
+public class HistoryGenerator {
+
+    public static class Config {
+        /** the size of the path space */
+        int paths = 100000;
+        int users = 100;
+        int sessions = 1000;
+        int pathsPerSession = 100;
+        int fileSize = 256;
+        /** the number of paths shared by all the users */
+        int sharedPaths = 1000;
+        /** the probability of a written path to be a shared one */
+        double sharedRatio = 0.2;
+        /** the probability of a session to delete one of the user's paths for each written path */
+        double deleteRatio = 0.05;
+        int checkpoint = 100;
+        int deletedUsers = 3;
+        long seed = 1;
+        File homeDir;
+        File output;
+
+        void set(String name, String value) {
+            if("paths".equals(name)) {
+                paths = Integer.parseInt(value);
+            } else if("users".equals(name)) {
+                users = Integer.parseInt(value);
+            } else if("sessions".equals(name)) {
+                sessions = Integer.parseInt(value);
+            } else if("pathsPerSession".equals(name)) {
+                pathsPerSession = Integer.parseInt(value);
+            } else if("fileSize".equals(name)) {
+                fileSize = Integer.parseInt(value);
+            } else if("sharedPaths".equals(name)) {
+                sharedPaths = Integer.parseInt(value);
+            } else if("sharedRatio".equals(name)) {
+                sharedRatio = Double.parseDouble(value);
+            } else if("deleteRatio".equals(name)) {
+                deleteRatio = Double.parseDouble(value);
+            } else if("checkpoint".equals(name)) {
+                checkpoint = Integer.parseInt(value);
+            } else if("deletedUsers".equals(name)) {
+                deletedUsers = Integer.parseInt(value);
+            } else if("seed".equals(name)) {
+                seed = Long.parseLong(value);
+            } else if("homeDir".equals(name)) {
+                homeDir = new File(value);
+            } else if("output".equals(name)) {
+                output = new File(value);
+            } else {
+                throw new IllegalArgumentException("Unknown parameter " + name);
+            }
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        final Config config = new Config();
+        for(String arg : args) {
+            final int i = arg.indexOf('=');
+            if(i <= 0) {
+                throw new IllegalArgumentException("Expected name=value but got " + arg);
+            }
+            config.set(arg.substring(0, i), arg.substring(i + 1));
+        }
+        final PrintStream out = config.output == null ? System.out : new PrintStream(new FileOutputStream(config.output));
+        try {
+            new HistoryGenerator(config, out).run();
+        } finally {
+            if(out != System.out) {
+                out.close();
+            }
+        }
+    }
+
+    private static final String PROBE_PATH = "probe.txt";
+
+    private final Config config;
+    private final PrintStream out;
+    private final Random random;
+    /** the own paths each user has written and not deleted since */
+    private final List<List<Integer>> userPaths;
+
+    public HistoryGenerator(Config config, PrintStream out) {
+        if(config.users <= 0 || config.paths < config.users) {
+            throw new IllegalArgumentException("There must be at least one path per user");
+        }
+        this.config = config;
+        this.out = out;
+        this.random = new Random(config.seed);
+        userPaths = new ArrayList<List<Integer>>(config.users);
+        for(int i = 0; i < config.users; ++i) {
+            userPaths.add(new ArrayList<Integer>());
+        }
+    }
+
+    public void run() throws ProvisionException, IOException {
+        final boolean tmpHome = config.homeDir == null;
+        final File homeDir = tmpHome ? IoUtils.createRandomTmpDir() : config.homeDir;
+        try {
+            final FSEnvironment env = FSEnvironment.create(FSEnvironmentConfig.builder().setHomeDir(homeDir).build());
+            out.println("sessions,operation,count,nanos");
+            long commitNanos = 0;
+            int commits = 0;
+            for(int session = 1; session <= config.sessions; ++session) {
+                final MutableEnvImage image = nextSession(env);
+                final long start = System.nanoTime();
+                image.commit();
+                commitNanos += System.nanoTime() - start;
+                ++commits;
+                if(session % config.checkpoint == 0 || session == config.sessions) {
+                    report(session, "commit", commits, commitNanos);
+                    commitNanos = 0;
+                    commits = 0;
+                    checkpoint(env, session);
+                }
+            }
+            deleteUsers(env);
+        } finally {
+            if(tmpHome) {
+                IoUtils.recursiveDelete(homeDir);
+            }
+        }
+    }
+
+    private MutableEnvImage nextSession(FSEnvironment env) throws ProvisionException {
+        final int user = random.nextInt(config.users);
+        final List<Integer> ownPaths = userPaths.get(user);
+        final MutableEnvImage image = env.newImage();
+        final MutableUserImage userImage = image.getUserImage(Workload.user(user));
+        final Set<String> affected = new HashSet<String>();
+        final int userPathSpace = config.paths / config.users;
+        for(int i = 0; i < config.pathsPerSession; ++i) {
+            if(!ownPaths.isEmpty() && random.nextDouble() < config.deleteRatio) {
+                final int index = ownPaths.remove(random.nextInt(ownPaths.size()));
+                final String path = Workload.path(index);
+                if(affected.add(path)) {
+                    userImage.delete(path);
+                } else {
+                    // written in this session, keep it
+                    ownPaths.add(index);
+                }
+                continue;
+            }
+            final String path;
+            if(random.nextDouble() < config.sharedRatio) {
+                path = "shared/s" + random.nextInt(config.sharedPaths) + ".txt";
+            } else {
+                final int index = user + config.users * random.nextInt(userPathSpace);
+                path = Workload.path(index);
+                if(!affected.contains(path)) {
+                    if(!env.getFile(path).exists()) {
+                        ownPaths.add(index);
+                    }
+                }
+            }
+            if(affected.add(path)) {
+                userImage.write(Workload.content(config.fileSize, random.nextLong()), path);
+            }
+        }
+        return image;
+    }
+
+    private void checkpoint(FSEnvironment env, int sessions) throws ProvisionException {
+        env.newImage().getUserImage(Workload.user(0)).write("probe", PROBE_PATH).getEnvImage().commit();
+        long start = System.nanoTime();
+        env.undoLastCommit();
+        report(sessions, "undo", 1, System.nanoTime() - start);
+
+        start = System.nanoTime();
+        int images = 0;
+        final Iterator<EnvImage> history = env.envHistory();
+        while(history.hasNext()) {
+            history.next().getUsers();
+            ++images;
+        }
+        report(sessions, "history", images, System.nanoTime() - start);
+    }
+
+    private void deleteUsers(FSEnvironment env) throws ProvisionException {
+        final List<String> users = new ArrayList<String>(env.getImage().getUsers());
+        final int count = Math.min(config.deletedUsers, users.size());
+        for(int i = 0; i < count; ++i) {
+            final String user = users.remove(random.nextInt(users.size()));
+            final long start = System.nanoTime();
+            env.deleteUser(user);
+            report(config.sessions, "deleteUser", 1, System.nanoTime() - start);
+        }
+    }
+
+    private void report(int sessions, String operation, int count, long nanos) {
+        out.println(sessions + "," + operation + "," + count + "," + nanos);
+        out.flush();
+    }
+}
@@ -0,0 +1,91 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2016, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.provision.fs.bench;
+
+import java.util.concurrent.TimeUnit;
+
+import org.jboss.provision.fs.FSEnvironment;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Undoes the last session of a history of the configured depth.
+ * The undone session is committed again before each invocation.
+ *
+ * @author Alexey Loubyansky
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class UndoBenchmark {
+
+    @Param({"100", "1000"})
+    int pathCount;
+
+    @Param({"1024", "65536"})
+    int fileSize;
+
+    @Param({"1", "8"})
+    int userCount;
+
+    @Param({"10", "100"})
+    int historyDepth;
+
+    private Workload workload;
+    private FSEnvironment env;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        workload = new Workload(pathCount, fileSize, userCount);
+        env = Workload.newEnvironment();
+        workload.commit(env, historyDepth);
+    }
+
+    @Setup(Level.Invocation)
+    public void commit() throws Exception {
+        workload.newSession(env, 0).commit();
+    }
+
+    @Benchmark
+    public void undoLastCommit() throws Exception {
+        env.undoLastCommit();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        Workload.delete(env);
+    }
+}
@@ -0,0 +1,106 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2016, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.provision.fs.bench;
+
+import java.io.File;
+import java.util.Random;
+
+import org.jboss.provision.ProvisionException;
+import org.jboss.provision.fs.FSEnvironment;
+import org.jboss.provision.fs.FSEnvironmentConfig;
+import org.jboss.provision.fs.MutableEnvImage;
+import org.jboss.provision.util.IoUtils;
+
+/**
+ * Builds the environments the benchmarks run against. Path i is owned by
+ * user i % users, every session is committed by one user, rewrites all the
+ * paths of the user and also writes a path shared by all the users.
+ *
+ * @author Alexey Loubyansky
+ */
+class Workload {
+
+    static final String SHARED_PATH = "shared.txt";
+
+    static FSEnvironment newEnvironment() {
+        return newEnvironment(FSEnvironmentConfig.Durability.NONE);
+    }
+
+    static FSEnvironment newEnvironment(FSEnvironmentConfig.Durability durability) {
+        final File homeDir = IoUtils.createRandomTmpDir();
+        return FSEnvironment.create(FSEnvironmentConfig.builder().setHomeDir(homeDir).setDurability(durability).build());
+    }
+
+    static void delete(FSEnvironment env) {
+        if(env != null) {
+            IoUtils.recursiveDelete(env.getHomeDir());
+        }
+    }
+
+    static String path(int i) {
+        return "d" + (i & 31) + "/d" + ((i >> 5) & 31) + "/f" + i + ".txt";
+    }
+
+    static String user(int i) {
+        return "user" + i;
+    }
+
+    static byte[] content(int size, long seed) {
+        final byte[] bytes = new byte[size];
+        new Random(seed).nextBytes(bytes);
+        return bytes;
+    }
+
+    private final int pathCount;
+    private final int fileSize;
+    private final int userCount;
+    private long seed;
+
+    Workload(int pathCount, int fileSize, int userCount) {
+        this.pathCount = pathCount;
+        this.fileSize = fileSize;
+        this.userCount = userCount;
+    }
+
+    /**
+     * Commits the sessions, the users taking turns.
+     */
+    void commit(FSEnvironment env, int sessions) throws ProvisionException {
+        for(int i = 0; i < sessions; ++i) {
+            newSession(env, i % userCount).commit();
+        }
+    }
+
+    /**
+     * Schedules a session of the user without committing it.
+     */
+    MutableEnvImage newSession(FSEnvironment env, int user) throws ProvisionException {
+        final MutableEnvImage image = env.newImage();
+        final String name = user(user);
+        final byte[] bytes = content(fileSize, seed++);
+        for(int i = user; i < pathCount; i += userCount) {
+            image.getUserImage(name).write(bytes, path(i));
+        }
+        image.getUserImage(name).write(bytes, SHARED_PATH);
+        return image;
+    }
+}
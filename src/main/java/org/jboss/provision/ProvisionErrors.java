@@ -49,6 +49,10 @@ public class ProvisionErrors {
         return "Not a directory: " + f.getAbsolutePath();
     }
 
+    public static String notAFile(File f) {
+        return "Not a file: " + f.getAbsolutePath();
+    }
+
     public static ProvisionException hashCalculationFailed(String path, IOException e) {
         return new ProvisionException("Failed to calculate hash for " + path, e);
     }
@@ -223,6 +227,22 @@ public class ProvisionErrors {
         return new ProvisionException("Failed to back up content", e);
     }
 
+    public static ProvisionException commitCancelled() {
+        return new ProvisionException("The commit has been cancelled");
+    }
+
+    public static ProvisionException commitInterrupted() {
+        return new ProvisionException("The previous commit was interrupted and has to be resumed or aborted first");
+    }
+
+    public static ProvisionException noInterruptedCommit() {
+        return new ProvisionException("There is no interrupted commit");
+    }
+
+    public static ProvisionException contentChangedSinceInterruption(File f) {
+        return new ProvisionException("The content of " + f.getAbsolutePath() + " has changed since the commit was interrupted");
+    }
+
     public static ProvisionException failedToCopyContent(Throwable e) {
         return new ProvisionException("Failed to copy content", e);
     }
@@ -234,4 +254,8 @@ public class ProvisionErrors {
     public static ProvisionException sessionRecordMissingForPath(String sessionId, String relativePath) {
         return new ProvisionException("Session record " + sessionId + " is missing for path " + relativePath);
     }
+
+    public static ProvisionException unknownSession(String sessionId) {
+        return new ProvisionException("Session " + sessionId + " is not recorded in the history");
+    }
 }
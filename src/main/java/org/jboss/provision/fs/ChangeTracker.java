@@ -0,0 +1,221 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2016, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.provision.fs;
+
+import static java.nio.file.StandardWatchEventKinds.ENTRY_CREATE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_DELETE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_MODIFY;
+import static java.nio.file.StandardWatchEventKinds.OVERFLOW;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Tracks the paths in the home dir modified since they were last committed
+ * using a {@link WatchService}, so that the content of the unmodified paths
+ * doesn't have to be hashed to report external modifications.
+ *
+ * <p>The events are drained whenever the tracker is queried. Until a full
+ * scan of the home dir is reported with {@link #scanned(Collection)},
+ * i.e. right after the tracker is started, since the paths could have been
+ * modified while no tracker was running, and whenever the watch service
+ * lost events, every path is considered modified.
+ *
+ * <p>The events are delivered asynchronously, so the query of the modified
+ * paths waits briefly for the events still being delivered. The result is
+ * still only eventually consistent, a watch service which polls the file
+ * system, as on some platforms, may report a modification seconds later.
+ * That's why commits don't rely on the tracker and always hash the content
+ * they replace.
+ *
+ * @author Alexey Loubyansky
+ */
+class ChangeTracker implements Closeable {
+
+    /** how long the events of the modifications made right before a query are waited for */
+    private static final long DELIVERY_TIMEOUT_MS = 20;
+
+    static ChangeTracker start(File homeDir, File historyDir) throws IOException {
+        final ChangeTracker tracker = new ChangeTracker(homeDir.toPath().toAbsolutePath(),
+                historyDir.toPath().toAbsolutePath(), homeDir.toPath().getFileSystem().newWatchService());
+        try {
+            tracker.registerAll(tracker.homeDir, false);
+        } catch (IOException e) {
+            tracker.close();
+            throw e;
+        }
+        return tracker;
+    }
+
+    private final Path homeDir;
+    private final Path historyDir;
+    private final WatchService watcher;
+    private final Map<WatchKey, Path> dirs = new HashMap<WatchKey, Path>();
+    private final Set<Path> modified = new HashSet<Path>();
+    /** the modifications are unknown until a full scan */
+    private boolean overflow = true;
+
+    private ChangeTracker(Path homeDir, Path historyDir, WatchService watcher) {
+        this.homeDir = homeDir;
+        this.historyDir = historyDir;
+        this.watcher = watcher;
+    }
+
+    /**
+     * The paths modified since they were last committed or null
+     * if the events have been lost and a full scan is required.
+     */
+    synchronized Set<Path> getModified() {
+        drain(DELIVERY_TIMEOUT_MS);
+        return overflow ? null : new HashSet<Path>(modified);
+    }
+
+    /**
+     * Marks the paths written by a commit as unmodified.
+     */
+    synchronized void committed(Collection<File> written) {
+        drain();
+        for(File f : written) {
+            modified.remove(f.toPath().toAbsolutePath());
+        }
+    }
+
+    /**
+     * Replaces the tracked modifications with the result of a full scan
+     * of the home dir and starts watching the directories that may have
+     * been created while the events were lost.
+     */
+    synchronized void scanned(Collection<File> modifiedPaths) {
+        drain();
+        modified.clear();
+        for(File f : modifiedPaths) {
+            modified.add(f.toPath().toAbsolutePath());
+        }
+        try {
+            registerAll(homeDir, false);
+            overflow = false;
+        } catch (IOException e) {
+            // remains in the full scan mode
+        }
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        dirs.clear();
+        modified.clear();
+        watcher.close();
+    }
+
+    private void drain() {
+        drain(0);
+    }
+
+    /**
+     * Processes the events delivered so far and those delivered within the timeout.
+     */
+    private void drain(long timeoutMs) {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMs);
+        while(true) {
+            WatchKey key;
+            try {
+                final long remaining = deadline - System.nanoTime();
+                key = remaining > 0 ? watcher.poll(remaining, TimeUnit.NANOSECONDS) : watcher.poll();
+            } catch (ClosedWatchServiceException e) {
+                overflow = true;
+                return;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                // whatever has been delivered is still processed
+                deadline = System.nanoTime();
+                continue;
+            }
+            if(key == null) {
+                return;
+            }
+            final Path dir = dirs.get(key);
+            for(WatchEvent<?> event : key.pollEvents()) {
+                if(event.kind() == OVERFLOW) {
+                    overflow = true;
+                    continue;
+                }
+                if(dir == null) {
+                    continue;
+                }
+                final Path path = dir.resolve((Path) event.context());
+                if(path.startsWith(historyDir)) {
+                    continue;
+                }
+                modified.add(path);
+                if(event.kind() == ENTRY_CREATE && Files.isDirectory(path)) {
+                    try {
+                        // the content could have been created before the dir was registered
+                        registerAll(path, true);
+                    } catch (IOException e) {
+                        overflow = true;
+                    }
+                }
+            }
+            if(!key.reset()) {
+                dirs.remove(key);
+            }
+        }
+    }
+
+    private void registerAll(Path root, final boolean markModified) throws IOException {
+        Files.walkFileTree(root, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException {
+                if(dir.startsWith(historyDir)) {
+                    return FileVisitResult.SKIP_SUBTREE;
+                }
+                dirs.put(dir.register(watcher, ENTRY_CREATE, ENTRY_DELETE, ENTRY_MODIFY), dir);
+                if(markModified) {
+                    modified.add(dir);
+                }
+                return FileVisitResult.CONTINUE;
+            }
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                if(markModified) {
+                    modified.add(file);
+                }
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+}
@@ -0,0 +1,155 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2016, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.provision.fs;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.StandardOpenOption;
+
+import org.jboss.provision.ProvisionErrors;
+import org.jboss.provision.ProvisionException;
+import org.jboss.provision.util.HashUtils;
+import org.jboss.provision.util.IoStats;
+import org.jboss.provision.util.IoUtils;
+
+/**
+ * Writes the bytes of the content source as they are through a file channel.
+ *
+ * @author Alexey Loubyansky
+ */
+class ChannelContentWriter extends ContentWriter {
+
+    private static final int BUFFER_SIZE = 65536;
+
+    protected final ContentSource source;
+    private byte[] hash;
+
+    ChannelContentWriter(ContentSource source, File target) {
+        super(target);
+        assert source != null : ProvisionErrors.nullArgument("source");
+        this.source = source;
+    }
+
+    ChannelContentWriter(ContentSource source, File target, File backup, boolean cleanup) {
+        super(target, backup, cleanup);
+        assert source != null : ProvisionErrors.nullArgument("source");
+        this.source = source;
+    }
+
+    @Override
+    public void execute() throws ProvisionException {
+        if(!target.getParentFile().exists() && !target.getParentFile().mkdirs()) {
+            throw new ProvisionException(ProvisionErrors.couldNotCreateDir(target.getParentFile()));
+        }
+        FileChannel out = null;
+        ReadableByteChannel in = null;
+        try {
+            out = FileChannel.open(target.toPath(), StandardOpenOption.WRITE, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING);
+            final ByteBuffer buffer = source.getBuffer();
+            if(buffer != null) {
+                long written = 0;
+                while(buffer.hasRemaining()) {
+                    written += out.write(buffer);
+                }
+                IoStats.copied(written);
+                return;
+            }
+            in = source.openChannel();
+            if(in instanceof FileChannel) {
+                final FileChannel fileIn = (FileChannel) in;
+                final long size = fileIn.size();
+                long position = 0;
+                while(position < size) {
+                    position += out.transferFrom(fileIn, position, size - position);
+                }
+                IoStats.copied(size);
+            } else {
+                final ByteBuffer buf = ByteBuffer.allocateDirect(BUFFER_SIZE);
+                long written = 0;
+                while(in.read(buf) > -1) {
+                    buf.flip();
+                    while(buf.hasRemaining()) {
+                        written += out.write(buf);
+                    }
+                    buf.clear();
+                }
+                IoStats.copied(written);
+            }
+        } catch(IOException e) {
+            throw ProvisionErrors.writeError(target, e);
+        } finally {
+            IoUtils.safeClose(in);
+            IoUtils.safeClose(out);
+        }
+    }
+
+    @Override
+    public void write(BufferedWriter writer) throws IOException {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    protected ReadableByteChannel openContent() throws IOException {
+        return source.openChannel();
+    }
+
+    @Override
+    protected long getContentSize() {
+        return source.size();
+    }
+
+    @Override
+    protected boolean canHashContent() {
+        return true;
+    }
+
+    @Override
+    protected byte[] getContentHash() throws ProvisionException {
+        if(hash != null) {
+            return hash;
+        }
+        final ByteBuffer buffer = source.getBuffer();
+        if(buffer != null) {
+            hash = HashUtils.hashBuffer(buffer);
+            return hash;
+        }
+        ReadableByteChannel in = null;
+        try {
+            in = source.openChannel();
+            hash = HashUtils.hashChannel(in);
+        } catch (IOException e) {
+            throw ProvisionErrors.hashCalculationFailed(source.toString(), e);
+        } finally {
+            IoUtils.safeClose(in);
+        }
+        return hash;
+    }
+
+    @Override
+    public String toString() {
+        return "ChannelContentWriter " + source + " -> " + target.getAbsolutePath();
+    }
+}
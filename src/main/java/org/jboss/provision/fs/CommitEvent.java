@@ -0,0 +1,54 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2016, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.provision.fs;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * Flight recorder event covering a commit of an environment image
+ * from the scheduling of the history records to the cleanup.
+ *
+ * @author Alexey Loubyansky
+ */
+@Name("org.jboss.provision.fs.Commit")
+@Label("Commit")
+@Category({"JBoss Provision", "FS"})
+@Description("Commit of an environment image")
+class CommitEvent extends jdk.jfr.Event {
+
+    @Label("Home Dir")
+    String path;
+
+    @Label("Session Id")
+    String sessionId;
+
+    @Label("Tasks")
+    int tasks;
+
+    @Label("Bytes Written")
+    @DataAmount
+    long bytes;
+}
@@ -0,0 +1,121 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2016, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.provision.fs;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Function;
+
+/**
+ * Result of an asynchronous commit. The future can only be completed
+ * by the commit itself.
+ *
+ * Cancellation is cooperative: {@link #requestCancel()} asks the commit
+ * to stop, which it checks for between the tasks, reverting what it has
+ * done so far, after which the future completes as cancelled. Once all
+ * the tasks have been executed the commit can't be cancelled anymore
+ * and the future completes normally despite the request.
+ *
+ * @author Alexey Loubyansky
+ */
+public class CommitFuture implements Future<Void> {
+
+    private static final Function<Void, Void> IDENTITY = new Function<Void, Void>() {
+        @Override
+        public Void apply(Void t) {
+            return t;
+        }
+    };
+
+    private final CompletableFuture<Void> result = new CompletableFuture<Void>();
+    private volatile boolean cancelRequested;
+
+    CommitFuture() {
+    }
+
+    /**
+     * Asks the commit to stop. Whether it actually stopped is known once
+     * the future is done: it is cancelled if it did.
+     */
+    public void requestCancel() {
+        cancelRequested = true;
+    }
+
+    /**
+     * The commit can't be cancelled immediately, so this method does nothing
+     * and returns false.
+     *
+     * @see #requestCancel()
+     */
+    @Override
+    public boolean cancel(boolean mayInterruptIfRunning) {
+        return false;
+    }
+
+    @Override
+    public boolean isCancelled() {
+        return result.isCancelled();
+    }
+
+    @Override
+    public boolean isDone() {
+        return result.isDone();
+    }
+
+    @Override
+    public Void get() throws InterruptedException, ExecutionException {
+        return result.get();
+    }
+
+    @Override
+    public Void get(long timeout, TimeUnit unit) throws InterruptedException, ExecutionException, TimeoutException {
+        return result.get(timeout, unit);
+    }
+
+    /**
+     * A stage completed with the commit to chain actions to. Completing
+     * the stage or the futures derived from it doesn't affect the commit.
+     */
+    public CompletionStage<Void> toCompletionStage() {
+        return result.thenApply(IDENTITY);
+    }
+
+    boolean isCancelRequested() {
+        return cancelRequested;
+    }
+
+    void completed() {
+        result.complete(null);
+    }
+
+    void failed(Throwable t) {
+        result.completeExceptionally(t);
+    }
+
+    void cancelled() {
+        result.cancel(false);
+    }
+}
@@ -0,0 +1,185 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2016, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.provision.fs;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.jboss.provision.ProvisionException;
+
+/**
+ * The tasks a commit of an image would execute along with the estimate
+ * of its cost. The plan is informational, it can't be executed.
+ *
+ * @author Alexey Loubyansky
+ */
+public class CommitPlan {
+
+    public enum TaskType {
+        WRITE,
+        MKDIRS,
+        DELETE
+    }
+
+    public static class Task {
+
+        private final TaskType type;
+        private final File target;
+        private final boolean historyRecord;
+        private final long bytes;
+
+        private Task(TaskType type, File target, boolean historyRecord, long bytes) {
+            this.type = type;
+            this.target = target;
+            this.historyRecord = historyRecord;
+            this.bytes = bytes;
+        }
+
+        public TaskType getType() {
+            return type;
+        }
+
+        public File getTarget() {
+            return target;
+        }
+
+        /**
+         * Whether the task targets the history rather than the home directory.
+         */
+        public boolean isHistoryRecord() {
+            return historyRecord;
+        }
+
+        /**
+         * The number of bytes to be written or -1 if it is not known in advance.
+         */
+        public long getBytes() {
+            return bytes;
+        }
+
+        @Override
+        public String toString() {
+            return type + " " + target.getAbsolutePath();
+        }
+    }
+
+    static CommitPlan create(FSEnvironment env, List<ContentTask> contentTasks, Set<String> users) throws ProvisionException {
+        final String historyPath = env.getHistoryDir().getAbsolutePath() + File.separatorChar;
+        final CommitPlan plan = new CommitPlan(contentTasks.size(), users);
+        for(ContentTask contentTask : contentTasks) {
+            final TaskType type;
+            if(contentTask.isDelete()) {
+                type = TaskType.DELETE;
+            } else if(contentTask instanceof MkDirsWriter) {
+                type = TaskType.MKDIRS;
+            } else {
+                type = TaskType.WRITE;
+            }
+            final boolean history = contentTask.getTarget().getAbsolutePath().startsWith(historyPath);
+            final long bytes = contentTask.getContentSize();
+            plan.tasks.add(new Task(type, contentTask.getTarget(), history, bytes));
+
+            final Integer count = plan.counts.get(type);
+            plan.counts.put(type, count == null ? 1 : count + 1);
+            if(history && type != TaskType.DELETE) {
+                ++plan.historyRecords;
+            }
+            if(bytes < 0) {
+                ++plan.unknownSizeTasks;
+            } else {
+                plan.bytesToWrite += bytes;
+            }
+            plan.bytesToBackUp += contentTask.getBackupSize();
+        }
+        return plan;
+    }
+
+    private final List<Task> tasks;
+    private final Set<String> users;
+    private final Map<TaskType, Integer> counts = new EnumMap<TaskType, Integer>(TaskType.class);
+    private int historyRecords;
+    private int unknownSizeTasks;
+    private long bytesToBackUp;
+    private long bytesToWrite;
+
+    private CommitPlan(int size, Set<String> users) {
+        tasks = new ArrayList<Task>(size);
+        this.users = users;
+    }
+
+    /**
+     * The tasks in the order they would be executed.
+     */
+    public List<Task> getTasks() {
+        return Collections.unmodifiableList(tasks);
+    }
+
+    public int getTaskCount() {
+        return tasks.size();
+    }
+
+    public int getTaskCount(TaskType type) {
+        final Integer count = counts.get(type);
+        return count == null ? 0 : count;
+    }
+
+    /**
+     * The number of records to be written to the history.
+     */
+    public int getHistoryRecords() {
+        return historyRecords;
+    }
+
+    public long getBytesToBackUp() {
+        return bytesToBackUp;
+    }
+
+    /**
+     * The number of bytes to be written, not including the tasks
+     * whose content size is not known in advance.
+     */
+    public long getBytesToWrite() {
+        return bytesToWrite;
+    }
+
+    public int getUnknownSizeTasks() {
+        return unknownSizeTasks;
+    }
+
+    /**
+     * The users whose content is changed by the commit.
+     */
+    public Set<String> getUsers() {
+        return users;
+    }
+
+    @Override
+    public String toString() {
+        return "[tasks=" + tasks.size() + " " + counts + " history=" + historyRecords +
+                " backup=" + bytesToBackUp + " write=" + bytesToWrite + " users=" + users + "]";
+    }
+}
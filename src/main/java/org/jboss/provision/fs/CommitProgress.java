@@ -0,0 +1,86 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2016, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.provision.fs;
+
+/**
+ * Snapshot of the progress of a commit.
+ *
+ * @author Alexey Loubyansky
+ */
+public class CommitProgress {
+
+    public enum Phase {
+        PLANNED,
+        BACKUP,
+        EXECUTE,
+        CLEANUP,
+        REVERT,
+        DONE
+    }
+
+    public interface Listener {
+        void progress(CommitProgress progress);
+    }
+
+    private final Phase phase;
+    private final int tasksPlanned;
+    private final int tasksRemaining;
+    private final long bytesBackedUp;
+    private final long bytesWritten;
+
+    CommitProgress(Phase phase, int tasksPlanned, int tasksRemaining, long bytesBackedUp, long bytesWritten) {
+        this.phase = phase;
+        this.tasksPlanned = tasksPlanned;
+        this.tasksRemaining = tasksRemaining;
+        this.bytesBackedUp = bytesBackedUp;
+        this.bytesWritten = bytesWritten;
+    }
+
+    public Phase getPhase() {
+        return phase;
+    }
+
+    public int getTasksPlanned() {
+        return tasksPlanned;
+    }
+
+    /**
+     * Number of tasks left in the current phase.
+     */
+    public int getTasksRemaining() {
+        return tasksRemaining;
+    }
+
+    public long getBytesBackedUp() {
+        return bytesBackedUp;
+    }
+
+    public long getBytesWritten() {
+        return bytesWritten;
+    }
+
+    @Override
+    public String toString() {
+        return "[" + phase + " planned=" + tasksPlanned + " remaining=" + tasksRemaining +
+                " backedUp=" + bytesBackedUp + " written=" + bytesWritten + "]";
+    }
+}
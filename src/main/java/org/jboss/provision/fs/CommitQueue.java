@@ -0,0 +1,242 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2016, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.jboss.provision.fs;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import org.jboss.provision.ProvisionException;
+
+/**
+ * Commits the images submitted from many threads, merging the images which
+ * don't conflict into a single physical commit. Each image is still recorded
+ * as a separate session, in the order the images were submitted, so that
+ * the sessions can be undone one by one, while the tasks of the whole batch
+ * are backed up, executed and flushed once and the last session id
+ * and the path filter are updated once.
+ *
+ * <p>Two images conflict if they write or delete the same path or a path
+ * and its ancestor. A conflicting image starts the next batch, so the images
+ * are always committed in the order they were submitted. The images of
+ * the same user don't conflict: the paths of the user are carried over
+ * from one image to the next within the batch.
+ *
+ * <p>The future of each submitted image is completed once its batch is
+ * committed. If an image fails to be scheduled, only its future fails.
+ * If the batch fails to be committed, it is reverted and the futures
+ * of all of its images fail. The cancellation of a submitted image
+ * requested with {@link CommitFuture#requestCancel()} takes effect
+ * only if its batch has not started to be committed.
+ *
+ * @author Alexey Loubyansky
+ */
+public class CommitQueue {
+
+    public static final int DEFAULT_MAX_BATCH_SIZE = 256;
+
+    private static final long WORKER_KEEP_ALIVE_SECONDS = 5;
+
+    /**
+     * Executor of a single thread started on demand, which stops once
+     * there has been nothing to commit for a few seconds.
+     */
+    static Executor newWorker() {
+        final ThreadPoolExecutor worker = new ThreadPoolExecutor(1, 1, WORKER_KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+                    @Override
+                    public Thread newThread(Runnable r) {
+                        return new Thread(r, "fs-commit-queue");
+                    }
+                });
+        worker.allowCoreThreadTimeOut(true);
+        return worker;
+    }
+
+    private static class Entry {
+        final MutableEnvImage image;
+        final CommitFuture future;
+
+        Entry(MutableEnvImage image, CommitFuture future) {
+            this.image = image;
+            this.future = future;
+        }
+    }
+
+    /**
+     * Paths affected by the images of a batch and their ancestors.
+     */
+    private static class Footprint {
+        private final Set<String> paths = new HashSet<String>();
+        private final Set<String> dirs = new HashSet<String>();
+
+        boolean conflicts(MutableEnvImage image) {
+            for(String path : image.getAffectedPaths()) {
+                if(paths.contains(path) || dirs.contains(path)) {
+                    return true;
+                }
+                int i = path.lastIndexOf('/');
+                while(i > 0) {
+                    if(paths.contains(path.substring(0, i))) {
+                        return true;
+                    }
+                    i = path.lastIndexOf('/', i - 1);
+                }
+            }
+            return false;
+        }
+
+        void add(MutableEnvImage image) {
+            for(String path : image.getAffectedPaths()) {
+                paths.add(path);
+                int i = path.lastIndexOf('/');
+                while(i > 0 && dirs.add(path.substring(0, i))) {
+                    i = path.lastIndexOf('/', i - 1);
+                }
+            }
+        }
+    }
+
+    private final FSEnvironment env;
+    private final Executor executor;
+    private final int maxBatchSize;
+    private final Deque<Entry> pending = new ArrayDeque<Entry>();
+    private boolean draining;
+
+    CommitQueue(FSEnvironment env, Executor executor, int maxBatchSize) {
+        assert maxBatchSize > 0 : "maxBatchSize must be positive";
+        this.env = env;
+        this.executor = executor;
+        this.maxBatchSize = maxBatchSize;
+    }
+
+    /**
+     * Queues the image to be committed. The image must not be modified
+     * until the returned future is completed.
+     *
+     * @param image  image created by the environment of the queue
+     * @return  future completed when the image is committed
+     */
+    public CommitFuture submit(MutableEnvImage image) {
+        final CommitFuture future = new CommitFuture();
+        synchronized(this) {
+            pending.add(new Entry(image, future));
+            if(draining) {
+                return future;
+            }
+            draining = true;
+        }
+        try {
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    drain();
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            final List<Entry> rejected;
+            synchronized(this) {
+                rejected = new ArrayList<Entry>(pending);
+                pending.clear();
+                draining = false;
+            }
+            for(Entry entry : rejected) {
+                entry.future.failed(e);
+            }
+        }
+        return future;
+    }
+
+    private void drain() {
+        List<Entry> batch = nextBatch();
+        while(batch != null) {
+            commit(batch);
+            batch = nextBatch();
+        }
+    }
+
+    /**
+     * Takes the images up to the first one conflicting with the images
+     * taken before it or null if there is nothing to commit.
+     */
+    private synchronized List<Entry> nextBatch() {
+        final Footprint footprint = new Footprint();
+        final List<Entry> batch = new ArrayList<Entry>(Math.min(pending.size(), maxBatchSize));
+        while(!pending.isEmpty() && batch.size() < maxBatchSize) {
+            final Entry entry = pending.peek();
+            if(entry.future.isCancelRequested()) {
+                pending.poll();
+                entry.future.cancelled();
+                continue;
+            }
+            if(!batch.isEmpty() && footprint.conflicts(entry.image)) {
+                break;
+            }
+            pending.poll();
+            footprint.add(entry.image);
+            batch.add(entry);
+        }
+        if(batch.isEmpty()) {
+            draining = false;
+            return null;
+        }
+        return batch;
+    }
+
+    private void commit(List<Entry> batch) {
+        final List<Entry> scheduled = new ArrayList<Entry>(batch.size());
+        try {
+            final MutableEnvImage updates = env.newImage();
+            for(Entry entry : batch) {
+                try {
+                    entry.image.scheduleIn(updates);
+                    scheduled.add(entry);
+                } catch (ProvisionException | RuntimeException | Error e) {
+                    entry.future.failed(e);
+                }
+            }
+            if(!scheduled.isEmpty()) {
+                updates.executeUpdates();
+            }
+        } catch (ProvisionException | RuntimeException | Error e) {
+            // the images which failed to be scheduled have already been completed
+            for(Entry entry : batch) {
+                entry.future.failed(e);
+            }
+            return;
+        }
+        for(Entry entry : scheduled) {
+            entry.image.clear();
+            entry.future.completed();
+        }
+    }
+}
@@ -0,0 +1,242 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2016, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.jboss.provision.fs;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+import org.jboss.provision.ProvisionErrors;
+import org.jboss.provision.ProvisionException;
+import org.jboss.provision.util.IoUtils;
+
+/**
+ * Flushes the content written by a commit to the storage according
+ * to the durability configured for the environment.
+ *
+ * @author Alexey Loubyansky
+ */
+class CommitSync {
+
+    /**
+     * Returns the sync for the durability or null if nothing has to be flushed.
+     */
+    static CommitSync create(FSEnvironmentConfig.Durability durability) {
+        switch(durability) {
+            case GROUP:
+                return new CommitSync(false);
+            case STRICT:
+                return new CommitSync(true);
+            default:
+                return null;
+        }
+    }
+
+    private final boolean strict;
+    private final Set<File> files = new LinkedHashSet<File>();
+    private final Set<File> dirs = new LinkedHashSet<File>();
+    private final List<File> newDirs = new ArrayList<File>();
+
+    private CommitSync(boolean strict) {
+        this.strict = strict;
+    }
+
+    /**
+     * Whether the content of every task is flushed as soon as it is written.
+     */
+    boolean isStrict() {
+        return strict;
+    }
+
+    /**
+     * Remembers the directories which get new entries when the task creates
+     * the missing ancestors of its target, i.e. the missing ancestors above
+     * the parent and the closest ancestor which exists before the task.
+     */
+    void executing(ContentTask task) {
+        newDirs.clear();
+        addNewDirs(task.getTarget());
+        final File moved = getMovedTo(task);
+        if(moved != null) {
+            addNewDirs(moved);
+        }
+    }
+
+    private void addNewDirs(File f) {
+        File dir = f.getParentFile();
+        while(dir != null && !dir.exists()) {
+            dir = dir.getParentFile();
+            if(dir != null) {
+                newDirs.add(dir);
+            }
+        }
+    }
+
+    /**
+     * Flushes the content the task has written right away if the durability
+     * is strict or remembers it for the flush at the end of the commit.
+     */
+    void executed(ContentTask task) throws ProvisionException {
+        final File target = task.getTarget();
+        final File moved = getMovedTo(task);
+        if(strict) {
+            if(!task.isDelete()) {
+                force(target);
+            }
+            forceDir(target.getParentFile());
+            if(moved != null) {
+                forceDir(moved.getParentFile());
+            }
+            for(File dir : newDirs) {
+                forceDir(dir);
+            }
+            newDirs.clear();
+            return;
+        }
+        if(!task.isDelete()) {
+            if(target.isDirectory()) {
+                dirs.add(target);
+            } else {
+                files.add(target);
+            }
+        }
+        dirs.add(target.getParentFile());
+        if(moved != null) {
+            dirs.add(moved.getParentFile());
+        }
+        dirs.addAll(newDirs);
+        newDirs.clear();
+    }
+
+    /**
+     * The file in the history the task moves its target to or null.
+     */
+    private static File getMovedTo(ContentTask task) {
+        if(task instanceof TrashDeleteTask && ((TrashDeleteTask) task).isMovedToHistory()) {
+            return task.backup;
+        }
+        return null;
+    }
+
+    /**
+     * Flushes the files and then the directories written since the last flush.
+     */
+    void flush() throws ProvisionException {
+        if(!files.isEmpty()) {
+            forceAll(files, false);
+            files.clear();
+        }
+        if(!dirs.isEmpty()) {
+            forceAll(dirs, true);
+            dirs.clear();
+        }
+    }
+
+    static void forceAll(Collection<File> targets, final boolean dir) throws ProvisionException {
+        if(targets.size() == 1) {
+            force(targets.iterator().next(), dir);
+            return;
+        }
+        final List<Callable<Void>> tasks = new ArrayList<Callable<Void>>(targets.size());
+        for(final File target : targets) {
+            tasks.add(new Callable<Void>() {
+                @Override
+                public Void call() throws ProvisionException {
+                    force(target, dir);
+                    return null;
+                }
+            });
+        }
+        for(Future<Void> future : ForkJoinPool.commonPool().invokeAll(tasks)) {
+            try {
+                future.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw ProvisionErrors.failedToCopyContent(e);
+            } catch (ExecutionException e) {
+                if(e.getCause() instanceof ProvisionException) {
+                    throw (ProvisionException) e.getCause();
+                }
+                throw ProvisionErrors.failedToCopyContent(e.getCause());
+            }
+        }
+    }
+
+    private static void force(File target, boolean dir) throws ProvisionException {
+        if(dir) {
+            forceDir(target);
+        } else {
+            force(target);
+        }
+    }
+
+    /**
+     * Flushes the file opening it for reading, which is enough to flush
+     * its content and lets the files which aren't writable be flushed too.
+     */
+    static void force(File f) throws ProvisionException {
+        if(f.isDirectory()) {
+            forceDir(f);
+            return;
+        }
+        FileChannel channel = null;
+        try {
+            channel = FileChannel.open(f.toPath(), StandardOpenOption.READ);
+            channel.force(true);
+        } catch (IOException e) {
+            throw ProvisionErrors.writeError(f, e);
+        } finally {
+            IoUtils.safeClose(channel);
+        }
+    }
+
+    /**
+     * Flushes the entries of the directory. Platforms which don't allow
+     * opening a directory, such as Windows, persist the entries along
+     * with the files, so the failure to open a directory is ignored.
+     */
+    static void forceDir(File dir) {
+        if(dir == null || !dir.exists()) {
+            return;
+        }
+        FileChannel channel = null;
+        try {
+            channel = FileChannel.open(dir.toPath(), StandardOpenOption.READ);
+            channel.force(true);
+        } catch (IOException e) {
+            // not supported on the platform
+        } finally {
+            IoUtils.safeClose(channel);
+        }
+    }
+}
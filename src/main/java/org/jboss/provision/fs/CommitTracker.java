@@ -0,0 +1,131 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2016, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.provision.fs;
+
+import java.io.File;
+
+import org.jboss.provision.ProvisionErrors;
+import org.jboss.provision.ProvisionException;
+
+/**
+ * Collects the progress of a commit, notifies the listener
+ * and checks whether the commit has been cancelled.
+ *
+ * @author Alexey Loubyansky
+ */
+class CommitTracker {
+
+    private final CommitProgress.Listener listener;
+    private final CommitFuture future;
+    private CommitProgress.Phase phase = CommitProgress.Phase.PLANNED;
+    private int tasksPlanned;
+    private int tasksRemaining;
+    private long bytesBackedUp;
+    private long bytesWritten;
+    private boolean cancelled;
+    private boolean countBytes;
+
+    CommitTracker(CommitProgress.Listener listener, CommitFuture future) {
+        this.listener = listener;
+        this.future = future;
+        this.countBytes = listener != null;
+    }
+
+    /**
+     * Makes the tracker count the bytes even if there is no listener.
+     */
+    void countBytes() {
+        countBytes = true;
+    }
+
+    void planned(int tasks) throws ProvisionException {
+        tasksPlanned = tasks;
+        tasksRemaining = tasks;
+        report();
+        checkCancelled();
+    }
+
+    void phase(CommitProgress.Phase phase, int tasks) {
+        this.phase = phase;
+        tasksRemaining = tasks;
+        report();
+    }
+
+    void backedUp(ContentTask task) throws ProvisionException {
+        if(countBytes) {
+            bytesBackedUp += size(task.backup);
+        }
+        --tasksRemaining;
+        report();
+        checkCancelled();
+    }
+
+    void executed(ContentTask task) throws ProvisionException {
+        written(task);
+        checkCancelled();
+    }
+
+    /**
+     * Same as {@link #executed(ContentTask)} for the last task after which
+     * the commit can't be cancelled.
+     */
+    void written(ContentTask task) {
+        if(countBytes && !task.isDelete()) {
+            bytesWritten += size(task.getTarget());
+        }
+        --tasksRemaining;
+        report();
+    }
+
+    long getBytesWritten() {
+        return bytesWritten;
+    }
+
+    void completed() {
+        --tasksRemaining;
+        report();
+    }
+
+    /**
+     * Whether the commit has been stopped because of a cancellation request.
+     */
+    boolean isCancelled() {
+        return cancelled;
+    }
+
+    private void checkCancelled() throws ProvisionException {
+        if(future != null && future.isCancelRequested()) {
+            cancelled = true;
+            throw ProvisionErrors.commitCancelled();
+        }
+    }
+
+    private void report() {
+        if(listener != null) {
+            listener.progress(new CommitProgress(phase, tasksPlanned, tasksRemaining, bytesBackedUp, bytesWritten));
+        }
+    }
+
+    private static long size(File f) {
+        return f == null ? 0 : f.isFile() ? f.length() : 0;
+    }
+}
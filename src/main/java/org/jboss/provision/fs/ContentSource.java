@@ -0,0 +1,165 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2016, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.provision.fs;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import org.jboss.provision.ProvisionErrors;
+
+/**
+ * Binary content to be written to a path. The content may be opened
+ * more than once, e.g. to calculate its hash before it is actually written,
+ * so every call to openChannel() is expected to provide the same bytes.
+ *
+ * @author Alexey Loubyansky
+ */
+public abstract class ContentSource {
+
+    /**
+     * Content source backed by a stream.
+     */
+    public abstract static class StreamSource extends ContentSource {
+
+        public abstract InputStream openStream() throws IOException;
+
+        @Override
+        public ReadableByteChannel openChannel() throws IOException {
+            return Channels.newChannel(openStream());
+        }
+    }
+
+    /**
+     * The array is not copied, so it must not be modified until the content is committed.
+     */
+    public static ContentSource of(final byte[] bytes) {
+        assert bytes != null : ProvisionErrors.nullArgument("bytes");
+        return new ContentSource() {
+            @Override
+            public ReadableByteChannel openChannel() {
+                return Channels.newChannel(new ByteArrayInputStream(bytes));
+            }
+            @Override
+            public long size() {
+                return bytes.length;
+            }
+            @Override
+            ByteBuffer getBuffer() {
+                return ByteBuffer.wrap(bytes);
+            }
+        };
+    }
+
+    /**
+     * The content is the remaining bytes of the buffer. The buffer is not copied,
+     * so its content must not be modified until the content is committed.
+     */
+    public static ContentSource of(ByteBuffer buffer) {
+        assert buffer != null : ProvisionErrors.nullArgument("buffer");
+        final ByteBuffer content = buffer.slice();
+        return new ContentSource() {
+            @Override
+            public ReadableByteChannel openChannel() {
+                final ByteBuffer buf = content.duplicate();
+                return new ReadableByteChannel() {
+                    boolean open = true;
+                    @Override
+                    public boolean isOpen() {
+                        return open;
+                    }
+                    @Override
+                    public void close() {
+                        open = false;
+                    }
+                    @Override
+                    public int read(ByteBuffer dst) {
+                        if(!buf.hasRemaining()) {
+                            return -1;
+                        }
+                        final int length = Math.min(buf.remaining(), dst.remaining());
+                        final ByteBuffer chunk = buf.duplicate();
+                        chunk.limit(chunk.position() + length);
+                        dst.put(chunk);
+                        buf.position(buf.position() + length);
+                        return length;
+                    }
+                };
+            }
+            @Override
+            public long size() {
+                return content.remaining();
+            }
+            @Override
+            ByteBuffer getBuffer() {
+                return content.duplicate();
+            }
+        };
+    }
+
+    public static ContentSource of(final Path path) {
+        assert path != null : ProvisionErrors.nullArgument("path");
+        return new ContentSource() {
+            @Override
+            public ReadableByteChannel openChannel() throws IOException {
+                return FileChannel.open(path, StandardOpenOption.READ);
+            }
+            @Override
+            Path getPath() {
+                return path;
+            }
+            @Override
+            public String toString() {
+                return path.toString();
+            }
+        };
+    }
+
+    public abstract ReadableByteChannel openChannel() throws IOException;
+
+    /**
+     * The size of the content in bytes or -1 if it is not known in advance.
+     */
+    public long size() {
+        return -1;
+    }
+
+    /**
+     * The content as a buffer if it is available in memory.
+     */
+    ByteBuffer getBuffer() {
+        return null;
+    }
+
+    /**
+     * The file the content is read from, if any.
+     */
+    Path getPath() {
+        return null;
+    }
+}
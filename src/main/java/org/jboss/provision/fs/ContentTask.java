@@ -23,6 +23,7 @@ package org.jboss.provision.fs;
 
 import java.io.File;
 import java.io.IOException;
+import java.nio.channels.ReadableByteChannel;
 import java.util.UUID;
 
 import org.jboss.provision.ProvisionErrors;
@@ -51,6 +52,16 @@ public abstract class ContentTask {
         this.cleanup = cleanup;
     }
 
+    /**
+     * Makes the task create its backup in the directory instead of
+     * the temporary dir, unless the task manages the backup itself.
+     */
+    void setBackupDir(File dir) {
+        if(cleanup && backup != null) {
+            backup = new File(dir, backup.getName());
+        }
+    }
+
     public File getTarget() {
         return target;
     }
@@ -67,6 +78,13 @@ public abstract class ContentTask {
         throw new UnsupportedOperationException();
     }
 
+    /**
+     * Opens the content the task is going to write.
+     */
+    protected ReadableByteChannel openContent() throws IOException {
+        throw new UnsupportedOperationException();
+    }
+
     protected boolean canHashContent() {
         return false;
     }
@@ -75,6 +93,27 @@ public abstract class ContentTask {
         throw new UnsupportedOperationException();
     }
 
+    /**
+     * The number of bytes the task is going to write or -1 if it is not known in advance.
+     */
+    protected long getContentSize() throws ProvisionException {
+        return -1;
+    }
+
+    /**
+     * The number of bytes the backup of the target is going to copy.
+     */
+    protected long getBackupSize() throws ProvisionException {
+        if (!target.exists()) {
+            return 0;
+        }
+        try {
+            return IoUtils.sizeOf(target);
+        } catch (IOException e) {
+            throw ProvisionErrors.readError(target, e);
+        }
+    }
+
     public void backup() throws ProvisionException {
         if (!target.exists()) {
             backup = null;
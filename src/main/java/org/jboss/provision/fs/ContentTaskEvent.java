@@ -0,0 +1,80 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2016, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.provision.fs;
+
+import java.io.File;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * Flight recorder event covering the backup, the execution
+ * or the revert of a single content task.
+ *
+ * @author Alexey Loubyansky
+ */
+@Name("org.jboss.provision.fs.ContentTask")
+@Label("Content Task")
+@Category({"JBoss Provision", "FS"})
+@Description("Backup, execution or revert of a content task")
+class ContentTaskEvent extends jdk.jfr.Event {
+
+    static final String BACKUP = "backup";
+    static final String EXECUTE = "execute";
+    static final String REVERT = "revert";
+
+    static ContentTaskEvent begin(String operation) {
+        final ContentTaskEvent event = new ContentTaskEvent(operation);
+        event.begin();
+        return event;
+    }
+
+    @Label("Operation")
+    String operation;
+
+    @Label("Path")
+    String path;
+
+    @Label("Bytes")
+    @DataAmount
+    long bytes;
+
+    private ContentTaskEvent(String operation) {
+        this.operation = operation;
+    }
+
+    /**
+     * Commits the event if it is enabled, the byte count being the size
+     * of the file left by the operation, if any.
+     */
+    void end(ContentTask task, File result) {
+        end();
+        if(shouldCommit()) {
+            path = task.getTarget().getAbsolutePath();
+            bytes = result == null || !result.isFile() ? 0 : result.length();
+            commit();
+        }
+    }
+}
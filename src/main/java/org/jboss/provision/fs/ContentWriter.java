@@ -22,9 +22,15 @@
 package org.jboss.provision.fs;
 
 import java.io.BufferedWriter;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileWriter;
 import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
 
 import org.jboss.provision.ProvisionErrors;
 import org.jboss.provision.ProvisionException;
@@ -59,5 +65,45 @@ public abstract class ContentWriter extends ContentTask {
         }
     }
 
+    /**
+     * Renders the content in memory, which is meant for the generated content
+     * that isn't available otherwise. The writers of the actual content
+     * are expected to override this method.
+     */
+    @Override
+    protected ReadableByteChannel openContent() throws IOException {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        final BufferedWriter writer = new BufferedWriter(new OutputStreamWriter(out));
+        try {
+            write(writer);
+            writer.flush();
+        } catch (ProvisionException e) {
+            throw new IOException(e);
+        } finally {
+            IoUtils.safeClose(writer);
+        }
+        return Channels.newChannel(new ByteArrayInputStream(out.toByteArray()));
+    }
+
+    @Override
+    protected long getContentSize() throws ProvisionException {
+        ReadableByteChannel channel = null;
+        try {
+            channel = openContent();
+            final ByteBuffer buf = ByteBuffer.allocate(8192);
+            long size = 0;
+            int read;
+            while ((read = channel.read(buf)) > -1) {
+                size += read;
+                buf.clear();
+            }
+            return size;
+        } catch (IOException e) {
+            throw ProvisionErrors.readError(target, e);
+        } finally {
+            IoUtils.safeClose(channel);
+        }
+    }
+
     public abstract void write(BufferedWriter writer) throws IOException, ProvisionException;
 }
\ No newline at end of file
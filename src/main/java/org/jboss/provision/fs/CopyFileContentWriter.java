@@ -21,31 +21,30 @@
  */
 package org.jboss.provision.fs;
 
-import java.io.BufferedReader;
-import java.io.BufferedWriter;
 import java.io.File;
-import java.io.FileReader;
 import java.io.IOException;
 
 import org.jboss.provision.ProvisionErrors;
 import org.jboss.provision.ProvisionException;
 import org.jboss.provision.util.HashUtils;
-import org.jboss.provision.util.IoUtils;
 
 /**
  *
  * @author Alexey Loubyansky
  */
-class CopyFileContentWriter extends ContentWriter {
+class CopyFileContentWriter extends ChannelContentWriter {
     private final File f;
+    private byte[] hash;
     CopyFileContentWriter(File f, File target) {
-        super(target);
-        assert f != null : ProvisionErrors.nullArgument("file");
+        super(ContentSource.of(f.toPath()), target);
         this.f = f;
     }
+    CopyFileContentWriter(File f, File target, byte[] hash) {
+        this(f, target);
+        this.hash = hash;
+    }
     CopyFileContentWriter(File f, File target, File backup, boolean cleanup) {
-        super(target, backup, cleanup);
-        assert f != null : ProvisionErrors.nullArgument("file");
+        super(ContentSource.of(f.toPath()), target, backup, cleanup);
         this.f = f;
     }
     @Override
@@ -53,32 +52,17 @@ class CopyFileContentWriter extends ContentWriter {
         return f;
     }
     @Override
-    public void write(BufferedWriter writer) throws IOException {
-        BufferedReader reader = null;
-        try {
-            reader = new BufferedReader(new FileReader(f));
-            String line = reader.readLine();
-            if(line != null) {
-                writer.write(line);
-                line = reader.readLine();
-                while (line != null) {
-                    writer.newLine();
-                    writer.write(line);
-                    line = reader.readLine();
-                }
-            }
-        } finally {
-            IoUtils.safeClose(reader);
-        }
-    }
-    @Override
-    protected boolean canHashContent() {
-        return true;
+    protected long getContentSize() {
+        return f.length();
     }
     @Override
     protected byte[] getContentHash() throws ProvisionException {
+        if(hash != null) {
+            return hash;
+        }
         try {
-            return HashUtils.hashFile(f);
+            hash = HashUtils.hashFile(f);
+            return hash;
         } catch (IOException e) {
             throw ProvisionErrors.hashCalculationFailed(f.getAbsolutePath(), e);
         }
@@ -87,4 +71,4 @@ class CopyFileContentWriter extends ContentWriter {
     public String toString() {
         return "CopyFileContentWriter " + f.getAbsolutePath() + " -> " + target.getAbsolutePath();
     }
-}
\ No newline at end of file
+}
@@ -23,6 +23,10 @@ package org.jboss.provision.fs;
 
 import java.io.File;
 import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.util.List;
 import java.util.UUID;
 
 import org.jboss.provision.ProvisionErrors;
@@ -48,6 +52,10 @@ class DeleteTask extends ContentTask {
                 return true;
             }
             @Override
+            protected long getBackupSize() {
+                return 0;
+            }
+            @Override
             public void backup() throws ProvisionException {
             }
             @Override
@@ -80,10 +88,24 @@ class DeleteTask extends ContentTask {
     public boolean isDelete() {
         return true;
     }
+    /**
+     * Whether the target is deleted only if it is an empty directory.
+     */
+    boolean isIfEmpty() {
+        return ifEmpty;
+    }
     @Override
     public void execute() throws ProvisionException {
         if(ifEmpty) {
-            if(target.list().length == 0) {
+            final List<Path> children;
+            try {
+                children = IoUtils.listDir(target.toPath());
+            } catch (NoSuchFileException e) {
+                return;
+            } catch (IOException e) {
+                throw ProvisionErrors.readError(target, e);
+            }
+            if(children.isEmpty()) {
                 IoUtils.recursiveDelete(target);
             }
         } else {
@@ -91,8 +113,16 @@ class DeleteTask extends ContentTask {
         }
     }
     @Override
+    protected long getContentSize() {
+        return 0;
+    }
+    @Override
+    protected long getBackupSize() throws ProvisionException {
+        return ifEmpty ? 0 : super.getBackupSize();
+    }
+    @Override
     protected boolean canHashContent() {
-        return target.exists() && target.isFile();
+        return Files.isRegularFile(target.toPath());
     }
     @Override
     protected byte[] getContentHash() throws ProvisionException {
@@ -0,0 +1,187 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2016, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.jboss.provision.fs;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import org.jboss.provision.ProvisionErrors;
+import org.jboss.provision.ProvisionException;
+import org.jboss.provision.util.HashUtils;
+import org.jboss.provision.util.IoUtils;
+
+/**
+ * Scans a directory tree to be imported into the environment
+ * walking the subdirectories and hashing the files in parallel.
+ *
+ * @author Alexey Loubyansky
+ */
+class DirImport {
+
+    /**
+     * Max number of files hashed by a single task.
+     */
+    private static final int HASH_BATCH = 32;
+
+    private static final ThreadLocal<MessageDigest> DIGEST = new ThreadLocal<MessageDigest>() {
+        @Override
+        protected MessageDigest initialValue() {
+            return HashUtils.newDigest();
+        }
+    };
+
+    private static final Comparator<Entry> BY_NAME = new Comparator<Entry>() {
+        @Override
+        public int compare(Entry o1, Entry o2) {
+            return o1.name.compareTo(o2.name);
+        }
+    };
+
+    static class Entry {
+        final Path path;
+        final String name;
+        final boolean dir;
+        byte[] hash;
+        List<Entry> children = Collections.emptyList();
+
+        private Entry(Path path, boolean dir) {
+            this.path = path;
+            this.name = path.getFileName().toString();
+            this.dir = dir;
+        }
+    }
+
+    /**
+     * Scans the directory returning its entry with the children
+     * sorted by name and the hashes of all the files calculated.
+     * The scan is short and bound by hashing and reading the metadata,
+     * so it runs in the common pool, whose threads keep their digests
+     * between the imports.
+     */
+    static Entry scan(Path dir) throws ProvisionException {
+        final Entry entry = new Entry(dir, true);
+        try {
+            ForkJoinPool.commonPool().invoke(new ScanDir(entry));
+        } catch(ImportFailure e) {
+            throw e.cause;
+        }
+        return entry;
+    }
+
+    private static class ScanDir extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        private final Entry entry;
+
+        ScanDir(Entry entry) {
+            this.entry = entry;
+        }
+
+        @Override
+        protected void compute() {
+            final List<Entry> children = new ArrayList<Entry>();
+            final List<Entry> files = new ArrayList<Entry>();
+            final List<RecursiveAction> tasks = new ArrayList<RecursiveAction>();
+            try {
+                for(Path child : IoUtils.listDir(entry.path)) {
+                    final BasicFileAttributes attrs = IoUtils.readAttributes(child);
+                    if(attrs == null) {
+                        continue;
+                    }
+                    final Entry childEntry = new Entry(child, attrs.isDirectory());
+                    children.add(childEntry);
+                    if(childEntry.dir) {
+                        tasks.add(new ScanDir(childEntry));
+                    } else {
+                        files.add(childEntry);
+                    }
+                }
+            } catch(IOException e) {
+                throw new ImportFailure(ProvisionErrors.readError(entry.path.toFile(), e));
+            }
+            if(children.isEmpty()) {
+                return;
+            }
+            Collections.sort(children, BY_NAME);
+            entry.children = children;
+            if(!files.isEmpty()) {
+                tasks.add(new HashFiles(files, 0, files.size()));
+            }
+            invokeAll(tasks);
+        }
+    }
+
+    private static class HashFiles extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        private final List<Entry> files;
+        private final int from;
+        private final int to;
+
+        HashFiles(List<Entry> files, int from, int to) {
+            this.files = files;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if(to - from > HASH_BATCH) {
+                final int middle = (from + to) >>> 1;
+                invokeAll(new HashFiles(files, from, middle), new HashFiles(files, middle, to));
+                return;
+            }
+            final MessageDigest digest = DIGEST.get();
+            for(int i = from; i < to; ++i) {
+                final Entry file = files.get(i);
+                try {
+                    file.hash = HashUtils.hashFile(file.path.toFile(), digest);
+                } catch (IOException e) {
+                    throw new ImportFailure(ProvisionErrors.hashCalculationFailed(file.path.toString(), e));
+                }
+            }
+        }
+    }
+
+    private static class ImportFailure extends RuntimeException {
+
+        private static final long serialVersionUID = 1L;
+
+        private final ProvisionException cause;
+
+        ImportFailure(ProvisionException cause) {
+            super(cause);
+            this.cause = cause;
+        }
+    }
+}
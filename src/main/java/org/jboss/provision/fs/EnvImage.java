@@ -21,13 +21,23 @@
  */
 package org.jboss.provision.fs;
 
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.Iterator;
 import java.util.List;
 
 import org.jboss.provision.ProvisionErrors;
 import org.jboss.provision.ProvisionException;
+import org.jboss.provision.util.FlightRecorderUtils;
 import org.jboss.provision.util.HashUtils;
+import org.jboss.provision.util.IoUtils;
 
 /**
  *
@@ -41,7 +51,7 @@ public class EnvImage extends FSSession {
     public EnvImage(FSEnvironment env, String sessionId) throws ProvisionException {
         super(env, sessionId);
         this.fsEnv = env;
-        root = new RootPathNode(fsEnv.getHomeDir(), fsEnv.getHistoryDir());
+        root = new RootPathNode(fsEnv);
     }
 
     protected FSEnvironment getFSEnvironment() {
@@ -56,7 +66,7 @@ public class EnvImage extends FSSession {
         return UserHistory.listUsers(fsEnv, sessionId);
     }
 
-    protected String readContent(String relativePath) throws ProvisionException {
+    public String readContent(String relativePath) throws ProvisionException {
         return readContent(fsEnv.getFile(relativePath));
     }
 
@@ -71,6 +81,62 @@ public class EnvImage extends FSSession {
         }
     }
 
+    /**
+     * Opens a stream of the raw bytes of the content, i.e. unlike readContent(),
+     * the line separators are preserved. Returns null if the path does not exist.
+     */
+    public InputStream openContent(String relativePath) throws ProvisionException {
+        final ReadableByteChannel channel = openChannel(relativePath);
+        return channel == null ? null : Channels.newInputStream(channel);
+    }
+
+    /**
+     * Opens a channel to read the raw bytes of the content.
+     * Returns null if the path does not exist.
+     */
+    public ReadableByteChannel openChannel(String relativePath) throws ProvisionException {
+        return openChannel(fsEnv.getFile(relativePath));
+    }
+
+    /**
+     * Returns the content as a read-only buffer. The content of the files
+     * is memory-mapped instead of being loaded onto the heap.
+     * Returns null if the path does not exist.
+     */
+    public ByteBuffer mapContent(String relativePath) throws ProvisionException {
+        final ReadableByteChannel channel = openChannel(relativePath);
+        if(channel == null) {
+            return null;
+        }
+        try {
+            if(channel instanceof FileChannel) {
+                final FileChannel fileChannel = (FileChannel) channel;
+                return fileChannel.map(FileChannel.MapMode.READ_ONLY, 0, fileChannel.size());
+            }
+            final ByteArrayOutputStream out = new ByteArrayOutputStream();
+            IoUtils.copyStream(Channels.newInputStream(channel), out);
+            return ByteBuffer.wrap(out.toByteArray()).asReadOnlyBuffer();
+        } catch (IOException e) {
+            throw ProvisionErrors.readError(fsEnv.getFile(relativePath), e);
+        } finally {
+            IoUtils.safeClose(channel);
+        }
+    }
+
+    protected ReadableByteChannel openChannel(File target) throws ProvisionException {
+        if (!target.exists()) {
+            return null;
+        }
+        if (target.isDirectory()) {
+            throw new ProvisionException(ProvisionErrors.notAFile(target));
+        }
+        try {
+            return FileChannel.open(target.toPath(), StandardOpenOption.READ);
+        } catch (IOException e) {
+            throw ProvisionErrors.readError(target, e);
+        }
+    }
+
     public boolean contains(String relativePath) {
         return contains(fsEnv.getFile(relativePath));
     }
@@ -103,9 +169,59 @@ public class EnvImage extends FSSession {
         root.clear();
     }
 
+    /**
+     * Returns the paths that differ between this and the other image,
+     * i.e. the paths added, removed or modified by the sessions
+     * committed between the two. The paths are resolved from the session
+     * records and the recorded content hashes as the iteration advances.
+     */
+    public Iterator<PathDiff> diff(EnvImage other) throws ProvisionException {
+        return ImageDiff.create(fsEnv, sessionId, other.sessionId, null);
+    }
+
+    /**
+     * Same as {@link #diff(EnvImage)} but limited to the paths of the user.
+     * The paths the user grabbed or gave up are reported as added or removed
+     * even if their content didn't change.
+     */
+    public Iterator<PathDiff> diff(EnvImage other, String user) throws ProvisionException {
+        return ImageDiff.create(fsEnv, sessionId, other.sessionId, user);
+    }
+
     protected void undo(MutableEnvImage envImage) throws ProvisionException {
+        final MetricsRecorder metrics = fsEnv.startMetrics(OperationMetrics.Operation.UNDO, sessionId);
+        final UndoEvent event = FlightRecorderUtils.isAvailable() ? new UndoEvent() : null;
+        if (event != null) {
+            event.begin();
+        }
+        final int paths;
+        try {
+            paths = scheduleUndo(envImage);
+        } catch (ProvisionException | RuntimeException | Error e) {
+            if (metrics != null) {
+                metrics.discard();
+            }
+            throw e;
+        }
+        if (metrics != null) {
+            metrics.finish(paths);
+        }
+        if (event != null) {
+            event.end();
+            if (event.shouldCommit()) {
+                event.path = sessionDir.getAbsolutePath();
+                event.sessionId = sessionId;
+                event.paths = paths;
+                event.commit();
+            }
+        }
+    }
+
+    /**
+     * Schedules the undo of the session and returns the number of paths it affected.
+     */
+    private int scheduleUndo(MutableEnvImage envImage) throws ProvisionException {
 
-        System.out.println("EnvImage.undo " + sessionId);
         if(!sessionDir.exists()) {
             throw ProvisionErrors.pathDoesNotExist(sessionDir.getAbsoluteFile());
         }
@@ -114,13 +230,14 @@ public class EnvImage extends FSSession {
 
         //final boolean lastCommit = sessionId.equals(fsEnv.getLastSessionId());
 
+        int paths = 0;
         final File deletedDir = new File(sessionDir, "d");
         if(deletedDir.exists()) {
             for(File deletedPath : deletedDir.listFiles()) {
                 try {
                     final String content = FileUtils.readFile(deletedPath);
-                    System.out.println("  d path=" + deletedPath.getName() + " content=" + content);
                     envImage.root.getByHash(deletedPath.getName(), "dir".equals(content)).scheduleUndo(envImage, sessionId, false);
+                    ++paths;
                 } catch (IOException e) {
                     // TODO Auto-generated catch block
                     e.printStackTrace();
@@ -133,8 +250,8 @@ public class EnvImage extends FSSession {
             for(File path : writeDir.listFiles()) {
                 try {
                     final String content = FileUtils.readFile(path);
-                    System.out.println("  w path=" + path.getName() + " content=" + content);
                     envImage.root.getByHash(path.getName(), "dir".equals(content)).scheduleUndo(envImage, sessionId, true);
+                    ++paths;
                 } catch (IOException e) {
                     // TODO Auto-generated catch block
                     e.printStackTrace();
@@ -144,5 +261,6 @@ public class EnvImage extends FSSession {
 
         //root.scheduleUndo(this);
         super.scheduleDelete(envImage);
+        return paths;
     }
-}
\ No newline at end of file
+}
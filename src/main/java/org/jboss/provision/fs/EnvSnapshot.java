@@ -0,0 +1,139 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2016, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.provision.fs;
+
+import java.io.IOException;
+import java.nio.channels.ReadableByteChannel;
+
+import org.jboss.provision.ProvisionErrors;
+import org.jboss.provision.ProvisionException;
+import org.jboss.provision.util.HashUtils;
+
+/**
+ * Read-only view of the environment as of a recorded session.
+ * The content of the paths affected by the history is resolved
+ * from the session records and the content blobs stored in the history
+ * while the paths the history doesn't know about are read from the home directory.
+ *
+ * @author Alexey Loubyansky
+ */
+class EnvSnapshot extends EnvImage {
+
+    private final SessionIndex index;
+
+    EnvSnapshot(FSEnvironment env, String sessionId, SessionIndex index) throws ProvisionException {
+        super(env, sessionId);
+        this.index = index;
+    }
+
+    /**
+     * Returns the state of the path as of this session or null
+     * if the state of the path is not known to the history.
+     */
+    protected PathState getState(String relativePath) throws ProvisionException {
+        final PathNode node = root.getOrNew(relativePath);
+        PathState state = node.getState(index, sessionId, fsEnv.getHistoryDir());
+        if(state != null) {
+            return state;
+        }
+        PathNode parent = node.parent;
+        while(parent != root) {
+            state = parent.getState(index, sessionId, fsEnv.getHistoryDir());
+            if(state != null) {
+                return state.exists() ? null : PathState.ABSENT;
+            }
+            parent = parent.parent;
+        }
+        return null;
+    }
+
+    @Override
+    public String readContent(String relativePath) throws ProvisionException {
+        final PathState state = getState(relativePath);
+        if(state == null) {
+            return super.readContent(relativePath);
+        }
+        if(!state.exists()) {
+            return null;
+        }
+        if(state.isDir()) {
+            throw new ProvisionException(ProvisionErrors.notAFile(fsEnv.getFile(relativePath)));
+        }
+        return readContent(state.getContent());
+    }
+
+    @Override
+    public ReadableByteChannel openChannel(String relativePath) throws ProvisionException {
+        final PathState state = getState(relativePath);
+        if(state == null) {
+            return super.openChannel(relativePath);
+        }
+        if(!state.exists()) {
+            return null;
+        }
+        if(state.isDir()) {
+            throw new ProvisionException(ProvisionErrors.notAFile(fsEnv.getFile(relativePath)));
+        }
+        return openChannel(state.getContent());
+    }
+
+    @Override
+    public boolean contains(String relativePath) {
+        final PathState state;
+        try {
+            state = getState(relativePath);
+        } catch (ProvisionException e) {
+            throw new IllegalStateException(e);
+        }
+        if(state == null) {
+            return super.contains(relativePath);
+        }
+        return state.exists();
+    }
+
+    @Override
+    public byte[] getHash(String relativePath) throws ProvisionException {
+        final PathState state = getState(relativePath);
+        if(state == null) {
+            return super.getHash(relativePath);
+        }
+        if(!state.exists()) {
+            return null;
+        }
+        if(state.isDir()) {
+            throw new ProvisionException(ProvisionErrors.notAFile(fsEnv.getFile(relativePath)));
+        }
+        if(state.getHash() != null) {
+            return HashUtils.hexStringToByteArray(state.getHash());
+        }
+        try {
+            return getHash(state.getContent());
+        } catch (IOException e) {
+            throw ProvisionErrors.hashCalculationFailed(relativePath, e);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "Snapshot of " + sessionId;
+    }
+}
@@ -22,18 +22,29 @@
 
 package org.jboss.provision.fs;
 
+import java.io.Closeable;
 import java.io.File;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.Iterator;
+import java.util.List;
 import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
 
 import org.jboss.provision.ProvisionErrors;
 import org.jboss.provision.ProvisionException;
+import org.jboss.provision.util.HashUtils;
 
 /**
  *
  * @author Alexey Loubyansky
  */
-public class FSEnvironment extends FSSessionHistory {
+public class FSEnvironment extends FSSessionHistory implements Closeable {
 
     public static FSEnvironment create(FSEnvironmentConfig config) {
         return new FSEnvironment(config);
@@ -47,10 +58,53 @@ public class FSEnvironment extends FSSessionHistory {
     }
 
     private final File homeDir;
+    private final boolean trashDeletes;
+    private final Trash trash;
+    private final OperationMetrics.Listener metricsListener;
+    private final ChangeTracker changeTracker;
+    private final FSEnvironmentConfig.Durability durability;
+    private final boolean resumableCommits;
+    private IntentLog interruptedCommit;
+    private SessionIndex sessionIndex;
+    private PathKeyFilter pathKeyFilter;
 
     private FSEnvironment(FSEnvironmentConfig config) {
         super(config.historyDir);
         this.homeDir = config.homeDir;
+        this.trashDeletes = config.trashDeletes;
+        this.trash = new Trash(historyDir);
+        this.metricsListener = config.metricsListener;
+        this.changeTracker = config.trackChanges ? startChangeTracker() : null;
+        this.durability = config.durability;
+        this.resumableCommits = config.resumableCommits;
+        try {
+            interruptedCommit = IntentLog.recover(historyDir);
+        } catch (ProvisionException e) {
+            throw new IllegalStateException(e);
+        }
+        purgeTrashLeftovers();
+    }
+
+    /**
+     * Purges the content left in the trash by previous runs unless there are
+     * commits in progress or interrupted, which may hold the content they deleted in it.
+     */
+    private void purgeTrashLeftovers() {
+        // listed before the logs are checked, so the content of the commits started later is not included
+        final String[] leftovers = trash.list();
+        if(!IntentLog.hasLogs(historyDir)) {
+            trash.purge(leftovers);
+        }
+    }
+
+    private ChangeTracker startChangeTracker() {
+        try {
+            return ChangeTracker.start(homeDir, historyDir);
+        } catch (IOException e) {
+            // every path is hashed as if the tracking was off
+            e.printStackTrace();
+            return null;
+        }
     }
 
     public File getHomeDir() {
@@ -66,10 +120,265 @@ public class FSEnvironment extends FSSessionHistory {
         return new File(homeDir, getFSRelativePath(relativePath));
     }
 
+    /**
+     * Waits for the content deleted by the previous commits to be purged from the trash.
+     *
+     * @return  false if the timeout elapsed before the trash was purged
+     */
+    public boolean awaitTrashPurge(long timeout, TimeUnit unit) throws InterruptedException {
+        return trash.awaitPurge(timeout, unit);
+    }
+
+    FSEnvironmentConfig.Durability getDurability() {
+        return durability;
+    }
+
+    boolean isResumableCommits() {
+        return resumableCommits;
+    }
+
+    /**
+     * Whether a resumable commit was interrupted and has to be resumed
+     * or aborted before the next commit.
+     */
+    public synchronized boolean isCommitInterrupted() {
+        return interruptedCommit != null;
+    }
+
+    /**
+     * Executes the tasks of the interrupted commit which have not completed.
+     */
+    public synchronized void resumeCommit() throws ProvisionException {
+        if(interruptedCommit == null) {
+            throw ProvisionErrors.noInterruptedCommit();
+        }
+        final List<ContentTask> tasks = IntentLog.resume(interruptedCommit, trash, CommitSync.create(durability));
+        interruptedCommit = null;
+        purgeTrashLeftovers();
+        committed(tasks);
+        // a filter loaded since the interruption may reflect the half updated paths
+        rebuildPathKeyFilter(getLastSessionId());
+    }
+
+    /**
+     * Reverts the interrupted commit.
+     */
+    public synchronized void abortCommit() throws ProvisionException {
+        if(interruptedCommit == null) {
+            throw ProvisionErrors.noInterruptedCommit();
+        }
+        IntentLog.abort(interruptedCommit);
+        interruptedCommit = null;
+        purgeTrashLeftovers();
+        rebuildPathKeyFilter(getLastSessionId());
+    }
+
+    synchronized void interrupted(IntentLog log) {
+        interruptedCommit = log;
+    }
+
+    synchronized void checkNotInterrupted() throws ProvisionException {
+        if(interruptedCommit != null) {
+            throw ProvisionErrors.commitInterrupted();
+        }
+    }
+
+    /**
+     * Starts measuring an operation or returns null if no metrics listener is configured.
+     */
+    MetricsRecorder startMetrics(OperationMetrics.Operation operation, String sessionId) {
+        return metricsListener == null ? null : new MetricsRecorder(metricsListener, operation, sessionId);
+    }
+
+    void committed(List<ContentTask> tasks) {
+        if(changeTracker != null) {
+            final List<File> written = new ArrayList<File>(tasks.size());
+            for(ContentTask task : tasks) {
+                written.add(task.getTarget());
+            }
+            changeTracker.committed(written);
+        }
+    }
+
+    /**
+     * Relative paths of the committed files whose content in the home dir
+     * doesn't match the content recorded by the last commit, in sorted order.
+     * With the change tracking enabled only the files modified since they were
+     * committed are hashed, except for the first call and after the tracker
+     * lost events, when all the committed files are checked. The tracker
+     * waits briefly for the events still being delivered, but the result
+     * is eventually consistent: a modification made right before the call
+     * may be reported only by a later call on the platforms whose watch
+     * service polls the file system.
+     */
+    public List<String> getModifiedPaths() throws ProvisionException {
+        final File pathsDir = new File(historyDir, RootPathNode.PATHS_REPO_DIR);
+        final List<String> result = new ArrayList<String>();
+        final Set<Path> candidates = changeTracker == null ? null : changeTracker.getModified();
+        if(candidates == null) {
+            final List<File> modified = new ArrayList<File>();
+            final File[] nodeDirs = pathsDir.listFiles();
+            if(nodeDirs != null) {
+                for(File nodeDir : nodeDirs) {
+                    final String relativePath = PathNode.getPathForHash(pathsDir, nodeDir.getName());
+                    final File f = getFile(relativePath);
+                    if(PathNode.isModified(nodeDir, f)) {
+                        result.add(relativePath);
+                        modified.add(f);
+                    }
+                }
+            }
+            if(changeTracker != null) {
+                changeTracker.scanned(modified);
+            }
+        } else {
+            final Path home = homeDir.toPath().toAbsolutePath();
+            for(Path path : candidates) {
+                if(!path.startsWith(home) || path.equals(home)) {
+                    continue;
+                }
+                final String relativePath = home.relativize(path).toString().replace(File.separatorChar, '/');
+                final File nodeDir;
+                try {
+                    nodeDir = new File(pathsDir, HashUtils.hashToHexString(relativePath));
+                } catch (IOException e) {
+                    throw ProvisionErrors.hashCalculationFailed(relativePath, e);
+                }
+                if(PathNode.isModified(nodeDir, path.toFile())) {
+                    result.add(relativePath);
+                }
+            }
+        }
+        Collections.sort(result);
+        return result;
+    }
+
+    /**
+     * Releases the change tracker, if the tracking is enabled, and the
+     * threads purging the trash once the content scheduled is purged.
+     */
+    @Override
+    public void close() throws IOException {
+        trash.close();
+        if(changeTracker != null) {
+            changeTracker.close();
+        }
+    }
+
+    /**
+     * The filter of the keys of the tracked paths reflecting the current
+     * state of the history. The filter is loaded from the history dir
+     * or rebuilt from the paths dir if it was saved for a different
+     * session or a commit didn't complete.
+     */
+    synchronized PathKeyFilter getPathKeyFilter() throws ProvisionException {
+        final String lastId = getLastSessionId();
+        if(pathKeyFilter != null && isCurrent(pathKeyFilter, lastId)) {
+            return pathKeyFilter;
+        }
+        pathKeyFilter = PathKeyFilter.load(new File(historyDir, PathKeyFilter.FILE_NAME));
+        if(pathKeyFilter == null || !isCurrent(pathKeyFilter, lastId)) {
+            rebuildPathKeyFilter(lastId);
+        }
+        return pathKeyFilter;
+    }
+
+    private static boolean isCurrent(PathKeyFilter filter, String lastId) {
+        final String filterId = filter.getSessionId();
+        return filterId == null ? lastId == null : filterId.equals(lastId);
+    }
+
+    private void rebuildPathKeyFilter(String lastId) {
+        pathKeyFilter = PathKeyFilter.build(new File(historyDir, RootPathNode.PATHS_REPO_DIR), lastId);
+        if(historyDir.exists()) {
+            savePathKeyFilter();
+        }
+    }
+
+    private void savePathKeyFilter() {
+        try {
+            pathKeyFilter.save(new File(historyDir, PathKeyFilter.FILE_NAME));
+        } catch (IOException e) {
+            // the filter will be rebuilt next time
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Whether the path with the key may be tracked in the history. False is
+     * returned only if the path has never been committed.
+     */
+    synchronized boolean mightBeTracked(String key) {
+        return pathKeyFilter == null || pathKeyFilter.mightContain(key);
+    }
+
+    /**
+     * Adds the key of a path which is about to become tracked to the filter.
+     */
+    synchronized void tracking(String key) {
+        if(pathKeyFilter != null) {
+            pathKeyFilter.add(key);
+        }
+    }
+
+    /**
+     * Removes the saved filter before the paths dir is updated, so that
+     * the filter is rebuilt if the update doesn't complete.
+     */
+    synchronized void updatingPaths() throws ProvisionException {
+        final File f = new File(historyDir, PathKeyFilter.FILE_NAME);
+        if(f.exists() && !f.delete()) {
+            throw ProvisionErrors.deleteFailed(f);
+        }
+    }
+
+    /**
+     * Saves the filter after the paths dir was updated. The filter is rebuilt
+     * instead, if it's been filled beyond its capacity.
+     */
+    synchronized void updatedPaths() throws ProvisionException {
+        if(pathKeyFilter == null) {
+            return;
+        }
+        final String lastId = getLastSessionId();
+        if(pathKeyFilter.isFull()) {
+            rebuildPathKeyFilter(lastId);
+        } else {
+            pathKeyFilter.setSessionId(lastId);
+            savePathKeyFilter();
+        }
+    }
+
+    DeleteTask newDeleteTask(File target) {
+        return trashDeletes ? new TrashDeleteTask(target, trash) : new DeleteTask(target);
+    }
+
     public MutableEnvImage newImage() throws ProvisionException {
         return new MutableEnvImage(this);
     }
 
+    /**
+     * Creates a queue committing the images on a thread of its own, which
+     * is started when an image is submitted and stops once the queue is idle.
+     *
+     * @see #newCommitQueue(Executor, int)
+     */
+    public CommitQueue newCommitQueue() {
+        return newCommitQueue(CommitQueue.newWorker(), CommitQueue.DEFAULT_MAX_BATCH_SIZE);
+    }
+
+    /**
+     * Creates a queue merging the images submitted to it into batches
+     * committed at once. The images of the environment should not be
+     * committed other than through the queue while it is in use.
+     *
+     * @param executor  executor to run the commits
+     * @param maxBatchSize  max number of images committed at once
+     */
+    public CommitQueue newCommitQueue(Executor executor, int maxBatchSize) {
+        return new CommitQueue(this, executor, maxBatchSize);
+    }
+
     protected EnvImage getImage(String id) throws ProvisionException {
         return new EnvImage(this, id);
     }
@@ -82,6 +391,31 @@ public class FSEnvironment extends FSSessionHistory {
         return getImage(sessionId);
     }
 
+    /**
+     * Returns a read-only view of the environment as of the session.
+     * The paths are resolved from the session records and the content
+     * stored in the history, i.e. nothing gets restored to the home directory.
+     */
+    public EnvImage getSnapshot(String sessionId) throws ProvisionException {
+        final SessionIndex index = getSessionIndex();
+        if(!index.contains(sessionId)) {
+            throw ProvisionErrors.unknownSession(sessionId);
+        }
+        return new EnvSnapshot(this, sessionId, index);
+    }
+
+    synchronized SessionIndex getSessionIndex() throws ProvisionException {
+        if(sessionIndex != null) {
+            final String lastId = getLastSessionId();
+            final String indexedId = sessionIndex.getLastSessionId();
+            if(indexedId == null ? lastId == null : indexedId.equals(lastId)) {
+                return sessionIndex;
+            }
+        }
+        sessionIndex = SessionIndex.load(this);
+        return sessionIndex;
+    }
+
     public Iterator<EnvImage> envHistory() throws ProvisionException {
         return new ImageIterator<EnvImage>(getImage()) {
             @Override
@@ -120,11 +454,124 @@ public class FSEnvironment extends FSSessionHistory {
         image.executeUpdates();
     }
 
+    /**
+     * Undoes all the sessions committed after the specified one in a single
+     * transaction. Each path affected by the undone sessions is restored
+     * once to its state in the specified session.
+     *
+     * @param sessionId  id of the session which becomes the last one
+     */
+    public void undoTo(String sessionId) throws ProvisionException {
+        final SessionIndex index = getSessionIndex();
+        final int position = index.getPosition(sessionId);
+        if(position < 0) {
+            throw ProvisionErrors.unknownSession(sessionId);
+        }
+        final List<String> sessionIds = index.getSessionIds();
+        if(position == sessionIds.size() - 1) {
+            return;
+        }
+        final MutableEnvImage image = newImage();
+        for(int i = sessionIds.size() - 1; i > position; --i) {
+            getImage(sessionIds.get(i)).undo(image);
+        }
+        image.executeUpdates();
+    }
+
+    /**
+     * Brings the home directory to the state of the specified session, which
+     * can be older or newer than the current one. The change is committed
+     * as a new session touching only the paths whose content differs from
+     * the target session, so the history in between is preserved and
+     * the checkout itself can be undone.
+     *
+     * @param sessionId  id of the session to check out
+     */
+    public void checkout(String sessionId) throws ProvisionException {
+        final SessionIndex index = getSessionIndex();
+        if(!index.contains(sessionId)) {
+            throw ProvisionErrors.unknownSession(sessionId);
+        }
+        final String lastId = index.getLastSessionId();
+        if(sessionId.equals(lastId)) {
+            return;
+        }
+        final EnvSnapshot target = new EnvSnapshot(this, sessionId, index);
+        final EnvSnapshot current = new EnvSnapshot(this, lastId, index);
+        final MutableEnvImage image = newImage();
+        boolean changed = false;
+        for(String user : UserHistory.listUsers(this)) {
+            final Set<String> targetPaths = getPaths(target.getUserImage(user));
+            final Set<String> currentPaths = getPaths(current.getUserImage(user));
+            MutableUserImage userImage = null;
+            for(String path : currentPaths) {
+                if(!targetPaths.contains(path)) {
+                    if(userImage == null) {
+                        userImage = image.getUserImage(user);
+                    }
+                    userImage.delete(path);
+                }
+            }
+            for(String path : targetPaths) {
+                if(currentPaths.contains(path) && Arrays.equals(target.getHash(path), current.getHash(path))) {
+                    continue;
+                }
+                final PathState state = target.getState(path);
+                if(state != null && !state.exists()) {
+                    continue;
+                }
+                if(userImage == null) {
+                    userImage = image.getUserImage(user);
+                }
+                if(state == null || hasContent(path, state)) {
+                    // the content in the home dir is the target one
+                    image.write(new KeepContentWriter(getFile(path)), path, user, false);
+                } else if(state.isDir()) {
+                    userImage.mkdirs(path);
+                } else {
+                    userImage.write(state.getContent(), path);
+                }
+            }
+            changed |= userImage != null;
+        }
+        if(changed) {
+            image.commit();
+        }
+    }
+
+    /**
+     * Whether the file in the home dir has the content of the state.
+     */
+    private boolean hasContent(String path, PathState state) throws ProvisionException {
+        final File f = getFile(path);
+        if(f.equals(state.getContent())) {
+            return true;
+        }
+        if(state.isDir() || state.getHash() == null || !f.isFile()) {
+            return false;
+        }
+        try {
+            return state.getHash().equals(HashUtils.bytesToHexString(HashUtils.hashFile(f)));
+        } catch (IOException e) {
+            throw ProvisionErrors.hashCalculationFailed(f.getAbsolutePath(), e);
+        }
+    }
+
+    private static Set<String> getPaths(UserImage userImage) throws ProvisionException {
+        return userImage == null ? Collections.<String>emptySet() : userImage.getPaths();
+    }
+
     public void deleteUser(String user) throws ProvisionException {
         final MutableEnvImage image = newImage();
         UserHistory.deleteUser(image, user);
         image.root.schedulePersistence(image);
         image.executeUpdates();
+        // the sessions removed from the middle of the history don't affect the last session id
+        synchronized(this) {
+            sessionIndex = null;
+            // drop the keys of the paths which are no longer tracked
+            rebuildPathKeyFilter(getLastSessionId());
+        }
     }
 
     private abstract class ImageIterator<T> implements Iterator<T> {
@@ -34,10 +34,34 @@ public class FSEnvironmentConfig {
     static final String DEFAULT_BACKUP_SUFFIX = ".fsbkp";
     static final String DEFAULT_HISTORY_DIR_NAME = ".fs";
 
+    /**
+     * How the content written by a commit is flushed to the storage.
+     */
+    public enum Durability {
+        /** nothing is flushed explicitly, a crash may lose or tear a committed session */
+        NONE,
+        /**
+         * the written files and then the affected directories are flushed
+         * in parallel at the end of the commit, before the last session id
+         * is written and flushed
+         */
+        GROUP,
+        /**
+         * every written file and its directory are flushed right after
+         * the file is written, the last session id is written last
+         */
+        STRICT
+    }
+
     public static class Builder {
 
         File homeDir;
         File historyDir;
+        boolean trashDeletes;
+        OperationMetrics.Listener metricsListener;
+        boolean trackChanges;
+        Durability durability = Durability.NONE;
+        boolean resumableCommits;
 
         private Builder() {
         }
@@ -52,6 +76,62 @@ public class FSEnvironmentConfig {
             return this;
         }
 
+        /**
+         * Whether deleted content should be moved to the trash in the history dir
+         * instead of being backed up and deleted file by file during the commit.
+         */
+        public Builder setTrashDeletes(boolean trashDeletes) {
+            this.trashDeletes = trashDeletes;
+            return this;
+        }
+
+        /**
+         * Listener to report the measurements of the engine operations to.
+         * Nothing is measured if the listener is not set.
+         */
+        public Builder setMetricsListener(OperationMetrics.Listener metricsListener) {
+            this.metricsListener = metricsListener;
+            return this;
+        }
+
+        /**
+         * Whether the modifications of the home dir should be tracked with
+         * a watch service, so that {@link FSEnvironment#getModifiedPaths()}
+         * hashes only the modified files once it has checked all of them.
+         * A modification made right before the call may not have been reported
+         * by the watch service yet. Commits always hash the content they replace.
+         * The environment has to be closed when it is not used anymore
+         * to release the watch service.
+         */
+        public Builder setTrackChanges(boolean trackChanges) {
+            this.trackChanges = trackChanges;
+            return this;
+        }
+
+        /**
+         * How the content written by commits should be flushed to the storage.
+         * The default is {@link Durability#NONE}.
+         */
+        public Builder setDurability(Durability durability) {
+            assert durability != null : ProvisionErrors.nullArgument("durability");
+            this.durability = durability;
+            return this;
+        }
+
+        /**
+         * Whether a commit interrupted while its tasks are executed,
+         * by a cancellation or by the death of the process, should be left
+         * to be resumed from the first task which hasn't completed
+         * instead of being reverted. The content which isn't read from
+         * a file is staged in the history dir before the tasks are executed,
+         * the content read from a file has to remain the same until
+         * the commit is resumed.
+         */
+        public Builder setResumableCommits(boolean resumableCommits) {
+            this.resumableCommits = resumableCommits;
+            return this;
+        }
+
         public FSEnvironmentConfig build() {
             return new FSEnvironmentConfig(this);
         }
@@ -63,6 +143,11 @@ public class FSEnvironmentConfig {
 
     File homeDir;
     File historyDir;
+    boolean trashDeletes;
+    OperationMetrics.Listener metricsListener;
+    boolean trackChanges;
+    Durability durability;
+    boolean resumableCommits;
 
     private FSEnvironmentConfig(Builder builder) {
         assert builder.homeDir != null : ProvisionErrors.nullArgument("homeDir");
@@ -72,5 +157,10 @@ public class FSEnvironmentConfig {
         } else {
             historyDir = builder.historyDir;
         }
+        this.trashDeletes = builder.trashDeletes;
+        this.metricsListener = builder.metricsListener;
+        this.trackChanges = builder.trackChanges;
+        this.durability = builder.durability;
+        this.resumableCommits = builder.resumableCommits;
     }
 }
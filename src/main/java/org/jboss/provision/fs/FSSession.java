@@ -44,6 +44,10 @@ abstract class FSSession {
         this.sessionDir = new File(history.getHistoryDir(), sessionId);
     }
 
+    public String getSessionId() {
+        return sessionId;
+    }
+
     File getSessionDir() {
         return sessionDir;
     }
@@ -84,7 +88,9 @@ abstract class FSSession {
 
         final File prevRecordTxt = FSSessionHistory.getFileToPersist(sessionDir, FSSessionHistory.PREV_SESSION_TXT);
         final File lastRecordTxt = new File(history.getHistoryDir(), FSSessionHistory.LAST_SESSION_TXT);
-        final File lastSessionDir = history.getLastSessionDir();
+        // the last session may be scheduled to be committed in the same batch
+        final String lastSessionId = fsImage.readContent(lastRecordTxt);
+        final File lastSessionDir = lastSessionId == null ? null : new File(history.getHistoryDir(), lastSessionId);
 
         if (lastSessionDir != null && !fsImage.isDeleted(lastSessionDir)) {
             fsImage.write(lastSessionDir.getName(), prevRecordTxt);
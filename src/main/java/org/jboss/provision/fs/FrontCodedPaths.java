@@ -0,0 +1,383 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2016, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.provision.fs;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.charset.Charset;
+import java.util.List;
+
+import org.jboss.provision.util.IoUtils;
+
+/**
+ * Sorted path lists stored with front coding. Every entry keeps only
+ * the length of the prefix it shares with the previous entry and the rest
+ * of the path. Every {@link #RESTART_INTERVAL}th entry is a restart point
+ * stored in full, the offsets of the restart points are kept in the trailer,
+ * which allows a binary search over the restart points followed by a scan
+ * of a single block.
+ *
+ * <pre>
+ * entry:   [tag byte] varint shared, varint suffix length, suffix UTF-8 bytes
+ * trailer: int restart offsets..., int count, int restart interval, byte flags, int magic
+ * </pre>
+ *
+ * The optional tag is a single ASCII character stored with every entry,
+ * e.g. the action of a task.
+ *
+ * @author Alexey Loubyansky
+ */
+class FrontCodedPaths {
+
+    static final int RESTART_INTERVAL = 16;
+
+    private static final int MAGIC = 0x46435031; // FCP1
+    private static final int TAGGED = 1;
+    private static final int TRAILER_LENGTH = 13;
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    static ContentTask newWriter(File target, List<String> sortedPaths) {
+        return newWriter(target, sortedPaths, null);
+    }
+
+    /**
+     * Writer of the sorted paths, each with the tag at the same position
+     * unless the tags are null.
+     */
+    static ContentTask newWriter(File target, List<String> sortedPaths, char[] tags) {
+        return new ChannelContentWriter(ContentSource.of(encode(sortedPaths, tags)), target);
+    }
+
+    static byte[] encode(List<String> sortedPaths, char[] tags) {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        final int[] restarts = new int[(sortedPaths.size() + RESTART_INTERVAL - 1) / RESTART_INTERVAL];
+        byte[] prev = null;
+        for(int i = 0; i < sortedPaths.size(); ++i) {
+            final byte[] path = sortedPaths.get(i).getBytes(UTF_8);
+            int shared = 0;
+            if(i % RESTART_INTERVAL == 0) {
+                restarts[i / RESTART_INTERVAL] = out.size();
+            } else {
+                final int max = Math.min(prev.length, path.length);
+                while(shared < max && prev[shared] == path[shared]) {
+                    ++shared;
+                }
+            }
+            if(tags != null) {
+                out.write(tags[i]);
+            }
+            writeVarInt(out, shared);
+            writeVarInt(out, path.length - shared);
+            out.write(path, shared, path.length - shared);
+            prev = path;
+        }
+        for(int restart : restarts) {
+            writeInt(out, restart);
+        }
+        writeInt(out, sortedPaths.size());
+        writeInt(out, RESTART_INTERVAL);
+        out.write(tags == null ? 0 : TAGGED);
+        writeInt(out, MAGIC);
+        return out.toByteArray();
+    }
+
+    /**
+     * Opens a cursor reading the entries sequentially.
+     */
+    static Cursor openCursor(File f) throws IOException {
+        final RandomAccessFile file = new RandomAccessFile(f, "r");
+        final Trailer trailer;
+        try {
+            trailer = readTrailer(file, f);
+        } finally {
+            IoUtils.safeClose(file);
+        }
+        return new Cursor(new DataInputStream(new BufferedInputStream(new FileInputStream(f))), trailer);
+    }
+
+    /**
+     * Opens the file for the lookups by position and by path.
+     */
+    static Index openIndex(File f) throws IOException {
+        final RandomAccessFile file = new RandomAccessFile(f, "r");
+        try {
+            return new Index(file, readTrailer(file, f));
+        } catch (IOException e) {
+            IoUtils.safeClose(file);
+            throw e;
+        }
+    }
+
+    private static Trailer readTrailer(RandomAccessFile file, File f) throws IOException {
+        final long length = file.length();
+        if(length < TRAILER_LENGTH) {
+            throw new IOException(f + " is not a front-coded path list");
+        }
+        file.seek(length - TRAILER_LENGTH);
+        final int count = file.readInt();
+        final int interval = file.readInt();
+        final int flags = file.readByte();
+        if(file.readInt() != MAGIC || count < 0 || interval <= 0) {
+            throw new IOException(f + " is not a front-coded path list");
+        }
+        final int[] restarts = new int[(count + interval - 1) / interval];
+        final long restartsOffset = length - TRAILER_LENGTH - 4L * restarts.length;
+        file.seek(restartsOffset);
+        for(int i = 0; i < restarts.length; ++i) {
+            restarts[i] = file.readInt();
+        }
+        return new Trailer(count, interval, (flags & TAGGED) != 0, restarts, restartsOffset);
+    }
+
+    private static void writeVarInt(ByteArrayOutputStream out, int value) {
+        while((value & ~0x7f) != 0) {
+            out.write((value & 0x7f) | 0x80);
+            value >>>= 7;
+        }
+        out.write(value);
+    }
+
+    private static int readVarInt(InputStream in) throws IOException {
+        int value = 0;
+        int shift = 0;
+        int b;
+        do {
+            b = in.read();
+            if(b < 0) {
+                throw new EOFException();
+            }
+            value |= (b & 0x7f) << shift;
+            shift += 7;
+        } while((b & 0x80) != 0);
+        return value;
+    }
+
+    private static void writeInt(ByteArrayOutputStream out, int value) {
+        out.write(value >>> 24);
+        out.write(value >>> 16);
+        out.write(value >>> 8);
+        out.write(value);
+    }
+
+    private static class Trailer {
+        final int count;
+        final int interval;
+        final boolean tagged;
+        final int[] restarts;
+        final long restartsOffset;
+
+        Trailer(int count, int interval, boolean tagged, int[] restarts, long restartsOffset) {
+            this.count = count;
+            this.interval = interval;
+            this.tagged = tagged;
+            this.restarts = restarts;
+            this.restartsOffset = restartsOffset;
+        }
+    }
+
+    /**
+     * Decodes the entries one after the other keeping the previous path.
+     */
+    private static class Decoder {
+        private final boolean tagged;
+        private byte[] path = new byte[64];
+        private int length;
+        private char tag;
+
+        Decoder(boolean tagged) {
+            this.tagged = tagged;
+        }
+
+        void next(InputStream in) throws IOException {
+            if(tagged) {
+                final int b = in.read();
+                if(b < 0) {
+                    throw new EOFException();
+                }
+                tag = (char) b;
+            }
+            final int shared = readVarInt(in);
+            final int suffix = readVarInt(in);
+            if(shared > length) {
+                throw new IOException("Corrupted front-coded entry");
+            }
+            length = shared + suffix;
+            if(path.length < length) {
+                final byte[] grown = new byte[Math.max(length, path.length * 2)];
+                System.arraycopy(path, 0, grown, 0, shared);
+                path = grown;
+            }
+            int read = 0;
+            while(read < suffix) {
+                final int n = in.read(path, shared + read, suffix - read);
+                if(n < 0) {
+                    throw new EOFException();
+                }
+                read += n;
+            }
+        }
+
+        String getPath() {
+            return new String(path, 0, length, UTF_8);
+        }
+
+        char getTag() {
+            return tag;
+        }
+    }
+
+    static class Cursor implements Closeable {
+        private final DataInputStream in;
+        private final int count;
+        private final Decoder decoder;
+        private int position;
+
+        private Cursor(DataInputStream in, Trailer trailer) {
+            this.in = in;
+            this.count = trailer.count;
+            this.decoder = new Decoder(trailer.tagged);
+        }
+
+        /**
+         * Moves to the next entry returning false if there are no more entries.
+         */
+        boolean next() throws IOException {
+            if(position == count) {
+                return false;
+            }
+            decoder.next(in);
+            ++position;
+            return true;
+        }
+
+        String getPath() {
+            return decoder.getPath();
+        }
+
+        char getTag() {
+            return decoder.getTag();
+        }
+
+        @Override
+        public void close() {
+            IoUtils.safeClose(in);
+        }
+    }
+
+    static class Index implements Closeable {
+        private final RandomAccessFile file;
+        private final Trailer trailer;
+        private int cachedBlock = -1;
+        private final String[] block;
+
+        private Index(RandomAccessFile file, Trailer trailer) {
+            this.file = file;
+            this.trailer = trailer;
+            this.block = new String[trailer.interval];
+        }
+
+        int size() {
+            return trailer.count;
+        }
+
+        String get(int i) throws IOException {
+            if(i < 0 || i >= trailer.count) {
+                throw new IndexOutOfBoundsException(String.valueOf(i));
+            }
+            loadBlock(i / trailer.interval);
+            return block[i % trailer.interval];
+        }
+
+        /**
+         * Binary search for the path returning its position or
+         * {@code -(insertion point) - 1} if it is not in the list.
+         */
+        int find(String path) throws IOException {
+            int low = 0;
+            int high = trailer.restarts.length - 1;
+            while(low <= high) {
+                final int mid = (low + high) >>> 1;
+                loadBlock(mid);
+                final int cmp = block[0].compareTo(path);
+                if(cmp < 0) {
+                    low = mid + 1;
+                } else if(cmp > 0) {
+                    high = mid - 1;
+                } else {
+                    return mid * trailer.interval;
+                }
+            }
+            // the path could only be in the block before the insertion point
+            if(high < 0) {
+                return -1;
+            }
+            loadBlock(high);
+            final int first = high * trailer.interval;
+            final int end = Math.min(trailer.interval, trailer.count - first);
+            int i = 1;
+            while(i < end) {
+                final int cmp = block[i].compareTo(path);
+                if(cmp == 0) {
+                    return first + i;
+                }
+                if(cmp > 0) {
+                    break;
+                }
+                ++i;
+            }
+            return -(first + i) - 1;
+        }
+
+        private void loadBlock(int b) throws IOException {
+            if(cachedBlock == b) {
+                return;
+            }
+            final long start = trailer.restarts[b];
+            final long end = b + 1 < trailer.restarts.length ? trailer.restarts[b + 1] : trailer.restartsOffset;
+            final byte[] bytes = new byte[(int) (end - start)];
+            file.seek(start);
+            file.readFully(bytes);
+            final InputStream in = new ByteArrayInputStream(bytes);
+            final Decoder decoder = new Decoder(trailer.tagged);
+            final int entries = Math.min(trailer.interval, trailer.count - b * trailer.interval);
+            for(int i = 0; i < entries; ++i) {
+                decoder.next(in);
+                block[i] = decoder.getPath();
+            }
+            cachedBlock = b;
+        }
+
+        @Override
+        public void close() {
+            IoUtils.safeClose(file);
+        }
+    }
+}
@@ -0,0 +1,200 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2016, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.provision.fs;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+import org.jboss.provision.ProvisionErrors;
+import org.jboss.provision.ProvisionException;
+
+/**
+ * Iterates over the paths which differ between two recorded sessions.
+ * The candidates are collected from the records of the sessions committed
+ * between the two, their states are resolved from the recorded hashes
+ * as the iteration advances.
+ *
+ * @author Alexey Loubyansky
+ */
+class ImageDiff implements Iterator<PathDiff> {
+
+    static ImageDiff create(FSEnvironment env, String fromId, String toId, String user) throws ProvisionException {
+        final SessionIndex index = env.getSessionIndex();
+        final int from = index.getPosition(fromId);
+        if(from < 0) {
+            throw ProvisionErrors.unknownSession(fromId);
+        }
+        final int to = index.getPosition(toId);
+        if(to < 0) {
+            throw ProvisionErrors.unknownSession(toId);
+        }
+        final List<String> ids = index.getSessionIds();
+        final Set<String> keys = new LinkedHashSet<String>();
+        for(int i = Math.min(from, to) + 1; i <= Math.max(from, to); ++i) {
+            final File sessionDir = new File(env.getHistoryDir(), ids.get(i));
+            addKeys(keys, new File(sessionDir, "w"));
+            addKeys(keys, new File(sessionDir, "d"));
+        }
+        final EnvSnapshot fromImage = new EnvSnapshot(env, fromId, index);
+        final EnvSnapshot toImage = new EnvSnapshot(env, toId, index);
+        if(user == null) {
+            return new ImageDiff(env, fromImage, toImage, keys, null, null);
+        }
+        return new ImageDiff(env, fromImage, toImage, keys, getPaths(fromImage.getUserImage(user)), getPaths(toImage.getUserImage(user)));
+    }
+
+    private static void addKeys(Set<String> keys, File recordsDir) {
+        final String[] names = recordsDir.list();
+        if(names != null) {
+            keys.addAll(Arrays.asList(names));
+        }
+    }
+
+    private static Set<String> getPaths(UserImage userImage) throws ProvisionException {
+        return userImage == null ? Collections.<String>emptySet() : userImage.getPaths();
+    }
+
+    private final File pathsDir;
+    private final EnvSnapshot fromImage;
+    private final EnvSnapshot toImage;
+    private final Iterator<String> keys;
+    private final Set<String> fromPaths;
+    private final Set<String> toPaths;
+    private Iterator<String> ownershipChanges;
+    private PathDiff next;
+
+    private ImageDiff(FSEnvironment env, EnvSnapshot fromImage, EnvSnapshot toImage, Set<String> keys, Set<String> fromPaths, Set<String> toPaths) {
+        this.pathsDir = new File(env.getHistoryDir(), RootPathNode.PATHS_REPO_DIR);
+        this.fromImage = fromImage;
+        this.toImage = toImage;
+        this.keys = keys.iterator();
+        this.fromPaths = fromPaths;
+        this.toPaths = toPaths;
+    }
+
+    @Override
+    public boolean hasNext() {
+        if(next == null) {
+            try {
+                next = doNext();
+            } catch (ProvisionException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+        return next != null;
+    }
+
+    @Override
+    public PathDiff next() {
+        if(!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        final PathDiff diff = next;
+        next = null;
+        return diff;
+    }
+
+    @Override
+    public void remove() {
+        throw new UnsupportedOperationException();
+    }
+
+    private PathDiff doNext() throws ProvisionException {
+        while(keys.hasNext()) {
+            final String key = keys.next();
+            if(!new File(pathsDir, key).exists()) {
+                // the history of the path has been removed
+                continue;
+            }
+            final String relativePath = PathNode.getPathForHash(pathsDir, key);
+            final PathDiff diff = fromPaths == null ? diff(relativePath) : userDiff(relativePath);
+            if(diff != null) {
+                return diff;
+            }
+        }
+        if(fromPaths == null) {
+            return null;
+        }
+        // the paths the user grabbed or gave up without changing their content
+        if(ownershipChanges == null) {
+            final Set<String> changes = new LinkedHashSet<String>();
+            for(String path : toPaths) {
+                if(!fromPaths.contains(path)) {
+                    changes.add(path);
+                }
+            }
+            for(String path : fromPaths) {
+                if(!toPaths.contains(path)) {
+                    changes.add(path);
+                }
+            }
+            ownershipChanges = changes.iterator();
+        }
+        if(!ownershipChanges.hasNext()) {
+            return null;
+        }
+        final String path = ownershipChanges.next();
+        return new PathDiff(path, toPaths.contains(path) ? PathDiff.Type.ADDED : PathDiff.Type.REMOVED, false);
+    }
+
+    private PathDiff diff(String relativePath) throws ProvisionException {
+        final PathState fromState = fromImage.getState(relativePath);
+        final PathState toState = toImage.getState(relativePath);
+        if(fromState == null || toState == null) {
+            // not known to the history, i.e. the same in both
+            return null;
+        }
+        if(!fromState.exists()) {
+            return toState.exists() ? new PathDiff(relativePath, PathDiff.Type.ADDED, toState.isDir()) : null;
+        }
+        if(!toState.exists()) {
+            return new PathDiff(relativePath, PathDiff.Type.REMOVED, fromState.isDir());
+        }
+        if(fromState.isDir() && toState.isDir()) {
+            return null;
+        }
+        if(fromState.isDir() == toState.isDir() && Arrays.equals(fromImage.getHash(relativePath), toImage.getHash(relativePath))) {
+            return null;
+        }
+        return new PathDiff(relativePath, PathDiff.Type.MODIFIED, toState.isDir());
+    }
+
+    private PathDiff userDiff(String relativePath) throws ProvisionException {
+        final boolean inFrom = fromPaths.contains(relativePath);
+        final boolean inTo = toPaths.contains(relativePath);
+        if(inFrom != inTo) {
+            // reported with the ownership changes
+            return null;
+        }
+        if(!inFrom) {
+            return null;
+        }
+        final PathDiff diff = diff(relativePath);
+        return diff == null ? null : new PathDiff(relativePath, PathDiff.Type.MODIFIED, false);
+    }
+}
@@ -0,0 +1,653 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2016, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.jboss.provision.fs;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.jboss.provision.ProvisionErrors;
+import org.jboss.provision.ProvisionException;
+import org.jboss.provision.util.HashUtils;
+import org.jboss.provision.util.IoUtils;
+
+/**
+ * Write-ahead log of a commit. The log is appended to through a single
+ * stream: a record per backed up task saying whether the target existed
+ * and where its backup is, then a record when the tasks start to be
+ * executed and a record once all of them were executed. The backups
+ * are kept next to the log instead of the temporary dir, so that they
+ * survive the process.
+ *
+ * <p>If the process dies in the middle of a commit, the log is found
+ * when the environment is created and the commit is rolled back
+ * from the backups or, if all the tasks had been executed, rolled
+ * forward by discarding the backups.
+ *
+ * <p>The log of a resumable commit also describes what each task does,
+ * staging the content which is not read from a file next to the backups
+ * and recording the hash of the content read from a file, which is checked
+ * before the commit is resumed, and gets a completion mark appended for
+ * every executed task.
+ * Such a commit interrupted while its tasks were being executed
+ * is left as it is, so that it can be resumed from the first task
+ * without the completion mark or aborted.
+ *
+ * <p>The log is locked as long as its commit is in progress, including
+ * an interrupted resumable commit until it is resumed or aborted, so that
+ * other environments sharing the history dir recover only the commits
+ * whose process is gone.
+ *
+ * @author Alexey Loubyansky
+ */
+class IntentLog {
+
+    static final String DIR_NAME = "wal";
+
+    private static final String LOG_SUFFIX = ".log";
+    private static final String NEW_SUFFIX = ".new";
+    private static final String CONTENT_SUFFIX = ".content";
+    private static final int MAGIC = 0x57414c31; // WAL1
+    private static final int TASK = 'T';
+    private static final int EXECUTE = 'E';
+    private static final int DONE = 'K';
+    private static final int COMMITTED = 'C';
+
+    // what the tasks of a resumable commit do
+    private static final int WRITE = 'W';
+    private static final int COPY = 'F';
+    private static final int MKDIRS = 'M';
+    private static final int DELETE = 'D';
+    private static final int DELETE_IF_EMPTY = 'd';
+    private static final int TRASH = 'X';
+    private static final int MOVE = 'V';
+    private static final int NOOP = 'N';
+
+    /**
+     * Starts the log of the commit of the session.
+     *
+     * @param durable  whether the log and the backups should be flushed
+     * to the storage before the tasks are executed
+     * @param resumable  whether the commit should be left to be resumed
+     * if it is interrupted while its tasks are executed
+     */
+    static IntentLog start(File historyDir, String sessionId, boolean durable, boolean resumable) throws ProvisionException {
+        final File dir = new File(historyDir, DIR_NAME);
+        if(!dir.exists() && !dir.mkdirs()) {
+            throw new ProvisionException(ProvisionErrors.couldNotCreateDir(dir));
+        }
+        // the log is locked before it appears under its name to the recovery
+        final File newLog = new File(dir, sessionId + NEW_SUFFIX);
+        final FileChannel channel;
+        try {
+            channel = FileChannel.open(newLog.toPath(), StandardOpenOption.WRITE, StandardOpenOption.CREATE_NEW);
+        } catch (IOException e) {
+            throw ProvisionErrors.writeError(newLog, e);
+        }
+        final File f = new File(dir, sessionId + LOG_SUFFIX);
+        final IntentLog log = new IntentLog(f, new File(dir, sessionId), channel, durable, resumable);
+        try {
+            if(!log.tryLock()) {
+                throw new IOException("The log is locked");
+            }
+            log.out.writeInt(MAGIC);
+            log.out.writeBoolean(resumable);
+            log.out.flush();
+            Files.move(newLog.toPath(), f.toPath(), StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            log.close();
+            newLog.delete();
+            throw ProvisionErrors.writeError(f, e);
+        }
+        if(!log.backupDir.exists() && !log.backupDir.mkdirs()) {
+            log.discard();
+            throw new ProvisionException(ProvisionErrors.couldNotCreateDir(log.backupDir));
+        }
+        return log;
+    }
+
+    /**
+     * Opens the log left by a commit which is not in progress.
+     *
+     * @return  the locked log or null if the commit is in progress
+     * or the log has been removed
+     */
+    private static IntentLog open(File f) throws ProvisionException {
+        final FileChannel channel;
+        try {
+            channel = FileChannel.open(f.toPath(), StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        } catch (NoSuchFileException e) {
+            return null;
+        } catch (IOException e) {
+            throw ProvisionErrors.writeError(f, e);
+        }
+        final IntentLog log = new IntentLog(f, getBackupDir(f), channel, false, true);
+        boolean locked = false;
+        try {
+            // the log is removed by the commit before it is unlocked
+            locked = log.tryLock() && f.exists();
+        } catch (IOException e) {
+            throw ProvisionErrors.writeError(f, e);
+        } finally {
+            if(!locked) {
+                log.close();
+            }
+        }
+        return locked ? log : null;
+    }
+
+    /**
+     * Completes the commits interrupted by the death of the process
+     * and removes the backups left behind, except for a resumable commit
+     * interrupted while its tasks were being executed. The logs of the
+     * commits in progress are left as they are.
+     *
+     * @return  the locked log of the interrupted resumable commit or null
+     */
+    static IntentLog recover(File historyDir) throws ProvisionException {
+        final File dir = new File(historyDir, DIR_NAME);
+        final File[] logs = dir.listFiles();
+        if(logs == null) {
+            return null;
+        }
+        IntentLog interrupted = null;
+        for(File f : logs) {
+            if(f.getName().endsWith(LOG_SUFFIX)) {
+                final IntentLog log = open(f);
+                if(log == null) {
+                    continue;
+                }
+                boolean keep = false;
+                try {
+                    final Commit commit = Commit.read(f);
+                    if(commit.isResumable() && interrupted == null) {
+                        interrupted = log;
+                        keep = true;
+                    } else {
+                        commit.complete();
+                    }
+                } finally {
+                    if(!keep) {
+                        log.close();
+                    }
+                }
+            }
+        }
+        // the backups of the commits whose logs were removed without them
+        for(File f : dir.listFiles()) {
+            if(f.isDirectory() && !new File(dir, f.getName() + LOG_SUFFIX).exists()) {
+                IoUtils.recursiveDelete(f);
+            }
+        }
+        return interrupted;
+    }
+
+    /**
+     * Whether there are logs of the commits in progress or not completed yet.
+     */
+    static boolean hasLogs(File historyDir) {
+        final String[] names = new File(historyDir, DIR_NAME).list();
+        if(names != null) {
+            for(String name : names) {
+                if(name.endsWith(LOG_SUFFIX) || name.endsWith(NEW_SUFFIX)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Executes the tasks of the interrupted commit which have not been
+     * completed yet and removes the log. The content read from files
+     * is checked to be the same before any of the tasks is executed.
+     *
+     * @param sync  flushes the content according to the durability or null
+     * @return  the tasks of the commit
+     */
+    static List<ContentTask> resume(IntentLog log, Trash trash, CommitSync sync) throws ProvisionException {
+        final Commit commit = Commit.read(log.f);
+        final List<ContentTask> tasks = new ArrayList<ContentTask>(commit.intents.size());
+        for(Intent intent : commit.intents) {
+            tasks.add(intent.newTask(trash));
+        }
+        for(int i = commit.done; i < commit.intents.size(); ++i) {
+            commit.intents.get(i).checkContent();
+        }
+        if(sync != null) {
+            // the content written before the interruption is flushed along with the rest
+            for(int i = 0; i < commit.done; ++i) {
+                sync.executed(tasks.get(i));
+            }
+        }
+        // the task which was being executed when the commit was interrupted is executed again
+        for(int i = commit.done; i < tasks.size(); ++i) {
+            final ContentTask task = tasks.get(i);
+            if(sync != null) {
+                if(i == tasks.size() - 1) {
+                    // the rest of the content is flushed before the last session id is written
+                    sync.flush();
+                }
+                sync.executing(task);
+            }
+            task.execute();
+            if(sync != null) {
+                sync.executed(task);
+            }
+            log.done(sync != null && sync.isStrict());
+        }
+        if(sync != null) {
+            sync.flush();
+        }
+        log.committed(sync != null);
+        // the trashed targets are among the backups
+        commit.discard();
+        log.close();
+        return tasks;
+    }
+
+    /**
+     * Rolls back the interrupted commit and removes the log.
+     */
+    static void abort(IntentLog log) throws ProvisionException {
+        Commit.read(log.f).rollback();
+        log.close();
+    }
+
+    private static File getBackupDir(File log) {
+        final String name = log.getName();
+        return new File(log.getParentFile(), name.substring(0, name.length() - LOG_SUFFIX.length()));
+    }
+
+    private static class Commit {
+
+        static Commit read(File f) throws ProvisionException {
+            final Commit commit = new Commit(f);
+            DataInputStream in = null;
+            try {
+                in = new DataInputStream(new BufferedInputStream(new FileInputStream(f)));
+                if(in.readInt() != MAGIC) {
+                    throw ProvisionErrors.readError(f, new IOException("Not a commit log"));
+                }
+                commit.resumable = in.readBoolean();
+                while(!commit.committed) {
+                    final int record = in.read();
+                    if(record == TASK) {
+                        final File target = new File(in.readUTF());
+                        final boolean existed = in.readBoolean();
+                        final File backup = in.readBoolean() ? new File(in.readUTF()) : null;
+                        final Intent intent = new Intent(target, existed, backup);
+                        if(commit.resumable) {
+                            intent.action = in.read();
+                            if(intent.action == WRITE) {
+                                intent.content = new File(in.readUTF());
+                            } else if(intent.action == COPY) {
+                                intent.content = new File(in.readUTF());
+                                intent.hash = in.readUTF();
+                            }
+                        }
+                        commit.intents.add(intent);
+                    } else if(record == EXECUTE) {
+                        commit.executing = true;
+                    } else if(record == DONE) {
+                        ++commit.done;
+                    } else if(record == COMMITTED) {
+                        commit.committed = true;
+                    } else {
+                        // the end of the log or a record torn by the crash
+                        break;
+                    }
+                }
+            } catch (EOFException e) {
+                // torn record
+            } catch (IOException e) {
+                throw ProvisionErrors.readError(f, e);
+            } finally {
+                IoUtils.safeClose(in);
+            }
+            return commit;
+        }
+
+        final File f;
+        final List<Intent> intents = new ArrayList<Intent>();
+        boolean resumable;
+        boolean executing;
+        int done;
+        boolean committed;
+
+        private Commit(File f) {
+            this.f = f;
+        }
+
+        /**
+         * Whether the commit was interrupted while its tasks
+         * were being executed and can be resumed.
+         */
+        boolean isResumable() {
+            return resumable && executing && !committed;
+        }
+
+        /**
+         * Rolls the commit back if it was interrupted while its tasks
+         * were being executed or forward if all the tasks were executed.
+         */
+        void complete() throws ProvisionException {
+            if(executing && !committed) {
+                rollback();
+            } else {
+                discard();
+            }
+        }
+
+        void rollback() throws ProvisionException {
+            for(int i = intents.size() - 1; i >= 0; --i) {
+                intents.get(i).rollback();
+            }
+            discard();
+        }
+
+        void discard() throws ProvisionException {
+            if(!f.delete()) {
+                throw ProvisionErrors.deleteFailed(f);
+            }
+            for(Intent intent : intents) {
+                // the target moved to the history is kept for the undo
+                if(intent.backup != null && intent.action != MOVE) {
+                    IoUtils.recursiveDelete(intent.backup);
+                }
+            }
+            IoUtils.recursiveDelete(getBackupDir(f));
+        }
+    }
+
+    private static class Intent {
+        final File target;
+        final boolean existed;
+        final File backup;
+        int action;
+        File content;
+        String hash;
+
+        Intent(File target, boolean existed, File backup) {
+            this.target = target;
+            this.existed = existed;
+            this.backup = backup;
+        }
+
+        ContentTask newTask(Trash trash) throws ProvisionException {
+            switch(action) {
+                case WRITE:
+                    return new ChannelContentWriter(ContentSource.of(content.toPath()), target, backup, false);
+                case COPY:
+                    if(content.equals(target)) {
+                        return new KeepContentWriter(target);
+                    }
+                    return new CopyFileContentWriter(content, target, backup, false);
+                case MKDIRS:
+                    return new MkDirsWriter(target);
+                case DELETE:
+                    return new DeleteTask(target, backup, false);
+                case DELETE_IF_EMPTY:
+                    return new DeleteTask(target, true);
+                case TRASH:
+                case MOVE:
+                    final TrashDeleteTask task = new TrashDeleteTask(target, trash);
+                    if(action == MOVE) {
+                        task.setUndoContent(backup);
+                    }
+                    task.backup = backup;
+                    return task;
+                case NOOP:
+                    return DeleteTask.DELETE_FLAG;
+                default:
+                    throw ProvisionErrors.unexpectedTaskFormat();
+            }
+        }
+
+        /**
+         * Makes sure the file the content is read from hasn't changed
+         * since the task was logged.
+         */
+        void checkContent() throws ProvisionException {
+            if(action != COPY) {
+                return;
+            }
+            final String current;
+            try {
+                current = HashUtils.bytesToHexString(HashUtils.hashFile(content));
+            } catch (IOException e) {
+                throw ProvisionErrors.contentChangedSinceInterruption(content);
+            }
+            if(!current.equals(hash)) {
+                throw ProvisionErrors.contentChangedSinceInterruption(content);
+            }
+        }
+
+        void rollback() throws ProvisionException {
+            if(!existed) {
+                // created by the commit
+                IoUtils.recursiveDelete(target);
+                return;
+            }
+            if(backup == null || !backup.exists()) {
+                // untouched
+                return;
+            }
+            IoUtils.recursiveDelete(target);
+            final File parent = target.getParentFile();
+            if(!parent.exists() && !parent.mkdirs()) {
+                throw new ProvisionException(ProvisionErrors.couldNotCreateDir(parent));
+            }
+            try {
+                Files.move(backup.toPath(), target.toPath(), StandardCopyOption.ATOMIC_MOVE);
+            } catch (IOException e) {
+                try {
+                    IoUtils.copyFile(backup, target);
+                } catch (IOException e1) {
+                    throw ProvisionErrors.failedToCopyContent(e1);
+                }
+            }
+        }
+    }
+
+    private final File f;
+    private final File backupDir;
+    private final FileChannel channel;
+    private final DataOutputStream out;
+    private final List<File> backups;
+    private final boolean resumable;
+    private int tasks;
+
+    private IntentLog(File f, File backupDir, FileChannel channel, boolean durable, boolean resumable) {
+        this.f = f;
+        this.backupDir = backupDir;
+        this.channel = channel;
+        this.out = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(channel)));
+        this.backups = durable ? new ArrayList<File>() : null;
+        this.resumable = resumable;
+    }
+
+    /**
+     * Locks the log until it is closed.
+     *
+     * @return  false if the log is locked by a commit in progress
+     */
+    private boolean tryLock() throws IOException {
+        try {
+            return channel.tryLock() != null;
+        } catch (OverlappingFileLockException e) {
+            // by a commit of this process
+            return false;
+        }
+    }
+
+    /**
+     * The dir the backups of the commit should be created in.
+     */
+    File getBackupDir() {
+        return backupDir;
+    }
+
+    boolean isResumable() {
+        return resumable;
+    }
+
+    /**
+     * Records the task once its target has been backed up.
+     *
+     * @param existed  whether the target existed before the commit
+     */
+    void backedUp(ContentTask task, boolean existed) throws ProvisionException {
+        try {
+            out.write(TASK);
+            out.writeUTF(task.getTarget().getAbsolutePath());
+            out.writeBoolean(existed);
+            final File backup = task.backup;
+            out.writeBoolean(backup != null);
+            if(backup != null) {
+                out.writeUTF(backup.getAbsolutePath());
+                if(backups != null && backup.isFile()) {
+                    backups.add(backup);
+                }
+            }
+            if(resumable) {
+                describe(task);
+            }
+            ++tasks;
+        } catch (IOException e) {
+            throw ProvisionErrors.writeError(f, e);
+        }
+    }
+
+    private void describe(ContentTask task) throws IOException, ProvisionException {
+        if(task instanceof TrashDeleteTask) {
+            out.write(((TrashDeleteTask) task).isMovedToHistory() ? MOVE : TRASH);
+        } else if(task instanceof DeleteTask) {
+            out.write(((DeleteTask) task).isIfEmpty() ? DELETE_IF_EMPTY : DELETE);
+        } else if(task.isDelete()) {
+            out.write(NOOP);
+        } else if(task instanceof MkDirsWriter) {
+            out.write(MKDIRS);
+        } else {
+            final Path source = task instanceof ChannelContentWriter ? ((ChannelContentWriter) task).source.getPath() : null;
+            if(source != null) {
+                // the file may be changed by the caller before the commit is resumed
+                out.write(COPY);
+                out.writeUTF(source.toAbsolutePath().toString());
+                out.writeUTF(HashUtils.bytesToHexString(task.getContentHash()));
+                return;
+            }
+            out.write(WRITE);
+            final File content = new File(backupDir, tasks + CONTENT_SUFFIX);
+            final InputStream in = Channels.newInputStream(task.openContent());
+            try {
+                Files.copy(in, content.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            } finally {
+                IoUtils.safeClose(in);
+            }
+            if(backups != null) {
+                backups.add(content);
+            }
+            out.writeUTF(content.getAbsolutePath());
+        }
+    }
+
+    /**
+     * Records that the tasks are about to be executed. From this point
+     * on an interrupted commit is rolled back from the backups.
+     */
+    void executing() throws ProvisionException {
+        if(backups != null && !backups.isEmpty()) {
+            CommitSync.forceAll(backups, false);
+        }
+        append(EXECUTE, backups != null);
+    }
+
+    /**
+     * Marks the next task of a resumable commit as executed.
+     *
+     * @param force  whether the mark should be flushed to the storage,
+     * which is the case once the content of the task has been flushed
+     */
+    void done(boolean force) throws ProvisionException {
+        if(resumable) {
+            append(DONE, force);
+        }
+    }
+
+    /**
+     * Records that all the tasks have been executed. From this point on
+     * an interrupted commit is completed by discarding the backups.
+     *
+     * @param force  whether the record should be flushed to the storage
+     */
+    void committed(boolean force) throws ProvisionException {
+        append(COMMITTED, force);
+    }
+
+    private void append(int record, boolean force) throws ProvisionException {
+        try {
+            out.write(record);
+            out.flush();
+            if(force) {
+                channel.force(false);
+            }
+        } catch (IOException e) {
+            throw ProvisionErrors.writeError(f, e);
+        }
+    }
+
+    /**
+     * Removes the log once the commit has completed or has been reverted.
+     */
+    void discard() {
+        // removed before it is unlocked, so that the commit is not recovered
+        final boolean deleted = f.delete();
+        close();
+        // the backups are needed as long as the log exists
+        if(deleted || f.delete()) {
+            IoUtils.recursiveDelete(backupDir);
+        }
+    }
+
+    private void close() {
+        // also releases the lock
+        IoUtils.safeClose(out);
+    }
+}
@@ -0,0 +1,61 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2016, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.provision.fs;
+
+import org.jboss.provision.util.IoStats;
+
+/**
+ * Measures an operation from its creation to {@link #finish(int)}.
+ * Instances are created only when a metrics listener is configured.
+ *
+ * @author Alexey Loubyansky
+ */
+class MetricsRecorder {
+
+    private final OperationMetrics.Listener listener;
+    private final OperationMetrics.Operation operation;
+    private final String sessionId;
+    private final IoStats stats;
+    private final long start;
+
+    MetricsRecorder(OperationMetrics.Listener listener, OperationMetrics.Operation operation, String sessionId) {
+        this.listener = listener;
+        this.operation = operation;
+        this.sessionId = sessionId;
+        this.stats = IoStats.start();
+        this.start = System.nanoTime();
+    }
+
+    void finish(int taskCount) {
+        final long duration = System.nanoTime() - start;
+        stats.stop();
+        listener.operationCompleted(new OperationMetrics(operation, sessionId, duration, taskCount,
+                stats.getBytesCopied(), stats.getBytesHashed(), stats.getAttributeReads()));
+    }
+
+    /**
+     * Stops the measurement without reporting it, e.g. when the operation failed.
+     */
+    void discard() {
+        stats.stop();
+    }
+}
@@ -24,6 +24,7 @@ package org.jboss.provision.fs;
 import java.io.BufferedWriter;
 import java.io.File;
 import java.io.IOException;
+import java.nio.channels.ReadableByteChannel;
 
 import org.jboss.provision.ProvisionErrors;
 import org.jboss.provision.ProvisionException;
@@ -53,6 +54,18 @@ class MkDirsWriter extends ContentWriter {
         throw new UnsupportedOperationException();
     }
     @Override
+    protected ReadableByteChannel openContent() throws IOException {
+        throw new IOException(ProvisionErrors.notAFile(target));
+    }
+    @Override
+    protected long getContentSize() {
+        return 0;
+    }
+    @Override
+    protected long getBackupSize() {
+        return 0;
+    }
+    @Override
     public void backup() throws ProvisionException {
     }
     @Override
@@ -24,8 +24,12 @@ package org.jboss.provision.fs;
 import java.io.File;
 import java.io.IOException;
 import java.io.PrintStream;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.LinkedHashMap;
@@ -33,10 +37,14 @@ import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
 
 import org.jboss.provision.ProvisionErrors;
 import org.jboss.provision.ProvisionException;
+import org.jboss.provision.util.FlightRecorderUtils;
 import org.jboss.provision.util.HashUtils;
+import org.jboss.provision.util.IoUtils;
 
 /**
  *
@@ -56,6 +64,8 @@ public class MutableEnvImage extends EnvImage {
 
     private Map<String, OpDescr> updates = new LinkedHashMap<String, OpDescr>();
     private Map<String, MutableUserImage> users = Collections.emptyMap();
+    /** updates of the images committed in the same batch before this one */
+    private MutableEnvImage batch;
 
     MutableEnvImage(FSEnvironment fsEnv, String sessionId) throws ProvisionException {
         super(fsEnv, sessionId);
@@ -107,7 +117,7 @@ public class MutableEnvImage extends EnvImage {
     protected String readContent(File target) throws ProvisionException {
         final OpDescr opDescr = updates.get(target.getAbsolutePath());
         if(opDescr == null) {
-            return super.readContent(target);
+            return batch == null ? super.readContent(target) : batch.readContent(target);
         }
         return readContent(opDescr.contentTask);
     }
@@ -119,6 +129,22 @@ public class MutableEnvImage extends EnvImage {
         return contentTask.getContentString();
     }
 
+    @Override
+    public ReadableByteChannel openChannel(String relativePath) throws ProvisionException {
+        if(root.isDeleted(relativePath)) {
+            return null;
+        }
+        final PathNode node = root.get(relativePath);
+        if(node == null || node.contentTask == null) {
+            return super.openChannel(relativePath);
+        }
+        try {
+            return node.contentTask.openContent();
+        } catch (IOException e) {
+            throw ProvisionErrors.readError(node.f, e);
+        }
+    }
+
     @Override
     public boolean contains(String relativePath) {
         final PathNode node = root.get(relativePath);
@@ -132,7 +158,7 @@ public class MutableEnvImage extends EnvImage {
     protected boolean contains(File target) {
         final OpDescr opDescr = updates.get(target.getAbsolutePath());
         if(opDescr == null) {
-            return target.exists();
+            return batch == null ? target.exists() : batch.contains(target);
         }
         return !opDescr.contentTask.isDelete();
     }
@@ -193,9 +219,9 @@ public class MutableEnvImage extends EnvImage {
 
     protected MutableEnvImage write(ContentWriter contentWriter, String relativePath, String user, boolean dir) throws ProvisionException {
         final MutableUserImage userImage = getUserImage(user);
-        root.write(userImage, relativePath, contentWriter, dir);
+        final PathNode target = root.write(userImage, relativePath, contentWriter, dir);
         if(!dir) {
-            userImage.addPath(contentWriter.getTarget(), relativePath, root.isOwnedBy(relativePath, user));
+            userImage.addPath(target.getAttributes() != null, relativePath, target.isOwnedBy(user));
         }
         return this;
     }
@@ -205,6 +231,10 @@ public class MutableEnvImage extends EnvImage {
     }
 
     protected void scheduleDelete(File target, ContentTask task) throws ProvisionException {
+        scheduleDelete(target, readAttributes(target), task);
+    }
+
+    private void scheduleDelete(File target, BasicFileAttributes attrs, ContentTask task) throws ProvisionException {
         final OpDescr descr = updates.get(target.getAbsolutePath());
         if (descr != null) {
             if (descr.contentTask == DeleteTask.DELETE_FLAG) {
@@ -214,9 +244,9 @@ public class MutableEnvImage extends EnvImage {
         } else {
             updates.put(target.getAbsolutePath(), new OpDescr(task));
         }
-        if(target.isDirectory()) {
-            for(File f : target.listFiles()) {
-                scheduleDelete(f, DeleteTask.DELETE_FLAG);
+        if(attrs != null && attrs.isDirectory()) {
+            for(Path child : listDir(target)) {
+                scheduleDelete(child.toFile(), readAttributes(child.toFile()), DeleteTask.DELETE_FLAG);
             }
         }
     }
@@ -232,39 +262,73 @@ public class MutableEnvImage extends EnvImage {
     }
 
     protected void giveUp(File target, String relativePath, MutableUserImage userImage, boolean recordPath) throws ProvisionException {
-        if(target.isDirectory()) {
-            for(File child : target.listFiles()) {
-                final String childPath = relativePath + '/' + child.getName();
-                if(contains(childPath)) {
-                    giveUp(child, childPath, userImage, recordPath);
+        giveUp(target, readAttributes(target), relativePath, userImage, recordPath);
+    }
+
+    private void giveUp(File target, BasicFileAttributes attrs, String relativePath, MutableUserImage userImage, boolean recordPath) throws ProvisionException {
+        if(attrs != null && attrs.isDirectory()) {
+            for(Path child : listDir(target)) {
+                final String childPath = relativePath + '/' + child.getFileName();
+                final BasicFileAttributes childAttrs = readAttributes(child.toFile());
+                if(childAttrs != null && !isPendingDelete(childPath)) {
+                    giveUp(child.toFile(), childAttrs, childPath, userImage, recordPath);
                 }
             }
         } else {
             if(recordPath) {
                 userImage.removePath(relativePath);
             }
-            root.giveUp(userImage, relativePath, !target.exists());
+            root.giveUp(userImage, relativePath, attrs == null);
         }
     }
 
     protected boolean scheduleDelete(File target, String relativePath, MutableUserImage userImage, boolean recordPath) throws ProvisionException {
-        if(target.isDirectory()) {
+        return scheduleDelete(target, readAttributes(target), relativePath, userImage, recordPath);
+    }
+
+    private boolean scheduleDelete(File target, BasicFileAttributes attrs, String relativePath, MutableUserImage userImage, boolean recordPath) throws ProvisionException {
+        if(attrs != null && attrs.isDirectory()) {
             boolean childrenDeleted = true;
-            for(File child : target.listFiles()) {
-                final String childPath = relativePath + '/' + child.getName();
-                if(contains(childPath)) {
-                    childrenDeleted = childrenDeleted && scheduleDelete(child, childPath, userImage, recordPath);
+            for(Path child : listDir(target)) {
+                final String childPath = relativePath + '/' + child.getFileName();
+                final BasicFileAttributes childAttrs = readAttributes(child.toFile());
+                if(childAttrs != null && !isPendingDelete(childPath)) {
+                    childrenDeleted &= scheduleDelete(child.toFile(), childAttrs, childPath, userImage, recordPath);
                 }
             }
             if(childrenDeleted) {
-                root.deleteDir(userImage, relativePath, new DeleteTask(target));
+                root.deleteDir(userImage, relativePath, fsEnv.newDeleteTask(target));
             }
             return childrenDeleted;
         } else {
             if(recordPath) {
                 userImage.removePath(relativePath);
             }
-            return root.delete(userImage, relativePath, new DeleteTask(target));
+            return root.delete(userImage, relativePath, fsEnv.newDeleteTask(target));
+        }
+    }
+
+    /**
+     * Whether the path, which is present in the home directory, is scheduled for deletion.
+     */
+    private boolean isPendingDelete(String relativePath) {
+        final PathNode node = root.get(relativePath);
+        return node != null && node.isDeleted();
+    }
+
+    private static BasicFileAttributes readAttributes(File f) throws ProvisionException {
+        try {
+            return IoUtils.readAttributes(f);
+        } catch (IOException e) {
+            throw ProvisionErrors.readError(f, e);
+        }
+    }
+
+    private static List<Path> listDir(File dir) throws ProvisionException {
+        try {
+            return IoUtils.listDir(dir.toPath());
+        } catch (IOException e) {
+            throw ProvisionErrors.readError(dir, e);
         }
     }
 
@@ -289,16 +353,25 @@ public class MutableEnvImage extends EnvImage {
         return this;
     }
 
+    protected MutableEnvImage write(ContentSource content, String relativePath, MutableUserImage userImage) throws ProvisionException {
+        final ChannelContentWriter mainTask = new ChannelContentWriter(content, fsEnv.getFile(relativePath));
+        write(mainTask, relativePath, userImage.getUsername(), false);
+        return this;
+    }
+
     protected MutableEnvImage write(File content, String relativePath, String user) throws ProvisionException {
         assert user != null : ProvisionErrors.nullArgument("user");
-        if (content.isDirectory()) {
-            final File[] files = content.listFiles();
-            if (files.length == 0) {
+        final BasicFileAttributes attrs = readAttributes(content);
+        if (attrs == null) {
+            throw ProvisionErrors.pathDoesNotExist(content);
+        }
+        if (attrs.isDirectory()) {
+            final DirImport.Entry entry = DirImport.scan(content.toPath());
+            if (entry.children.isEmpty()) {
                 mkdirs(relativePath, user);
             } else {
-                for (File f : files) {
-                    write(f, relativePath + '/' + f.getName(), user);
-                }
+                final MutableUserImage userImage = getUserImage(user);
+                importDir(entry, root.mkdirs(userImage, relativePath), relativePath, userImage);
             }
         } else {
             final CopyFileContentWriter mainTask = new CopyFileContentWriter(content, fsEnv.getFile(relativePath));
@@ -307,6 +380,25 @@ public class MutableEnvImage extends EnvImage {
         return this;
     }
 
+    /**
+     * Adds the already scanned content of the directory under the node
+     * without looking up each path from the root of the tree.
+     */
+    private void importDir(DirImport.Entry entry, PathNode dir, String relativePath, MutableUserImage userImage) throws ProvisionException {
+        for (DirImport.Entry child : entry.children) {
+            final String childPath = relativePath + '/' + child.name;
+            if (!child.dir) {
+                final CopyFileContentWriter task = new CopyFileContentWriter(child.path.toFile(), new File(dir.f, child.name), child.hash);
+                final PathNode target = root.write(userImage, dir, child.name, task, false);
+                userImage.addPath(target.getAttributes() != null, childPath, target.isOwnedBy(userImage.getUsername()));
+            } else if (child.children.isEmpty()) {
+                root.write(userImage, dir, child.name, new MkDirsWriter(new File(dir.f, child.name)), true);
+            } else {
+                importDir(child, root.getOrNewDir(userImage, dir, child.name), childPath, userImage);
+            }
+        }
+    }
+
     protected MutableEnvImage mkdirs(String relativePath, String user) throws ProvisionException {
         write(new MkDirsWriter(fsEnv.getFile(relativePath)), relativePath, user, true);
         return this;
@@ -323,14 +415,33 @@ public class MutableEnvImage extends EnvImage {
     protected boolean isDeleted(File target) {
         final OpDescr opDescr = updates.get(target.getAbsolutePath());
         if(opDescr == null) {
-            return false;
+            return batch != null && batch.isDeleted(target);
         }
         return opDescr.contentTask.isDelete();
     }
 
     protected void schedulePersistence() throws ProvisionException {
+        final MetricsRecorder metrics = fsEnv.startMetrics(OperationMetrics.Operation.SCHEDULE_PERSISTENCE, sessionId);
+        try {
+            doSchedulePersistence();
+        } catch (ProvisionException | RuntimeException | Error e) {
+            if (metrics != null) {
+                metrics.discard();
+            }
+            throw e;
+        }
+        if (metrics != null) {
+            metrics.finish(updates.size());
+        }
+    }
+
+    private void doSchedulePersistence() throws ProvisionException {
         schedulePersistence(this);
         final Set<String> notAffectedUsers = new HashSet<String>(UserHistory.listUsers(fsEnv));
+        if(batch != null) {
+            // the users whose history starts earlier in the batch
+            notAffectedUsers.addAll(batch.users.keySet());
+        }
         for(UserImage user : users.values()) {
             notAffectedUsers.remove(user.getUsername());
             user.schedulePersistence(this);
@@ -340,66 +451,355 @@ public class MutableEnvImage extends EnvImage {
                 new UserHistory(fsEnv, user).newImage(this).scheduleUnaffectedPersistence(this);
             }
         }
+        UserHistory.scheduleManifest(this, users.keySet(), notAffectedUsers);
         root.schedulePersistence(this);
     }
 
     public void commit() throws ProvisionException {
+        commit(new CommitTracker(null, null));
+    }
+
+    /**
+     * The image of the user scheduled earlier in the same batch or null.
+     */
+    MutableUserImage getBatchedUserImage(String user) {
+        return batch == null ? null : batch.users.get(user);
+    }
+
+    /**
+     * Relative paths this image writes or deletes.
+     */
+    Set<String> getAffectedPaths() {
+        return root.getTaskPaths();
+    }
+
+    /**
+     * Schedules the persistence of the image as the session following
+     * the sessions already scheduled in the batch and adds the updates
+     * of the image to the batch. The history records written by the batch
+     * are read from its updates instead of the history dir.
+     */
+    void scheduleIn(MutableEnvImage batch) throws ProvisionException {
+        this.batch = batch;
+        try {
+            schedulePersistence();
+        } finally {
+            this.batch = null;
+        }
+        batch.updates.putAll(updates);
+        for(Map.Entry<String, MutableUserImage> user : users.entrySet()) {
+            batch.addUserImage(user.getKey(), user.getValue());
+        }
+    }
+
+    /**
+     * Resolves the tasks the commit of the image would execute without
+     * executing them. The image remains unchanged and can still be committed.
+     */
+    public CommitPlan plan() throws ProvisionException {
+        final Map<String, OpDescr> scheduled = updates;
+        updates = new LinkedHashMap<String, OpDescr>(scheduled.size());
+        for (Map.Entry<String, OpDescr> entry : scheduled.entrySet()) {
+            updates.put(entry.getKey(), new OpDescr(entry.getValue().contentTask));
+        }
+        try {
+            schedulePersistence();
+            return CommitPlan.create(fsEnv, orderTasks(), new HashSet<String>(users.keySet()));
+        } finally {
+            updates = scheduled;
+        }
+    }
+
+    /**
+     * Commits the image using the executor. The image must not be modified
+     * until the returned future is completed. The commit blocks on the file
+     * system I/O, so the executor should not be a pool meant for computations,
+     * such as the common fork-join pool.
+     *
+     * @param executor  executor to run the commit
+     * @param listener  listener notified of the progress of the commit, may be null
+     * @return  future completed when the commit is done
+     */
+    public CommitFuture commitAsync(Executor executor, CommitProgress.Listener listener) {
+        final CommitFuture future = new CommitFuture();
+        final CommitTracker tracker = new CommitTracker(listener, future);
+        try {
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        commit(tracker);
+                        future.completed();
+                    } catch (ProvisionException | RuntimeException | Error e) {
+                        if (tracker.isCancelled()) {
+                            future.cancelled();
+                        } else {
+                            future.failed(e);
+                        }
+                    }
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            future.failed(e);
+        }
+        return future;
+    }
+
+    private void commit(CommitTracker tracker) throws ProvisionException {
+        final CommitEvent event = FlightRecorderUtils.isAvailable() ? new CommitEvent() : null;
+        if (event != null) {
+            if (event.isEnabled()) {
+                tracker.countBytes();
+            }
+            event.begin();
+        }
         schedulePersistence();
-        executeUpdates();
+        final int tasks = updates.size();
+        executeUpdates(tracker);
+        if (event != null) {
+            event.end();
+            if (event.shouldCommit()) {
+                event.path = fsEnv.getHomeDir().getAbsolutePath();
+                event.sessionId = sessionId;
+                event.tasks = tasks;
+                event.bytes = tracker.getBytesWritten();
+                event.commit();
+            }
+        }
+    }
+
+    /**
+     * Begins the event of a content task or returns null if the flight recorder is not available.
+     */
+    private static ContentTaskEvent beginTaskEvent(String operation) {
+        return FlightRecorderUtils.isAvailable() ? ContentTaskEvent.begin(operation) : null;
     }
 
     protected void executeUpdates() throws ProvisionException {
+        executeUpdates(new CommitTracker(null, null));
+    }
+
+    protected void executeUpdates(CommitTracker tracker) throws ProvisionException {
 
         //root.logTree();
 
-        final List<ContentTask> ops = new ArrayList<ContentTask>(updates.size());
+        fsEnv.checkNotInterrupted();
+        final List<ContentTask> ops = orderTasks();
         int i = 0;
+        fsEnv.updatingPaths();
+        final CommitSync sync = CommitSync.create(fsEnv.getDurability());
+        final IntentLog log = IntentLog.start(fsEnv.getHistoryDir(), sessionId, sync != null, fsEnv.isResumableCommits());
 
         // backup
+        MetricsRecorder metrics = fsEnv.startMetrics(OperationMetrics.Operation.BACKUP, sessionId);
         try {
-            for (OpDescr op : updates.values()) {
-                ++i;
-                ops.add(op.contentTask);
-                op.contentTask.backup();
+            tracker.planned(ops.size());
+            tracker.phase(CommitProgress.Phase.BACKUP, ops.size());
+            while (i < ops.size()) {
+                final ContentTask op = ops.get(i++);
+                op.setBackupDir(log.getBackupDir());
+                final boolean existed = op.getTarget().exists();
+                final ContentTaskEvent event = beginTaskEvent(ContentTaskEvent.BACKUP);
+                op.backup();
+                if (event != null) {
+                    event.end(op, op.backup);
+                }
+                log.backedUp(op, existed);
+                tracker.backedUp(op);
             }
+            log.executing();
         } catch (ProvisionException | RuntimeException | Error e) {
+            if (metrics != null) {
+                metrics.discard();
+            }
+            tracker.phase(CommitProgress.Phase.REVERT, i);
             while(i > 0) {
                 try {
                     ops.get(--i).cleanup();
                 } catch (ProvisionException e1) {
                     e1.printStackTrace();
                 }
+                tracker.completed();
+            }
+            log.discard();
+            if (tracker.isCancelled()) {
+                throw e;
             }
             throw ProvisionErrors.backupFailed(e);
         }
 
+        if (metrics != null) {
+            metrics.finish(ops.size());
+        }
+
         // execute
+        metrics = fsEnv.startMetrics(OperationMetrics.Operation.EXECUTE, sessionId);
         try {
+            tracker.phase(CommitProgress.Phase.EXECUTE, ops.size());
             i = 0;
             while(i < ops.size()) {
-                ops.get(i++).execute();
+                final ContentTask op = ops.get(i++);
+                if (sync != null && i == ops.size()) {
+                    // the rest of the content is flushed before the last session id is written
+                    sync.flush();
+                }
+                if (sync != null) {
+                    sync.executing(op);
+                }
+                final ContentTaskEvent event = beginTaskEvent(ContentTaskEvent.EXECUTE);
+                op.execute();
+                if (event != null) {
+                    event.end(op, op.isDelete() ? null : op.getTarget());
+                }
+                if (sync != null) {
+                    sync.executed(op);
+                }
+                log.done(sync != null && sync.isStrict());
+                if (i < ops.size()) {
+                    tracker.executed(op);
+                } else {
+                    // past the point where it could be cancelled
+                    tracker.written(op);
+                }
+            }
+            if (sync != null) {
+                sync.flush();
             }
+            log.committed(sync != null);
         } catch (ProvisionException | RuntimeException | Error e) {
+            if (metrics != null) {
+                metrics.discard();
+            }
+            if (tracker.isCancelled() && log.isResumable()) {
+                // the executed tasks are kept to be resumed from
+                if (sync != null) {
+                    try {
+                        sync.flush();
+                    } catch (ProvisionException e1) {
+                        e1.printStackTrace();
+                    }
+                }
+                // the log stays locked until the commit is resumed or aborted
+                fsEnv.interrupted(log);
+                throw e;
+            }
+            tracker.phase(CommitProgress.Phase.REVERT, ops.size());
+            int j = ops.size();
+            while (j > i) {
+                try {
+                    ops.get(--j).cleanup();
+                } catch(Throwable t) {
+                    t.printStackTrace();
+                }
+                tracker.completed();
+            }
             while (i > 0) {
                 try {
-                    ops.get(--i).revert();
+                    final ContentTask op = ops.get(--i);
+                    final ContentTaskEvent event = beginTaskEvent(ContentTaskEvent.REVERT);
+                    op.revert();
+                    if (event != null) {
+                        event.end(op, op.getTarget());
+                    }
                 } catch(Throwable t) {
                     t.printStackTrace();
                 }
+                tracker.completed();
+            }
+            log.discard();
+            if (tracker.isCancelled()) {
+                throw e;
             }
             throw ProvisionErrors.failedToCopyContent(e);
         }
 
+        if (metrics != null) {
+            metrics.finish(ops.size());
+        }
+
         // cleanup
+        metrics = fsEnv.startMetrics(OperationMetrics.Operation.CLEANUP, sessionId);
+        tracker.phase(CommitProgress.Phase.CLEANUP, i);
         while(i > 0) {
             try {
                 ops.get(--i).cleanup();
             } catch (ProvisionException | RuntimeException | Error e) {
                 e.printStackTrace();
             }
+            tracker.completed();
+        }
+        if (metrics != null) {
+            metrics.finish(ops.size());
         }
 
+        log.discard();
+        fsEnv.committed(ops);
+        fsEnv.updatedPaths();
+
         clear();
+        tracker.phase(CommitProgress.Phase.DONE, 0);
+    }
+
+    /**
+     * Returns the tasks in the order they should be executed. Directories
+     * which are deleted only if empty are deleted last, the deepest first,
+     * so that the deletes of their content are executed before them.
+     * The update of the last session id is executed after everything else,
+     * so that the session becomes the last one only once its content is written.
+     */
+    private List<ContentTask> orderTasks() {
+        final List<ContentTask> tasks = new ArrayList<ContentTask>(updates.size());
+        final File lastSessionTxt = new File(fsEnv.getHistoryDir(), FSSessionHistory.LAST_SESSION_TXT);
+        ContentTask lastSessionUpdate = null;
+        List<ContentTask> emptyDirs = Collections.emptyList();
+        for (OpDescr op : updates.values()) {
+            if (op.contentTask.getTarget().equals(lastSessionTxt)) {
+                lastSessionUpdate = op.contentTask;
+            } else if (op.contentTask instanceof DeleteTask && ((DeleteTask) op.contentTask).isIfEmpty()) {
+                if (emptyDirs.isEmpty()) {
+                    emptyDirs = new ArrayList<ContentTask>();
+                }
+                emptyDirs.add(op.contentTask);
+            } else {
+                tasks.add(op.contentTask);
+            }
+        }
+        if (!emptyDirs.isEmpty()) {
+            Collections.sort(emptyDirs, new Comparator<ContentTask>() {
+                @Override
+                public int compare(ContentTask o1, ContentTask o2) {
+                    return o2.getTarget().getAbsolutePath().length() - o1.getTarget().getAbsolutePath().length();
+                }
+            });
+            tasks.addAll(emptyDirs);
+        }
+        if (lastSessionUpdate != null) {
+            tasks.add(lastSessionUpdate);
+        }
+        coverTrashedPaths(tasks);
+        return tasks;
+    }
+
+    /**
+     * Paths moved to the trash together with a directory later
+     * in the same commit don't need to be moved separately.
+     */
+    private static void coverTrashedPaths(List<ContentTask> tasks) {
+        final Set<File> trashedDirs = new HashSet<File>();
+        for (int i = tasks.size() - 1; i >= 0; --i) {
+            if (!(tasks.get(i) instanceof TrashDeleteTask)) {
+                continue;
+            }
+            final TrashDeleteTask task = (TrashDeleteTask) tasks.get(i);
+            File parent = task.getTarget().getParentFile();
+            while (parent != null && !trashedDirs.contains(parent)) {
+                parent = parent.getParentFile();
+            }
+            task.setCovered(parent != null);
+            if (parent == null) {
+                trashedDirs.add(task.getTarget());
+            }
+        }
     }
 
     public boolean isUntouched() {
@@ -22,12 +22,15 @@
 
 package org.jboss.provision.fs;
 
-import java.io.BufferedWriter;
 import java.io.File;
-import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 import org.jboss.provision.ProvisionException;
 
@@ -68,15 +71,38 @@ public class MutableUserImage extends UserImage {
         return this;
     }
 
+    /**
+     * Writes the bytes as they are. The array is not copied.
+     */
+    public MutableUserImage write(byte[] content, String relativePath) throws ProvisionException {
+        return write(ContentSource.of(content), relativePath);
+    }
+
+    /**
+     * Writes the remaining bytes of the buffer. The buffer is not copied.
+     */
+    public MutableUserImage write(ByteBuffer content, String relativePath) throws ProvisionException {
+        return write(ContentSource.of(content), relativePath);
+    }
+
+    public MutableUserImage write(Path content, String relativePath) throws ProvisionException {
+        return write(content.toFile(), relativePath);
+    }
+
+    public MutableUserImage write(ContentSource content, String relativePath) throws ProvisionException {
+        fsImage.write(content, relativePath, this);
+        return this;
+    }
+
     public MutableUserImage mkdirs(String relativePath) throws ProvisionException {
         fsImage.mkdirs(relativePath, username);
         return this;
     }
 
-    protected void addPath(File target, String relativePath, boolean own) throws ProvisionException {
+    protected void addPath(boolean exists, String relativePath, boolean own) throws ProvisionException {
         getPaths().add(relativePath);
         final char action;
-        if (target.exists()) {
+        if (exists) {
             if (own) {
                 action = UPDATE;
             } else {
@@ -94,22 +120,36 @@ public class MutableUserImage extends UserImage {
     }
 
     protected void scheduleUnaffectedPersistence(MutableEnvImage fsImage) throws ProvisionException {
-        fsImage.write(history.getLastSessionId(), sessionDir);
+        fsImage.write(fsImage.readContent(new File(history.getHistoryDir(), FSSessionHistory.LAST_SESSION_TXT)), sessionDir);
     }
 
     @Override
     protected void schedulePersistence(MutableEnvImage fsImage) throws ProvisionException {
+        final MutableUserImage previous = fsImage.getBatchedUserImage(username);
+        if(previous != null) {
+            // the previous image of the user is committed in the same batch
+            applyJournal(setPaths(new HashSet<String>(previous.getPaths())));
+        } else if(isPathsOutdated()) {
+            // another image of the user was committed after this one was created
+            applyJournal(reloadPaths());
+        }
         super.schedulePersistence(fsImage);
-        fsImage.write(new ContentWriter(new File(sessionDir, TASKS)) {
-            @Override
-            public void write(BufferedWriter writer) throws IOException, ProvisionException {
-                for(Map.Entry<String, String> entry : journal.entrySet()) {
-                    writer.write(entry.getValue());
-                    writer.write(entry.getKey());
-                    writer.newLine();
-                }
+        final List<String> sorted = sort(journal.keySet());
+        final char[] actions = new char[sorted.size()];
+        for(int i = 0; i < actions.length; ++i) {
+            actions[i] = journal.get(sorted.get(i)).charAt(0);
+        }
+        fsImage.write(FrontCodedPaths.newWriter(new File(sessionDir, SORTED_TASKS), sorted, actions));
+    }
+
+    private void applyJournal(Set<String> paths) {
+        for(Map.Entry<String, String> entry : journal.entrySet()) {
+            if(entry.getValue().charAt(0) == DELETE) {
+                paths.remove(entry.getKey());
+            } else {
+                paths.add(entry.getKey());
             }
-        });
+        }
     }
 
     private void putInJournal(String relativePath, char c) {
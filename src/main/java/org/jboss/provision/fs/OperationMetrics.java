@@ -0,0 +1,108 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2016, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.provision.fs;
+
+/**
+ * Measurements of an engine operation reported to the listener
+ * configured with {@link FSEnvironmentConfig.Builder#setMetricsListener(Listener)}.
+ *
+ * @author Alexey Loubyansky
+ */
+public class OperationMetrics {
+
+    public enum Operation {
+        SCHEDULE_PERSISTENCE,
+        BACKUP,
+        EXECUTE,
+        CLEANUP,
+        UNDO
+    }
+
+    public interface Listener {
+        void operationCompleted(OperationMetrics metrics);
+    }
+
+    private final Operation operation;
+    private final String sessionId;
+    private final long durationNanos;
+    private final int taskCount;
+    private final long bytesCopied;
+    private final long bytesHashed;
+    private final int attributeReads;
+
+    OperationMetrics(Operation operation, String sessionId, long durationNanos, int taskCount,
+            long bytesCopied, long bytesHashed, int attributeReads) {
+        this.operation = operation;
+        this.sessionId = sessionId;
+        this.durationNanos = durationNanos;
+        this.taskCount = taskCount;
+        this.bytesCopied = bytesCopied;
+        this.bytesHashed = bytesHashed;
+        this.attributeReads = attributeReads;
+    }
+
+    public Operation getOperation() {
+        return operation;
+    }
+
+    /**
+     * The session being committed or, for undo, the session being undone.
+     */
+    public String getSessionId() {
+        return sessionId;
+    }
+
+    public long getDurationNanos() {
+        return durationNanos;
+    }
+
+    /**
+     * The number of tasks processed by the operation. For undo it is
+     * the number of paths the undone session affected.
+     */
+    public int getTaskCount() {
+        return taskCount;
+    }
+
+    public long getBytesCopied() {
+        return bytesCopied;
+    }
+
+    public long getBytesHashed() {
+        return bytesHashed;
+    }
+
+    /**
+     * The number of the file attribute reads done through the engine's I/O
+     * utilities on the thread performing the operation. The existence checks
+     * and the I/O of worker threads are not included.
+     */
+    public int getAttributeReads() {
+        return attributeReads;
+    }
+
+    @Override
+    public String toString() {
+        return "[" + operation + " session=" + sessionId + " durationNanos=" + durationNanos + " tasks=" + taskCount +
+                " copied=" + bytesCopied + " hashed=" + bytesHashed + " attributeReads=" + attributeReads + "]";
+    }
+}
@@ -0,0 +1,84 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2016, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.provision.fs;
+
+/**
+ * A path which differs between two images.
+ *
+ * @author Alexey Loubyansky
+ */
+public class PathDiff {
+
+    public enum Type {
+        ADDED,
+        REMOVED,
+        MODIFIED
+    }
+
+    private final String relativePath;
+    private final Type type;
+    private final boolean dir;
+
+    PathDiff(String relativePath, Type type, boolean dir) {
+        this.relativePath = relativePath;
+        this.type = type;
+        this.dir = dir;
+    }
+
+    public String getRelativePath() {
+        return relativePath;
+    }
+
+    public Type getType() {
+        return type;
+    }
+
+    /**
+     * Whether the path is a directory in the image it exists in
+     * or, in case it was modified, in the target image.
+     */
+    public boolean isDir() {
+        return dir;
+    }
+
+    @Override
+    public int hashCode() {
+        return relativePath.hashCode() * 31 + type.hashCode();
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if(this == obj) {
+            return true;
+        }
+        if(!(obj instanceof PathDiff)) {
+            return false;
+        }
+        final PathDiff other = (PathDiff) obj;
+        return relativePath.equals(other.relativePath) && type == other.type && dir == other.dir;
+    }
+
+    @Override
+    public String toString() {
+        return type + " " + relativePath;
+    }
+}
@@ -0,0 +1,215 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2016, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.jboss.provision.fs;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+
+import org.jboss.provision.util.IoUtils;
+
+/**
+ * Bloom filter of the keys of the paths tracked in the history, i.e.
+ * the names of the node dirs in the paths dir. A path whose key is not
+ * in the filter has never been committed, so its node dir doesn't have
+ * to be looked up on the disk. Keys of the paths which are no longer tracked
+ * remain in the filter until it is rebuilt from the paths dir.
+ *
+ * @author Alexey Loubyansky
+ */
+class PathKeyFilter {
+
+    static final String FILE_NAME = "paths.bloom";
+
+    private static final int MAGIC = 0x50424631;
+    private static final int BITS_PER_KEY = 10;
+    private static final int HASHES = 7;
+    private static final int MIN_CAPACITY = 1024;
+
+    /**
+     * Builds the filter from the node dirs in the paths dir.
+     *
+     * @param pathsDir  the paths dir of the history
+     * @param sessionId  the last session id the node dirs correspond to
+     */
+    static PathKeyFilter build(File pathsDir, String sessionId) {
+        final String[] keys = pathsDir.list();
+        final int total = keys == null ? 0 : keys.length;
+        final PathKeyFilter filter = new PathKeyFilter(sessionId, Math.max(MIN_CAPACITY, total * 2), 0, null);
+        if(keys != null) {
+            for(String key : keys) {
+                filter.add(key);
+            }
+        }
+        return filter;
+    }
+
+    /**
+     * Loads the filter saved in the file or returns null if the file
+     * doesn't exist or couldn't be read.
+     */
+    static PathKeyFilter load(File f) {
+        if(!f.exists()) {
+            return null;
+        }
+        DataInputStream in = null;
+        try {
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(f)));
+            if(in.readInt() != MAGIC) {
+                return null;
+            }
+            final String sessionId = in.readBoolean() ? in.readUTF() : null;
+            final int capacity = in.readInt();
+            final int count = in.readInt();
+            final long[] bits = new long[in.readInt()];
+            for(int i = 0; i < bits.length; ++i) {
+                bits[i] = in.readLong();
+            }
+            if(bits.length != words(capacity)) {
+                return null;
+            }
+            return new PathKeyFilter(sessionId, capacity, count, bits);
+        } catch(IOException e) {
+            return null;
+        } finally {
+            IoUtils.safeClose(in);
+        }
+    }
+
+    private static int words(int capacity) {
+        return (int) (((long) capacity * BITS_PER_KEY + 63) / 64);
+    }
+
+    private String sessionId;
+    private final int capacity;
+    private int count;
+    private final long[] bits;
+    private final long bitsTotal;
+
+    private PathKeyFilter(String sessionId, int capacity, int count, long[] bits) {
+        this.sessionId = sessionId;
+        this.capacity = capacity;
+        this.count = count;
+        this.bits = bits == null ? new long[words(capacity)] : bits;
+        this.bitsTotal = this.bits.length * 64L;
+    }
+
+    /**
+     * The last session id of the history the filter reflects.
+     */
+    synchronized String getSessionId() {
+        return sessionId;
+    }
+
+    synchronized void setSessionId(String sessionId) {
+        this.sessionId = sessionId;
+    }
+
+    /**
+     * Whether more keys were added than the filter was sized for,
+     * i.e. the rate of false positives is higher than intended.
+     */
+    synchronized boolean isFull() {
+        return count > capacity;
+    }
+
+    synchronized void add(String key) {
+        final long hash = hash(key);
+        final int h1 = (int) hash;
+        final int h2 = (int) (hash >>> 32);
+        for(int i = 1; i <= HASHES; ++i) {
+            final long bit = index(h1 + i * h2);
+            bits[(int) (bit >>> 6)] |= 1L << bit;
+        }
+        ++count;
+    }
+
+    /**
+     * Returns false if the key has never been added to the filter.
+     */
+    synchronized boolean mightContain(String key) {
+        final long hash = hash(key);
+        final int h1 = (int) hash;
+        final int h2 = (int) (hash >>> 32);
+        for(int i = 1; i <= HASHES; ++i) {
+            final long bit = index(h1 + i * h2);
+            if((bits[(int) (bit >>> 6)] & (1L << bit)) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Writes the filter to a temporary file first and then moves it
+     * to the target, so that the target is never partially written.
+     */
+    synchronized void save(File f) throws IOException {
+        final File tmp = new File(f.getParentFile(), f.getName() + ".tmp");
+        if(!f.getParentFile().exists() && !f.getParentFile().mkdirs()) {
+            throw new IOException("Failed to create " + f.getParentFile().getAbsolutePath());
+        }
+        DataOutputStream out = null;
+        try {
+            out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)));
+            out.writeInt(MAGIC);
+            out.writeBoolean(sessionId != null);
+            if(sessionId != null) {
+                out.writeUTF(sessionId);
+            }
+            out.writeInt(capacity);
+            out.writeInt(count);
+            out.writeInt(bits.length);
+            for(long word : bits) {
+                out.writeLong(word);
+            }
+            out.close();
+        } finally {
+            IoUtils.safeClose(out);
+        }
+        Files.move(tmp.toPath(), f.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private long index(int combined) {
+        return (combined < 0 ? ~combined : combined) % bitsTotal;
+    }
+
+    /**
+     * 64-bit FNV-1a hash of the key.
+     */
+    private static long hash(String key) {
+        long hash = 0xcbf29ce484222325L;
+        for(int i = 0; i < key.length(); ++i) {
+            hash ^= key.charAt(i);
+            hash *= 0x100000001b3L;
+        }
+        return hash;
+    }
+}
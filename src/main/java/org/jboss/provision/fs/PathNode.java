@@ -27,7 +27,9 @@ import java.io.File;
 import java.io.FileReader;
 import java.io.IOException;
 import java.io.PrintStream;
-import java.util.Arrays;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashSet;
 import java.util.Iterator;
@@ -52,6 +54,7 @@ class PathNode {
     private static final String LASTHASH = "lasthash";
     private static final String OWNERSHIP = "ownership";
     private static final String PATH = "path";
+    private static final String PREEXISTING = "preexisting";
     private static final String SESSIONS = "sessions";
 
     protected static PathNode newPath(PathNode parent, String name, boolean dir) throws ProvisionException {
@@ -97,6 +100,26 @@ class PathNode {
         }
     }
 
+    /**
+     * Whether the content of the file differs from the content recorded
+     * by the last commit in the node dir. Paths without recorded content
+     * are not considered modified.
+     */
+    static boolean isModified(File nodeDir, File f) throws ProvisionException {
+        final File lastHashFile = new File(nodeDir, LASTHASH);
+        if(!lastHashFile.exists()) {
+            return false;
+        }
+        if(!f.isFile()) {
+            return true;
+        }
+        try {
+            return !FileUtils.readFile(lastHashFile).equals(HashUtils.bytesToHexString(HashUtils.hashFile(f)));
+        } catch (IOException e) {
+            throw ProvisionErrors.hashCalculationFailed(f.getAbsolutePath(), e);
+        }
+    }
+
     private static String getHash(String relativePath) throws ProvisionException {
         try {
             return HashUtils.hashToHexString(relativePath);
@@ -130,8 +153,12 @@ class PathNode {
     protected PathOwnership ownership;
     protected List<String> sessions;
     protected Map<String, PathNode> children = Collections.emptyMap();
+    /** the path was known to be not tracked in the history when the node was created */
+    boolean untracked;
 
     private String key;
+    private BasicFileAttributes attrs;
+    private boolean attrsLoaded;
 
     protected PathNode(PathNode parent, String relativePath, File f, File nodeDir, boolean dir) throws ProvisionException {
         this.parent = parent;
@@ -148,11 +175,50 @@ class PathNode {
 
     protected boolean exists() {
         if(contentTask == null) {
-            return f.exists();
+            try {
+                return getAttributes() != null;
+            } catch (ProvisionException e) {
+                throw new IllegalStateException(e);
+            }
         }
         return !contentTask.isDelete();
     }
 
+    /**
+     * The attributes of the path in the home directory read in one call
+     * the first time they are requested or null if the path does not exist.
+     */
+    protected BasicFileAttributes getAttributes() throws ProvisionException {
+        if(!attrsLoaded) {
+            try {
+                attrs = IoUtils.readAttributes(f);
+            } catch (IOException e) {
+                throw ProvisionErrors.readError(f, e);
+            }
+            attrsLoaded = true;
+        }
+        return attrs;
+    }
+
+    /**
+     * Names of the children of the path in the home directory.
+     */
+    protected List<String> listChildren() throws ProvisionException {
+        final BasicFileAttributes attrs = getAttributes();
+        if(attrs == null || !attrs.isDirectory()) {
+            return Collections.emptyList();
+        }
+        final List<String> names = new ArrayList<String>();
+        try {
+            for(Path child : IoUtils.listDir(f.toPath())) {
+                names.add(child.getFileName().toString());
+            }
+        } catch (IOException e) {
+            throw ProvisionErrors.readError(f, e);
+        }
+        return names;
+    }
+
     protected boolean isDeleted() {
         return contentTask != null && contentTask.isDelete();
     }
@@ -161,12 +227,9 @@ class PathNode {
         return key;
     }
 
-    protected int getChildrenTotal() {
-        if(!f.isDirectory()) {
-            return 0;
-        }
-        final String[] actual = f.list();
-        if(actual.length == 0) {
+    protected int getChildrenTotal() throws ProvisionException {
+        final List<String> actual = listChildren();
+        if(actual.isEmpty()) {
             int count = 0;
             for(PathNode child : children.values()) {
                 if(child.contentTask != null && !child.contentTask.isDelete()) {
@@ -175,7 +238,7 @@ class PathNode {
             }
             return count;
         }
-        final Set<String> expected = new HashSet<String>(Arrays.asList(actual));
+        final Set<String> expected = new HashSet<String>(actual);
         for(PathNode child : children.values()) {
             if(child.getContentTask() != null) {
                 if(child.getContentTask().isDelete()) {
@@ -193,7 +256,7 @@ class PathNode {
     }
 
     protected PathOwnership getOwnership() throws ProvisionException {
-        if(ownership == null) {
+        if(ownership == null && !untracked) {
             ownership = loadOwnership(new File(nodeDir, OWNERSHIP));
         }
         return ownership;
@@ -231,10 +294,109 @@ class PathNode {
         throw ProvisionErrors.userDoesNotOwnTargetPath(user, relativePath);
     }
 
+    protected boolean isTracked() {
+        return !untracked && nodeDir.exists();
+    }
+
+    /**
+     * Sessions that affected the path starting from the latest one.
+     */
+    protected List<String> getSessions() throws ProvisionException {
+        if(sessions == null) {
+            final File sessionsFile = new File(nodeDir, SESSIONS);
+            if(untracked || !sessionsFile.exists()) {
+                sessions = Collections.emptyList();
+            } else {
+                try {
+                    sessions = FileUtils.readList(sessionsFile);
+                } catch (IOException e) {
+                    throw ProvisionErrors.readError(sessionsFile, e);
+                }
+            }
+        }
+        return sessions;
+    }
+
+    /**
+     * Resolves the state of the path as of the session from the session records
+     * and the content blobs stored in the history. Returns null if the path
+     * has never been affected by any session.
+     */
+    protected PathState getState(SessionIndex index, String sessionId, File historyDir) throws ProvisionException {
+        if(!isTracked()) {
+            return null;
+        }
+        final int position = index.getPosition(sessionId);
+        for(String id : getSessions()) {
+            final int i = index.getPosition(id);
+            if(i >= 0 && i <= position) {
+                return loadState(historyDir, id);
+            }
+        }
+        final File preexisting = new File(nodeDir, PREEXISTING);
+        if(preexisting.exists()) {
+            return PathState.file(null, preexisting);
+        }
+        return PathState.ABSENT;
+    }
+
+    private PathState loadState(File historyDir, String sessionId) throws ProvisionException {
+        File record = IoUtils.newFile(historyDir, sessionId, "w", key);
+        if(!record.exists()) {
+            record = IoUtils.newFile(historyDir, sessionId, "d", key);
+            if(record.exists()) {
+                return PathState.ABSENT;
+            }
+            throw ProvisionErrors.sessionRecordMissingForPath(sessionId, relativePath);
+        }
+        final String hash;
+        try {
+            hash = FileUtils.readFile(record);
+        } catch (IOException e) {
+            throw ProvisionErrors.readError(record, e);
+        }
+        if("dir".equals(hash)) {
+            return PathState.DIR;
+        }
+        final File blob = new File(nodeDir, hash);
+        if(blob.exists()) {
+            return PathState.file(hash, blob);
+        }
+        final File lastHashFile = new File(nodeDir, LASTHASH);
+        if(lastHashFile.exists()) {
+            try {
+                if(hash.equals(FileUtils.readFile(lastHashFile))) {
+                    return PathState.file(hash, f);
+                }
+            } catch (IOException e) {
+                throw ProvisionErrors.readError(lastHashFile, e);
+            }
+        }
+        throw ProvisionErrors.pathDoesNotExist(blob);
+    }
+
     protected void schedulePersistence(MutableEnvImage fsImage) throws ProvisionException {
 
-        if(!nodeDir.exists()) {
+        // the path could have been created or changed since the image was built
+        attrsLoaded = false;
+        if(untracked && fsImage.getFSEnvironment().mightBeTracked(key) && nodeDir.exists()) {
+            // another image committed the path after this node was created
+            untracked = false;
+            sessions = null;
+            if(ownership != null) {
+                final PathOwnership committed = loadOwnership(new File(nodeDir, OWNERSHIP));
+                if(committed != null) {
+                    for(String user : ownership.getUsers()) {
+                        committed.addUser(user);
+                    }
+                    ownership = committed;
+                }
+            }
+        }
+
+        if(!isTracked()) {
             fsImage.write(relativePath, new File(nodeDir, PATH));
+            fsImage.getFSEnvironment().tracking(key);
         }
 
         if(dir) {
@@ -250,24 +412,13 @@ class PathNode {
         }
 
         if (ownership != null) {
-            if (ownership.isOwned()) {
-                final StringBuilder writer = new StringBuilder();
-                if (ownership.isExternalUser()) {
-                    writer.append(EXTERNAL_USER_TRUE).append(FileUtils.LS);
-                }
-                for (String user : ownership.getUsers()) {
-                    writer.append(user).append(FileUtils.LS);
-                }
-                fsImage.write(writer.toString(), new File(nodeDir, OWNERSHIP));
-            } else {
-                fsImage.delete(new File(nodeDir, OWNERSHIP));
-            }
+            scheduleOwnershipPersistence(fsImage);
         }
 
         if(contentTask != null) {
             final StringBuilder sessions = new StringBuilder(fsImage.sessionId);
             final File sessionsFile = new File(nodeDir, SESSIONS);
-            if (sessionsFile.exists()) {
+            if (!untracked && sessionsFile.exists()) {
                 BufferedReader reader = null;
                 try {
                     reader = new BufferedReader(new FileReader(sessionsFile));
@@ -285,32 +436,36 @@ class PathNode {
             fsImage.write(sessions.toString(), sessionsFile);
 
             if(contentTask.canHashContent()) {
-                final String currentHash;
-                if(f.exists()) {
+                final File lastHashFile = new File(nodeDir, LASTHASH);
+                final String lastHash;
+                if(!untracked && lastHashFile.exists()) {
                     try {
-                        currentHash = HashUtils.bytesToHexString(HashUtils.hashFile(f));
+                        lastHash = FileUtils.readFile(lastHashFile);
                     } catch (IOException e) {
-                        throw ProvisionErrors.hashCalculationFailed(f.getAbsolutePath(), e);
+                        throw ProvisionErrors.readError(lastHashFile, e);
                     }
                 } else {
-                    currentHash = null;
+                    lastHash = null;
                 }
 
-                final File lastHashFile = new File(nodeDir, LASTHASH);
-                if(lastHashFile.exists()) {
-                    final String lastHash;
+                final String currentHash;
+                if(getAttributes() == null) {
+                    currentHash = null;
+                } else {
                     try {
-                        lastHash = FileUtils.readFile(lastHashFile);
+                        currentHash = HashUtils.bytesToHexString(HashUtils.hashFile(f));
                     } catch (IOException e) {
-                        throw ProvisionErrors.readError(lastHashFile, e);
+                        throw ProvisionErrors.hashCalculationFailed(f.getAbsolutePath(), e);
                     }
+                }
 
+                if(lastHash != null) {
                     if (!lastHash.equals(currentHash)) {
                         throw ProvisionErrors.pathHashMismatch(relativePath, lastHash, currentHash);
                     }
-                    fsImage.write(f, IoUtils.newFile(nodeDir, currentHash));
+                    scheduleUndoContent(fsImage, IoUtils.newFile(nodeDir, currentHash));
                 } else if(currentHash != null) {
-                    fsImage.write(f, IoUtils.newFile(nodeDir, "preexisting"));
+                    scheduleUndoContent(fsImage, IoUtils.newFile(nodeDir, PREEXISTING));
                 }
 
                 final String contentHash = HashUtils.bytesToHexString(contentTask.getContentHash());
@@ -334,21 +489,25 @@ class PathNode {
         }
     }
 
-    protected void scheduleUndo(MutableEnvImage envImage, String sessionId, boolean write) throws ProvisionException {
+    /**
+     * Schedules saving the current content of the path in the history for the undo.
+     * The content deleted by moving it to the trash is moved to the history instead.
+     */
+    private void scheduleUndoContent(MutableEnvImage fsImage, File undoContent) throws ProvisionException {
+        if(contentTask instanceof TrashDeleteTask) {
+            ((TrashDeleteTask) contentTask).setUndoContent(undoContent);
+        } else {
+            fsImage.write(f, undoContent);
+        }
+    }
 
-        System.out.println("PathNode.scheduleUndo " + relativePath + " dir=" + dir + " write=" + write);
+    protected void scheduleUndo(MutableEnvImage envImage, String sessionId, boolean write) throws ProvisionException {
 
         final File sessionsFile = new File(nodeDir, SESSIONS);
         if(!sessionsFile.exists()) {
             throw ProvisionErrors.pathDoesNotExist(sessionsFile);
         }
-        if (sessions == null) {
-            try {
-                sessions = FileUtils.readList(sessionsFile);
-            } catch (IOException e) {
-                throw ProvisionErrors.readError(sessionsFile, e);
-            }
-        }
+        getSessions();
         final int sessionInd = sessions.indexOf(sessionId);
         if(sessionInd < 0) {
             throw ProvisionErrors.sessionRecordMissingForPath(sessionId, relativePath);
@@ -359,7 +518,7 @@ class PathNode {
                 if(dir) {
                     envImage.write(new DeleteTask(f, true));
                 } else {
-                    final File preexistingFile = new File(nodeDir, "preexisting");
+                    final File preexistingFile = new File(nodeDir, PREEXISTING);
                     if (preexistingFile.exists()) {
                         envImage.write(preexistingFile, f);
                     } else {
@@ -370,18 +529,7 @@ class PathNode {
             envImage.delete(nodeDir);
         } else {
             if (ownership != null) {
-                if (ownership.isOwned()) {
-                    final StringBuilder writer = new StringBuilder();
-                    if (ownership.isExternalUser()) {
-                        writer.append(EXTERNAL_USER_TRUE).append(FileUtils.LS);
-                    }
-                    for (String user : ownership.getUsers()) {
-                        writer.append(user).append(FileUtils.LS);
-                    }
-                    envImage.write(writer.toString(), new File(nodeDir, OWNERSHIP));
-                } else {
-                    envImage.delete(new File(nodeDir, OWNERSHIP));
-                }
+                scheduleOwnershipPersistence(envImage);
             }
 
             sessions.remove(sessionInd);
@@ -419,6 +567,8 @@ class PathNode {
                         if(dir) {
                             envImage.write(new DeleteTask(f, true));
                         } else {
+                            // the path was deleted in the previous session
+                            envImage.delete(f);
                             final File lastHash = new File(nodeDir, LASTHASH);
                             if (lastHash.exists()) {
                                 envImage.delete(lastHash);
@@ -446,6 +596,167 @@ class PathNode {
         }
     }
 
+    /**
+     * Removes the sessions of a user being deleted from the history of the path
+     * and the user from its owners. If the latest change of the path was made
+     * in one of the removed sessions, the path is restored to the state recorded
+     * in the latest remaining session. A directory created in a removed session
+     * which is not going to be empty is attributed to the session that followed it.
+     *
+     * @param removedSessions  removed session ids mapped to the id of the next
+     *                         remaining session or null if there is no such session
+     */
+    protected void scheduleUserRemoval(MutableEnvImage envImage, String user, Map<String, String> removedSessions) throws ProvisionException {
+        final PathOwnership ownership = getOwnership();
+        final boolean ownershipChanged = ownership != null && ownership.removeUser(user);
+
+        final List<String> remaining = new ArrayList<String>(getSessions().size());
+        for(String sessionId : sessions) {
+            if(!removedSessions.containsKey(sessionId)) {
+                remaining.add(sessionId);
+            }
+        }
+        if(remaining.size() == sessions.size()) {
+            if(ownershipChanged) {
+                scheduleOwnershipPersistence(envImage);
+            }
+            return;
+        }
+
+        final File historyDir = envImage.getFSEnvironment().getHistoryDir();
+        if(remaining.isEmpty()) {
+            if(dir) {
+                final String successor = removedSessions.get(sessions.get(sessions.size() - 1));
+                if(successor != null && !isEmptyAfterUpdates(envImage)) {
+                    envImage.write("dir", IoUtils.newFile(historyDir, successor, "w", getKey()));
+                    envImage.write(successor, new File(nodeDir, SESSIONS));
+                    if(ownershipChanged) {
+                        scheduleOwnershipPersistence(envImage);
+                    }
+                    return;
+                }
+                envImage.write(new DeleteTask(f, true));
+            } else {
+                final File preexistingFile = new File(nodeDir, PREEXISTING);
+                if (preexistingFile.exists()) {
+                    envImage.write(preexistingFile, f);
+                } else {
+                    envImage.delete(f);
+                }
+            }
+            envImage.delete(nodeDir);
+            return;
+        }
+
+        if(ownershipChanged) {
+            scheduleOwnershipPersistence(envImage);
+        }
+        final StringBuilder buf = new StringBuilder(remaining.get(0));
+        for(int i = 1; i < remaining.size(); ++i) {
+            buf.append(FileUtils.LS).append(remaining.get(i));
+        }
+        envImage.write(buf.toString(), new File(nodeDir, SESSIONS));
+        if(dir) {
+            if(removedSessions.containsKey(sessions.get(0))) {
+                if(IoUtils.newFile(historyDir, remaining.get(0), "w", getKey()).exists()) {
+                    envImage.mkdirs(f);
+                } else {
+                    envImage.write(new DeleteTask(f, true));
+                }
+            }
+            return;
+        }
+
+        // the blobs of the removed content which is not referenced by the remaining sessions
+        final Set<String> obsoleteBlobs = new HashSet<String>();
+        for(String sessionId : sessions) {
+            if(removedSessions.containsKey(sessionId)) {
+                final String hash = readWriteRecord(historyDir, sessionId);
+                if(hash != null) {
+                    obsoleteBlobs.add(hash);
+                }
+            }
+        }
+        if(removedSessions.containsKey(sessions.get(0))) {
+            final String hash = readWriteRecord(historyDir, remaining.get(0));
+            final File lastHashFile = new File(nodeDir, LASTHASH);
+            if(hash != null) {
+                final File blob = new File(nodeDir, hash);
+                if(blob.exists()) {
+                    envImage.write(blob, f);
+                }
+                envImage.write(hash, lastHashFile);
+                // the content is restored to the home dir
+                obsoleteBlobs.add(hash);
+            } else if(IoUtils.newFile(historyDir, remaining.get(0), "d", getKey()).exists()) {
+                envImage.delete(f);
+                if(lastHashFile.exists()) {
+                    envImage.delete(lastHashFile);
+                }
+            } else {
+                throw ProvisionErrors.sessionRecordMissingForPath(remaining.get(0), relativePath);
+            }
+        }
+        if(obsoleteBlobs.isEmpty()) {
+            return;
+        }
+        for(int i = 1; i < remaining.size(); ++i) {
+            final String hash = readWriteRecord(historyDir, remaining.get(i));
+            if(hash != null) {
+                obsoleteBlobs.remove(hash);
+            }
+        }
+        for(String hash : obsoleteBlobs) {
+            final File blob = new File(nodeDir, hash);
+            if(blob.exists()) {
+                envImage.delete(blob);
+            }
+        }
+    }
+
+    private String readWriteRecord(File historyDir, String sessionId) throws ProvisionException {
+        final File record = IoUtils.newFile(historyDir, sessionId, "w", getKey());
+        if(!record.exists()) {
+            return null;
+        }
+        try {
+            return FileUtils.readFile(record);
+        } catch (IOException e) {
+            throw ProvisionErrors.readError(record, e);
+        }
+    }
+
+    private boolean isEmptyAfterUpdates(MutableEnvImage envImage) throws ProvisionException {
+        if(getAttributes() == null) {
+            return true;
+        }
+        try {
+            for(Path child : IoUtils.listDir(f.toPath())) {
+                if(!envImage.isDeleted(child.toFile())) {
+                    return false;
+                }
+            }
+        } catch (IOException e) {
+            throw ProvisionErrors.readError(f, e);
+        }
+        return true;
+    }
+
+    private void scheduleOwnershipPersistence(MutableEnvImage envImage) throws ProvisionException {
+        if (ownership.isOwned()) {
+            final StringBuilder writer = new StringBuilder();
+            if (ownership.isExternalUser()) {
+                writer.append(EXTERNAL_USER_TRUE).append(FileUtils.LS);
+            }
+            for (String user : ownership.getUsers()) {
+                writer.append(user).append(FileUtils.LS);
+            }
+            envImage.write(writer.toString(), new File(nodeDir, OWNERSHIP));
+        } else {
+            envImage.delete(new File(nodeDir, OWNERSHIP));
+        }
+    }
+
     void logTree() {
         buildTree(this, System.out, new LinkedList<Boolean>());
     }
@@ -0,0 +1,86 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2016, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.provision.fs;
+
+import java.io.File;
+
+/**
+ * State of a path as of some session recorded in the history.
+ *
+ * @author Alexey Loubyansky
+ */
+class PathState {
+
+    static final PathState ABSENT = new PathState(false, false, null, null);
+    static final PathState DIR = new PathState(true, true, null, null);
+
+    static PathState file(String hash, File content) {
+        return new PathState(true, false, hash, content);
+    }
+
+    private final boolean exists;
+    private final boolean dir;
+    private final String hash;
+    private final File content;
+
+    private PathState(boolean exists, boolean dir, String hash, File content) {
+        this.exists = exists;
+        this.dir = dir;
+        this.hash = hash;
+        this.content = content;
+    }
+
+    boolean exists() {
+        return exists;
+    }
+
+    boolean isDir() {
+        return dir;
+    }
+
+    /**
+     * The recorded content hash as a hex string or null if the hash
+     * has not been recorded (e.g. for preexisting content).
+     */
+    String getHash() {
+        return hash;
+    }
+
+    /**
+     * The file holding the content, which is either a blob
+     * in the history or the file in the home directory.
+     */
+    File getContent() {
+        return content;
+    }
+
+    @Override
+    public String toString() {
+        if(!exists) {
+            return "absent";
+        }
+        if(dir) {
+            return "dir";
+        }
+        return "file " + hash + " at " + content.getAbsolutePath();
+    }
+}
@@ -27,6 +27,7 @@ import java.util.Collections;
 import java.util.HashMap;
 import java.util.LinkedHashMap;
 import java.util.Map;
+import java.util.Set;
 
 import org.jboss.provision.ProvisionException;
 
@@ -36,12 +37,16 @@ import org.jboss.provision.ProvisionException;
  */
 public class RootPathNode extends PathNode {
 
-    private static final String PATHS_REPO_DIR = "paths";
+    static final String PATHS_REPO_DIR = "paths";
 
+    private final FSEnvironment fsEnv;
     private Map<String, PathNode> tasks = new LinkedHashMap<String, PathNode>();
 
-    RootPathNode(File f, File historyDir) throws ProvisionException {
-        super(null, "", f, new File(historyDir, PATHS_REPO_DIR), true);
+    RootPathNode(FSEnvironment fsEnv) throws ProvisionException {
+        super(null, "", fsEnv.getHomeDir(), new File(fsEnv.getHistoryDir(), PATHS_REPO_DIR), true);
+        this.fsEnv = fsEnv;
+        // make sure the filter reflects the current state of the history
+        fsEnv.getPathKeyFilter();
     }
 
     PathNode getByHash(String hash, boolean dir) throws ProvisionException {
@@ -168,38 +173,61 @@ public class RootPathNode extends PathNode {
         return true;
     }
 
-    void write(MutableUserImage userImage, String relativePath, ContentWriter task, boolean dir) throws ProvisionException {
+    PathNode write(MutableUserImage userImage, String relativePath, ContentWriter task, boolean dir) throws ProvisionException {
         final String[] segments = relativePath.split("/");
         PathNode parent = this;
         int i = 0;
         while(i < segments.length - 1) {
-            String name = segments[i++];
-            PathNode child = parent.children.get(name);
-            if(child == null) {
-                child = newChild(parent, name, true);
-                if(!child.f.exists()) {
-                    setTask(child, new MkDirsWriter(child.f));
-                }
-            } else if(child.isDeleted()) {
-                child.contentTask = null;
-                deleteChildren(child, userImage, child.getRelativePath());
+            parent = getOrNewDir(userImage, parent, segments[i++]);
+        }
+        return write(userImage, parent, segments[i], task, dir);
+    }
+
+    /**
+     * Returns the node of the directory which is going to contain
+     * new content creating it if necessary.
+     */
+    PathNode mkdirs(MutableUserImage userImage, String relativePath) throws ProvisionException {
+        PathNode dir = this;
+        for(String name : relativePath.split("/")) {
+            dir = getOrNewDir(userImage, dir, name);
+        }
+        return dir;
+    }
+
+    PathNode getOrNewDir(MutableUserImage userImage, PathNode parent, String name) throws ProvisionException {
+        PathNode child = parent.children.get(name);
+        if(child == null) {
+            child = newChild(parent, name, true);
+            if(child.getAttributes() == null) {
+                setTask(child, new MkDirsWriter(child.f));
             }
-            parent = child;
+        } else if(child.isDeleted()) {
+            child.contentTask = null;
+            deleteChildren(child, userImage, child.getRelativePath());
         }
-        PathNode target = parent.children.get(segments[i]);
+        return child;
+    }
+
+    PathNode write(MutableUserImage userImage, PathNode parent, String name, ContentWriter task, boolean dir) throws ProvisionException {
+        PathNode target = parent.children.get(name);
         if(target == null) {
-            target = newChild(parent, segments[i], dir);
+            target = newChild(parent, name, dir);
         } else if(dir && target.isDeleted()) {
-            deleteChildren(target, userImage, relativePath);
+            deleteChildren(target, userImage, target.getRelativePath());
         }
         setTask(target, task);
         if(!dir) {
-            grab(userImage.getUsername(), relativePath);
+            target.addOwner(userImage.getUsername());
         }
+        return target;
     }
 
     private PathNode newChild(PathNode parent, String name, boolean dir) throws ProvisionException {
         final PathNode leaf = PathNode.newPath(parent, name, dir);
+        if(!fsEnv.mightBeTracked(leaf.getKey())) {
+            leaf.untracked = true;
+        }
         switch(parent.children.size()) {
             case 0:
                 parent.children = Collections.singletonMap(name, leaf);
@@ -220,12 +248,9 @@ public class RootPathNode extends PathNode {
                 }
             }
         }
-        final String[] fsChildren = node.f.list();
-        if(fsChildren.length > 0) {
-            for(String name : fsChildren) {
-                if(!node.children.containsKey(name)) {
-                    userImage.delete(relativePath + '/' + name);
-                }
+        for(String name : node.listChildren()) {
+            if(!node.children.containsKey(name)) {
+                userImage.delete(relativePath + '/' + name);
             }
         }
     }
@@ -239,7 +264,16 @@ public class RootPathNode extends PathNode {
         }
     }
 
+    /**
+     * Relative paths of the nodes with scheduled tasks.
+     */
+    Set<String> getTaskPaths() {
+        return tasks.keySet();
+    }
+
     protected void schedulePersistence(MutableEnvImage fsImage) throws ProvisionException {
+        // pick up the paths committed since the image was built
+        fsEnv.getPathKeyFilter();
         for(PathNode node : tasks.values()) {
             node.schedulePersistence(fsImage);
         }
@@ -0,0 +1,103 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2016, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.provision.fs;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.jboss.provision.ProvisionErrors;
+import org.jboss.provision.ProvisionException;
+import org.jboss.provision.util.IoUtils;
+
+/**
+ * Positions of the recorded sessions in the environment history,
+ * the oldest session being at position 0.
+ *
+ * @author Alexey Loubyansky
+ */
+class SessionIndex {
+
+    static SessionIndex load(FSSessionHistory history) throws ProvisionException {
+        final String lastId = history.getLastSessionId();
+        if(lastId == null) {
+            return new SessionIndex(null, Collections.<String>emptyList());
+        }
+        final List<String> ids = new ArrayList<String>();
+        String id = lastId;
+        while(id != null) {
+            ids.add(id);
+            final File prevTxt = IoUtils.newFile(history.getHistoryDir(), id, FSSessionHistory.PREV_SESSION_TXT);
+            if(!prevTxt.exists()) {
+                break;
+            }
+            try {
+                id = FileUtils.readFile(prevTxt);
+            } catch (IOException e) {
+                throw ProvisionErrors.readError(prevTxt, e);
+            }
+        }
+        Collections.reverse(ids);
+        return new SessionIndex(lastId, ids);
+    }
+
+    private final String lastSessionId;
+    private final List<String> ids;
+    private final Map<String, Integer> positions;
+
+    private SessionIndex(String lastSessionId, List<String> ids) {
+        this.lastSessionId = lastSessionId;
+        this.ids = ids;
+        positions = new HashMap<String, Integer>(ids.size());
+        for(int i = 0; i < ids.size(); ++i) {
+            positions.put(ids.get(i), i);
+        }
+    }
+
+    String getLastSessionId() {
+        return lastSessionId;
+    }
+
+    /**
+     * Session ids starting from the oldest one.
+     */
+    List<String> getSessionIds() {
+        return Collections.unmodifiableList(ids);
+    }
+
+    boolean contains(String sessionId) {
+        return positions.containsKey(sessionId);
+    }
+
+    /**
+     * Returns the position of the session in the history or -1
+     * if the session is not recorded.
+     */
+    int getPosition(String sessionId) {
+        final Integer i = positions.get(sessionId);
+        return i == null ? -1 : i;
+    }
+}
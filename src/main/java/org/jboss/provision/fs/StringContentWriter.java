@@ -22,8 +22,11 @@
 package org.jboss.provision.fs;
 
 import java.io.BufferedWriter;
+import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
 
 import org.jboss.provision.ProvisionErrors;
 import org.jboss.provision.ProvisionException;
@@ -54,6 +57,14 @@ class StringContentWriter extends ContentWriter {
         writer.write(content);
     }
     @Override
+    protected ReadableByteChannel openContent() {
+        return Channels.newChannel(new ByteArrayInputStream(content.getBytes()));
+    }
+    @Override
+    protected long getContentSize() {
+        return content.getBytes().length;
+    }
+    @Override
     protected boolean canHashContent() {
         return true;
     }
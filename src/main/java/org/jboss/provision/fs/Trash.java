@@ -0,0 +1,157 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2016, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.provision.fs;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.TimeUnit;
+
+import org.jboss.provision.ProvisionErrors;
+import org.jboss.provision.ProvisionException;
+import org.jboss.provision.util.IoUtils;
+
+/**
+ * Directory in the history dir deleted content is moved to during a commit.
+ * Once the commit succeeded the moved content is purged in the background.
+ *
+ * @author Alexey Loubyansky
+ */
+class Trash {
+
+    static final String TRASH_DIR_NAME = "trash";
+
+    private final File dir;
+    private ForkJoinPool pool;
+    private int pending;
+
+    Trash(File historyDir) {
+        this.dir = new File(historyDir, TRASH_DIR_NAME);
+    }
+
+    File newEntry() throws ProvisionException {
+        if(!dir.exists() && !dir.mkdirs()) {
+            throw new ProvisionException(ProvisionErrors.couldNotCreateDir(dir));
+        }
+        return new File(dir, UUID.randomUUID().toString());
+    }
+
+    /**
+     * Names of the entries in the trash.
+     */
+    String[] list() {
+        final String[] names = dir.list();
+        return names == null ? new String[0] : names;
+    }
+
+    /**
+     * Schedules the entries left in the trash by previous runs for purging.
+     */
+    void purge(String[] names) {
+        for(String name : names) {
+            purge(new File(dir, name));
+        }
+    }
+
+    synchronized void purge(File f) {
+        if(pool == null) {
+            pool = new ForkJoinPool();
+        }
+        ++pending;
+        pool.execute(new Purge(f.toPath(), true));
+    }
+
+    synchronized boolean awaitPurge(long timeout, TimeUnit unit) throws InterruptedException {
+        long remaining = unit.toMillis(timeout);
+        final long deadline = System.currentTimeMillis() + remaining;
+        while(pending > 0) {
+            if(remaining <= 0) {
+                return false;
+            }
+            wait(remaining);
+            remaining = deadline - System.currentTimeMillis();
+        }
+        return true;
+    }
+
+    /**
+     * Shuts down the purging threads once the scheduled entries are purged.
+     */
+    synchronized void close() {
+        if(pool != null) {
+            pool.shutdown();
+            pool = null;
+        }
+    }
+
+    private synchronized void purged() {
+        if(--pending == 0) {
+            notifyAll();
+        }
+    }
+
+    private class Purge extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        private final Path path;
+        private final boolean entry;
+
+        Purge(Path path, boolean entry) {
+            this.path = path;
+            this.entry = entry;
+        }
+
+        @Override
+        protected void compute() {
+            try {
+                final BasicFileAttributes attrs = Files.readAttributes(path, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+                if(attrs.isDirectory()) {
+                    final List<Purge> dirs = new ArrayList<Purge>();
+                    for(Path child : IoUtils.listDir(path)) {
+                        if(Files.isDirectory(child, LinkOption.NOFOLLOW_LINKS)) {
+                            dirs.add(new Purge(child, false));
+                        } else {
+                            Files.deleteIfExists(child);
+                        }
+                    }
+                    invokeAll(dirs);
+                }
+                Files.deleteIfExists(path);
+            } catch(IOException e) {
+                // best effort, whatever is left is purged next time
+            } finally {
+                if(entry) {
+                    purged();
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,158 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2016, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.provision.fs;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.StandardCopyOption;
+
+import org.jboss.provision.ProvisionErrors;
+import org.jboss.provision.ProvisionException;
+import org.jboss.provision.util.IoUtils;
+
+/**
+ * Deletes the target by moving it into the trash. The moved content
+ * is the backup and it is purged in the background after the commit.
+ * A file whose content is kept in the history for the undo is moved
+ * there instead, so that it isn't copied to the history and trashed.
+ *
+ * @author Alexey Loubyansky
+ */
+class TrashDeleteTask extends DeleteTask {
+
+    private final Trash trash;
+    private boolean trashed;
+    private boolean covered;
+    private File undoContent;
+
+    TrashDeleteTask(File target, Trash trash) {
+        super(target, null, true);
+        this.trash = trash;
+    }
+
+    /**
+     * The target is going to be moved to the trash together with its parent directory.
+     */
+    void setCovered(boolean covered) {
+        this.covered = covered;
+    }
+
+    boolean isCovered() {
+        return covered;
+    }
+
+    /**
+     * The file in the history which keeps the content of the target
+     * for the undo of the commit. The target is moved there unless
+     * the file already exists.
+     */
+    void setUndoContent(File undoContent) {
+        this.undoContent = undoContent;
+    }
+
+    /**
+     * Whether the target is moved to the history rather than to the trash.
+     */
+    boolean isMovedToHistory() {
+        return backup != null && backup.equals(undoContent);
+    }
+
+    @Override
+    protected long getBackupSize() {
+        // moved, not copied
+        return 0;
+    }
+
+    @Override
+    public void backup() throws ProvisionException {
+        if(undoContent != null && !undoContent.exists() && target.exists()) {
+            // moved out of its directory even if the directory is trashed later
+            backup = undoContent;
+            return;
+        }
+        backup = covered || !target.exists() ? null : trash.newEntry();
+    }
+
+    @Override
+    public void execute() throws ProvisionException {
+        if(backup == null) {
+            return;
+        }
+        final File backupDir = backup.getParentFile();
+        if(!backupDir.exists() && !backupDir.mkdirs()) {
+            throw new ProvisionException(ProvisionErrors.couldNotCreateDir(backupDir));
+        }
+        try {
+            Files.move(target.toPath(), backup.toPath(), StandardCopyOption.ATOMIC_MOVE);
+        } catch(NoSuchFileException e) {
+            // deleted along with its parent
+            backup = null;
+            return;
+        } catch(AtomicMoveNotSupportedException e) {
+            // the trash is on a different file system
+            try {
+                IoUtils.copyFile(target, backup);
+            } catch (IOException e1) {
+                throw ProvisionErrors.failedToCopyContent(e1);
+            }
+            IoUtils.recursiveDelete(target);
+        } catch(IOException e) {
+            throw ProvisionErrors.deleteFailed(target);
+        }
+        trashed = true;
+    }
+
+    @Override
+    public void revert() throws ProvisionException {
+        if(!trashed) {
+            backup = null;
+            return;
+        }
+        IoUtils.recursiveDelete(target);
+        try {
+            Files.move(backup.toPath(), target.toPath());
+        } catch (IOException e) {
+            throw ProvisionErrors.failedToCopyContent(e);
+        }
+        trashed = false;
+        backup = null;
+    }
+
+    @Override
+    public void cleanup() throws ProvisionException {
+        if(trashed) {
+            if(!isMovedToHistory()) {
+                trash.purge(backup);
+            }
+            trashed = false;
+        }
+        backup = null;
+    }
+
+    @Override
+    public String toString() {
+        return "TrashDeleteTask for " + target.getAbsolutePath();
+    }
+}
@@ -29,9 +29,15 @@ import java.io.FilenameFilter;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
 import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
 import org.jboss.provision.ProvisionErrors;
@@ -46,6 +52,13 @@ public class UserHistory extends FSSessionHistory {
 
     private static final String USERS_DIR_NAME = "users";
 
+    /** sorted front-coded names of the users recorded in a session, each tagged with its role */
+    static final String USERS_MANIFEST = "users.fc";
+    /** the user committed changes in the session */
+    private static final char AFFECTED = 'a';
+    /** the latest image of the user was recorded in an earlier session */
+    private static final char UNAFFECTED = 'u';
+
     private static File getUsersDir(FSEnvironment env) {
         return new File(env.getHistoryDir(), USERS_DIR_NAME);
     }
@@ -79,6 +92,10 @@ public class UserHistory extends FSSessionHistory {
     }
 
     static List<String> listUsers(FSEnvironment env, String sessionId) throws ProvisionException {
+        final Map<String, Boolean> manifest = readManifest(env, sessionId);
+        if(manifest != null) {
+            return new ArrayList<String>(manifest.keySet());
+        }
         final List<String> allUsers = listUsers(env);
         if(allUsers.isEmpty()) {
             return Collections.emptyList();
@@ -100,6 +117,81 @@ public class UserHistory extends FSSessionHistory {
         return users;
     }
 
+    /**
+     * Schedules the manifest of the users recorded in the session.
+     *
+     * @param affected  users who committed changes in the session
+     * @param unaffected  the rest of the users with the history
+     */
+    static void scheduleManifest(MutableEnvImage envImage, Collection<String> affected, Collection<String> unaffected) throws ProvisionException {
+        final Map<String, Boolean> users = new HashMap<String, Boolean>(affected.size() + unaffected.size());
+        for(String user : unaffected) {
+            users.put(user, false);
+        }
+        for(String user : affected) {
+            users.put(user, true);
+        }
+        writeManifest(envImage, envImage.sessionDir, users);
+    }
+
+    private static void writeManifest(MutableEnvImage envImage, File sessionDir, Map<String, Boolean> users) throws ProvisionException {
+        final List<String> names = UserImage.sort(users.keySet());
+        final char[] roles = new char[names.size()];
+        for(int i = 0; i < roles.length; ++i) {
+            roles[i] = users.get(names.get(i)) ? AFFECTED : UNAFFECTED;
+        }
+        envImage.write(FrontCodedPaths.newWriter(new File(sessionDir, USERS_MANIFEST), names, roles));
+    }
+
+    /**
+     * Reads the manifest of the session mapping the users in sorted order
+     * to whether they committed changes in the session. Returns null
+     * if the session was recorded without a manifest.
+     */
+    private static Map<String, Boolean> readManifest(FSEnvironment env, String sessionId) throws ProvisionException {
+        final File manifest = IoUtils.newFile(env.getHistoryDir(), sessionId, USERS_MANIFEST);
+        if(!manifest.exists()) {
+            return null;
+        }
+        final Map<String, Boolean> users = new LinkedHashMap<String, Boolean>();
+        FrontCodedPaths.Cursor cursor = null;
+        try {
+            cursor = FrontCodedPaths.openCursor(manifest);
+            while(cursor.next()) {
+                users.put(cursor.getPath(), cursor.getTag() == AFFECTED);
+            }
+        } catch (IOException e) {
+            throw ProvisionErrors.readError(manifest, e);
+        } finally {
+            IoUtils.safeClose(cursor);
+        }
+        return users;
+    }
+
+    /**
+     * Users recorded in the session mapped to whether they committed changes
+     * in the session. Sessions recorded without a manifest are resolved
+     * by looking up the session in the history of every user.
+     */
+    private static Map<String, Boolean> getSessionUsers(FSEnvironment env, String sessionId) throws ProvisionException {
+        final Map<String, Boolean> manifest = readManifest(env, sessionId);
+        if(manifest != null) {
+            return manifest;
+        }
+        final List<String> allUsers = listUsers(env);
+        if(allUsers.isEmpty()) {
+            return Collections.emptyMap();
+        }
+        final Map<String, Boolean> users = new HashMap<String, Boolean>(allUsers.size());
+        for(String user : allUsers) {
+            final File record = getUserImageDir(env, user, sessionId);
+            if(record.exists()) {
+                users.put(user, record.isDirectory());
+            }
+        }
+        return users;
+    }
+
     private static File getLastUpdateDir(File userHistoryDir, String sessionId) throws ProvisionException {
         File sessionPath = new File(userHistoryDir, sessionId);
         if(!sessionPath.exists()) {
@@ -120,98 +212,187 @@ public class UserHistory extends FSSessionHistory {
     }
 
     static void undo(MutableEnvImage envImage, String sessionId) throws ProvisionException {
-        final List<String> allUsers = listUsers(envImage.getFSEnvironment());
-        if(allUsers.isEmpty()) {
-            return;
-        }
-        for(String user : allUsers) {
-            final File imagePath = getUserImageDir(envImage.getFSEnvironment(), user, sessionId);
-            if(imagePath.isDirectory()) {
+        final FSEnvironment env = envImage.getFSEnvironment();
+        for(Map.Entry<String, Boolean> entry : getSessionUsers(env, sessionId).entrySet()) {
+            final String user = entry.getKey();
+            final File imagePath = getUserImageDir(env, user, sessionId);
+            if(entry.getValue()) {
+                final File sortedTasks = new File(imagePath, UserImage.SORTED_TASKS);
                 final File tasksFile = new File(imagePath, UserImage.TASKS);
-                if(!tasksFile.exists()) {
+                if(!sortedTasks.exists() && !tasksFile.exists()) {
                     continue;
                 }
 
                 final MutableUserImage userImage = envImage.getUserImage(user);
-                BufferedReader reader = null;
-                try {
-                    reader = new BufferedReader(new FileReader(tasksFile));
-                    String line = reader.readLine();
-                    while (line != null) {
-                        System.out.println("UserHistory.undo " + user + " " + line);
-                        final char action = line.charAt(0);
-                        final String relativePath = line.substring(1);
-                        if (relativePath == null) {
-                            throw ProvisionErrors.unexpectedTaskFormat();
+                if(sortedTasks.exists()) {
+                    FrontCodedPaths.Cursor cursor = null;
+                    try {
+                        cursor = FrontCodedPaths.openCursor(sortedTasks);
+                        while(cursor.next()) {
+                            undoTask(envImage, userImage, cursor.getTag(), cursor.getPath());
                         }
-                        if (action == UserImage.CREATE || action == UserImage.GRAB) {
-                            envImage.giveUp(envImage.fsEnv.getFile(relativePath), relativePath, userImage, false);
-                        } else if(action == UserImage.UPDATE) {
-                        } else {
-                            envImage.grab(relativePath, user);
+                    } catch (IOException e) {
+                        throw ProvisionErrors.readError(sortedTasks, e);
+                    } finally {
+                        IoUtils.safeClose(cursor);
+                    }
+                } else {
+                    BufferedReader reader = null;
+                    try {
+                        reader = new BufferedReader(new FileReader(tasksFile));
+                        String line = reader.readLine();
+                        while (line != null) {
+                            if (line.length() < 2) {
+                                throw ProvisionErrors.unexpectedTaskFormat();
+                            }
+                            undoTask(envImage, userImage, line.charAt(0), line.substring(1));
+                            line = reader.readLine();
                         }
-                        line = reader.readLine();
+                    } catch (IOException e) {
+                        e.printStackTrace();
+                    } finally {
+                        IoUtils.safeClose(reader);
                     }
-                } catch (IOException e) {
-                    e.printStackTrace();
-                } finally {
-                    IoUtils.safeClose(reader);
                 }
 
-                loadUserImage(envImage.getFSEnvironment(), user, sessionId).scheduleDelete(envImage);
+                loadUserImage(env, user, sessionId).scheduleDelete(envImage);
+                final File userHistoryDir = getUserHistoryDir(env, user);
+                if(envImage.readContent(new File(userHistoryDir, LAST_SESSION_TXT)) == null) {
+                    // no sessions left
+                    envImage.delete(userHistoryDir);
+                }
             } else {
                 envImage.delete(imagePath);
             }
         }
     }
 
+    private static void undoTask(MutableEnvImage envImage, MutableUserImage userImage, char action, String relativePath) throws ProvisionException {
+        if (action == UserImage.CREATE || action == UserImage.GRAB) {
+            envImage.giveUp(envImage.fsEnv.getFile(relativePath), relativePath, userImage, false);
+        } else if(action == UserImage.DELETE) {
+            envImage.grab(relativePath, userImage.getUsername());
+        }
+    }
+
+    /**
+     * Schedules the removal of the user and all the sessions of the user
+     * from the history as if the user had never committed anything.
+     * Instead of undoing the user's sessions one by one, the paths recorded
+     * in the user's sessions and the paths the user currently owns are visited
+     * once, each removing the user's sessions from its own history.
+     */
     static void deleteUser(MutableEnvImage envImage, String user) throws ProvisionException {
         final FSEnvironment env = envImage.getFSEnvironment();
         final UserHistory userHistory = new UserHistory(env, user);
         if(!userHistory.getHistoryDir().exists()) {
             throw ProvisionErrors.unknownUnit(user);
         }
-        UserImage prevUserImage = userHistory.loadLatest();
-        if(prevUserImage == null) {
+        final UserImage latest = userHistory.loadLatest();
+        if(latest == null) {
             throw ProvisionErrors.noHistoryRecordedUntilThisPoint();
         }
 
-//        final MutableUserImage userImage = envImage.getUserImage(user);
-//        for(String path : prevUserImage.getPaths()) {
-//            envImage.delete(path, userImage, false);
-//        }
+        // the user's sessions starting from the latest one
+        final Set<String> userSessions = new LinkedHashSet<String>();
+        String id = latest.sessionId;
+        while(id != null) {
+            deleteCommitRecords(envImage, id, user);
+            userSessions.add(id);
+            final File prevTxt = IoUtils.newFile(userHistory.getHistoryDir(), id, PREV_SESSION_TXT);
+            if(!prevTxt.exists()) {
+                break;
+            }
+            try {
+                id = FileUtils.readFile(prevTxt);
+            } catch (IOException e) {
+                throw ProvisionErrors.readError(prevTxt, e);
+            }
+        }
+
+        final Map<String, String> successors = new HashMap<String, String>(userSessions.size());
+        final List<String> envSessions = env.getSessionIndex().getSessionIds();
+        String next = null;
+        for(int i = envSessions.size() - 1; i >= 0; --i) {
+            final String sessionId = envSessions.get(i);
+            if(userSessions.contains(sessionId)) {
+                successors.put(sessionId, next);
+            } else {
+                next = sessionId;
+            }
+        }
+
+        // the user's images in the remaining sessions are removed with the user's history dir
+        boolean recorded = false;
+        for(String sessionId : envSessions) {
+            if(userSessions.contains(sessionId)) {
+                recorded = true;
+            } else if(recorded) {
+                final Map<String, Boolean> manifest = readManifest(env, sessionId);
+                if(manifest != null && manifest.remove(user) != null) {
+                    writeManifest(envImage, new File(env.getHistoryDir(), sessionId), manifest);
+                }
+            }
+        }
+
+        final Set<PathNode> nodes = new HashSet<PathNode>();
+        for(String sessionId : userSessions) {
+            final File sessionDir = new File(env.getHistoryDir(), sessionId);
+            collectRecordedPaths(envImage, new File(sessionDir, "w"), nodes);
+            collectRecordedPaths(envImage, new File(sessionDir, "d"), nodes);
+        }
+        final UserImage.PathIterator paths = latest.iteratePaths();
+        try {
+            while(paths.hasNext()) {
+                nodes.add(envImage.root.getOrNew(paths.next()));
+            }
+        } finally {
+            paths.close();
+        }
 
-        deleteCommitRecords(envImage, prevUserImage.sessionId, user);
-        env.getImage(prevUserImage.sessionId).undo(envImage);//.scheduleDelete(envImage);
-        String prevId = prevUserImage.getPreviousRecordId();
-        while(prevId != null) {
-            deleteCommitRecords(envImage, prevId, user);
-            prevUserImage = userHistory.loadImage(prevId);
-            final EnvImage prevEnvImage = env.getImage(prevId);
-            prevId = prevUserImage.getPreviousRecordId();
-            prevEnvImage.undo(envImage);//.scheduleDelete(envImage);
+        // children are visited before their parents
+        final List<PathNode> sorted = new ArrayList<PathNode>(nodes);
+        Collections.sort(sorted, new Comparator<PathNode>() {
+            @Override
+            public int compare(PathNode o1, PathNode o2) {
+                return o2.relativePath.length() - o1.relativePath.length();
+            }});
+        for(PathNode node : sorted) {
+            node.scheduleUserRemoval(envImage, user, successors);
         }
 
+        for(String sessionId : userSessions) {
+            env.getImage(sessionId).scheduleDelete(envImage);
+        }
         envImage.delete(userHistory.getHistoryDir());
     }
 
+    private static void collectRecordedPaths(MutableEnvImage envImage, File recordsDir, Set<PathNode> nodes) throws ProvisionException {
+        if(!recordsDir.exists()) {
+            return;
+        }
+        for(File record : recordsDir.listFiles()) {
+            final String content;
+            try {
+                content = FileUtils.readFile(record);
+            } catch (IOException e) {
+                throw ProvisionErrors.readError(record, e);
+            }
+            nodes.add(envImage.root.getByHash(record.getName(), "dir".equals(content)));
+        }
+    }
+
     static void deleteCommitRecords(MutableEnvImage envImage, String id, String user) throws ProvisionException {
 
-        final File usersDir = getUsersDir(envImage.getFSEnvironment());
-        if(!usersDir.exists()) {
-            throw ProvisionErrors.noHistoryRecordedUntilThisPoint();
-        }
-        final String[] users = usersDir.list();
-        if(users.length == 0) {
+        final FSEnvironment env = envImage.getFSEnvironment();
+        final Map<String, Boolean> users = getSessionUsers(env, id);
+        if(users.isEmpty()) {
             throw ProvisionErrors.noHistoryRecordedUntilThisPoint();
         }
         Set<String> userSet = Collections.emptySet();
-        for(String u : users) {
-            final File record = IoUtils.newFile(usersDir, u, id);
-            if(!record.exists()) {
-                continue;
-            }
-            if(record.isDirectory()) {
+        for(Map.Entry<String, Boolean> entry : users.entrySet()) {
+            final String u = entry.getKey();
+            if(entry.getValue()) {
                 if(!userSet.isEmpty()) {
                     userSet.add(u);
                 } else if(!u.equals(user)) {
@@ -220,11 +401,11 @@ public class UserHistory extends FSSessionHistory {
                     userSet.add(u);
                 }
             } else {
-                envImage.delete(record);
+                envImage.delete(getUserImageDir(env, u, id));
             }
         }
         if(!userSet.isEmpty()) {
-            throw ProvisionErrors.instructionTargetsOtherThanRequestedUnits(user, new HashSet<String>(Arrays.asList(users)));
+            throw ProvisionErrors.instructionTargetsOtherThanRequestedUnits(user, new HashSet<String>(users.keySet()));
         }
     }
 
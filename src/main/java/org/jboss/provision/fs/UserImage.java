@@ -24,12 +24,18 @@ package org.jboss.provision.fs;
 
 
 import java.io.BufferedReader;
-import java.io.BufferedWriter;
+import java.io.Closeable;
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.FileReader;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
 import java.util.Set;
 
 import org.jboss.provision.ProvisionErrors;
@@ -43,7 +49,9 @@ import org.jboss.provision.util.IoUtils;
 public class UserImage extends FSSession {
 
     static final String TASKS = "tasks.txt";
+    static final String SORTED_TASKS = "tasks.fc";
     private static final String PATHS = "paths.txt";
+    private static final String SORTED_PATHS = "paths.fc";
 
     static final char CREATE = 'c';
     static final char DELETE = 'd';
@@ -53,6 +61,8 @@ public class UserImage extends FSSession {
     protected final UserHistory history;
     protected final String username;
     private Set<String> paths;
+    /** the session the paths were loaded from */
+    private String pathsSessionId;
 
     UserImage(UserHistory history, String username, String sessionId) {
         super(history, sessionId);
@@ -68,22 +78,101 @@ public class UserImage extends FSSession {
         return username;
     }
 
+    /**
+     * Iterates over the paths of the user in sorted order. If the paths haven't
+     * been loaded into the image, they are read from the disk as the iteration
+     * proceeds. The iterator is closed when it is exhausted, otherwise
+     * it has to be closed by the caller.
+     */
+    public PathIterator iteratePaths() throws ProvisionException {
+        if(paths == null) {
+            final File sortedPaths = getSortedPathsFile();
+            if(sortedPaths != null) {
+                try {
+                    return new SortedPathIterator(sortedPaths, FrontCodedPaths.openCursor(sortedPaths));
+                } catch (IOException e) {
+                    throw ProvisionErrors.readError(sortedPaths, e);
+                }
+            }
+        }
+        // the paths are modified in this image or were recorded unsorted
+        return new ListPathIterator(sort(getPaths()));
+    }
+
+    /**
+     * Returns up to max paths of the user in sorted order starting from the offset.
+     * If the paths haven't been loaded into the image, only the requested ones
+     * are read from the disk.
+     */
+    public List<String> getPaths(int offset, int max) throws ProvisionException {
+        final File sortedPaths = paths == null ? getSortedPathsFile() : null;
+        if(sortedPaths == null) {
+            final List<String> sorted = sort(getPaths());
+            return offset >= sorted.size() ? Collections.<String>emptyList() :
+                new ArrayList<String>(sorted.subList(offset, Math.min(sorted.size(), offset + max)));
+        }
+        FrontCodedPaths.Index index = null;
+        try {
+            index = FrontCodedPaths.openIndex(sortedPaths);
+            final int end = Math.min(index.size(), offset + max);
+            final List<String> page = new ArrayList<String>(Math.max(0, end - offset));
+            for(int i = offset; i < end; ++i) {
+                page.add(index.get(i));
+            }
+            return page;
+        } catch (IOException e) {
+            throw ProvisionErrors.readError(sortedPaths, e);
+        } finally {
+            IoUtils.safeClose(index);
+        }
+    }
+
+    /**
+     * Whether the user owns the path. If the paths haven't been loaded into
+     * the image, the path is looked up with a binary search on the disk.
+     */
+    public boolean contains(String relativePath) throws ProvisionException {
+        final File sortedPaths = paths == null ? getSortedPathsFile() : null;
+        if(sortedPaths == null) {
+            return getPaths().contains(relativePath);
+        }
+        FrontCodedPaths.Index index = null;
+        try {
+            index = FrontCodedPaths.openIndex(sortedPaths);
+            return index.find(relativePath) >= 0;
+        } catch (IOException e) {
+            throw ProvisionErrors.readError(sortedPaths, e);
+        } finally {
+            IoUtils.safeClose(index);
+        }
+    }
+
     public Set<String> getPaths() throws ProvisionException {
         if(paths != null) {
             return paths;
         }
         paths = new HashSet<String>();
-        File pathsFile;
-        if(sessionDir.exists()) {
-            pathsFile = new File(sessionDir, PATHS);
-        } else { // if the current dir does not exist then load the paths from the last committed image
-            final File lastSessionDir = history.getLastSessionDir();
-            if(lastSessionDir != null) {
-                pathsFile = new File(lastSessionDir, PATHS);
-            } else {
-                return paths;
+        final File dir = getPathsDir();
+        if(dir == null) {
+            return paths;
+        }
+        pathsSessionId = dir.getName();
+        final File sortedPaths = new File(dir, SORTED_PATHS);
+        if(sortedPaths.exists()) {
+            FrontCodedPaths.Cursor cursor = null;
+            try {
+                cursor = FrontCodedPaths.openCursor(sortedPaths);
+                while(cursor.next()) {
+                    paths.add(cursor.getPath());
+                }
+            } catch (IOException e) {
+                throw ProvisionErrors.readError(sortedPaths, e);
+            } finally {
+                IoUtils.safeClose(cursor);
             }
+            return paths;
         }
+        final File pathsFile = new File(dir, PATHS);
         if (pathsFile.exists()) {
             BufferedReader reader = null;
             try {
@@ -105,17 +194,142 @@ public class UserImage extends FSSession {
         return paths;
     }
 
+    /**
+     * Whether the paths were loaded from a session other than
+     * the last one of the user.
+     */
+    boolean isPathsOutdated() throws ProvisionException {
+        if(paths == null || sessionDir.exists()) {
+            return false;
+        }
+        final String lastId = history.getLastSessionId();
+        return lastId == null ? pathsSessionId != null : !lastId.equals(pathsSessionId);
+    }
+
+    /**
+     * Discards the loaded paths and loads them again.
+     */
+    Set<String> reloadPaths() throws ProvisionException {
+        paths = null;
+        pathsSessionId = null;
+        return getPaths();
+    }
+
+    /**
+     * Replaces the loaded paths with the paths of another image of the user.
+     */
+    Set<String> setPaths(Set<String> paths) {
+        this.paths = paths;
+        pathsSessionId = null;
+        return paths;
+    }
+
+    private File getPathsDir() throws ProvisionException {
+        if(sessionDir.exists()) {
+            return sessionDir;
+        }
+        // if the current dir does not exist then load the paths from the last committed image
+        return history.getLastSessionDir();
+    }
+
+    private File getSortedPathsFile() throws ProvisionException {
+        final File dir = getPathsDir();
+        if(dir == null) {
+            return null;
+        }
+        final File sortedPaths = new File(dir, SORTED_PATHS);
+        return sortedPaths.exists() ? sortedPaths : null;
+    }
+
+    static List<String> sort(Collection<String> paths) {
+        final List<String> sorted = new ArrayList<String>(paths);
+        Collections.sort(sorted);
+        return sorted;
+    }
+
     @Override
     protected void schedulePersistence(MutableEnvImage fsImage) throws ProvisionException {
         super.schedulePersistence(fsImage);
-        fsImage.write(new ContentWriter(new File(sessionDir, PATHS)) {
-            @Override
-            public void write(BufferedWriter writer) throws IOException, ProvisionException {
-                for(String path : getPaths()) {
-                    writer.write(path);
-                    writer.newLine();
-                }
+        fsImage.write(FrontCodedPaths.newWriter(new File(sessionDir, SORTED_PATHS), sort(getPaths())));
+    }
+
+    /**
+     * Iterator over the paths of a user which may hold the paths file open.
+     */
+    public abstract static class PathIterator implements Iterator<String>, Closeable {
+        @Override
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    private static class ListPathIterator extends PathIterator {
+        private final Iterator<String> delegate;
+
+        ListPathIterator(List<String> paths) {
+            delegate = paths.iterator();
+        }
+
+        @Override
+        public boolean hasNext() {
+            return delegate.hasNext();
+        }
+
+        @Override
+        public String next() {
+            return delegate.next();
+        }
+    }
+
+    private static class SortedPathIterator extends PathIterator {
+        private final File pathsFile;
+        private FrontCodedPaths.Cursor cursor;
+        private String next;
+
+        SortedPathIterator(File pathsFile, FrontCodedPaths.Cursor cursor) {
+            this.pathsFile = pathsFile;
+            this.cursor = cursor;
+            advance();
+        }
+
+        private void advance() {
+            try {
+                next = cursor.next() ? cursor.getPath() : null;
+            } catch (IOException e) {
+                close();
+                throw new IllegalStateException(ProvisionErrors.readError(pathsFile, e));
             }
-        });
+            if(next == null) {
+                close();
+            }
+        }
+
+        @Override
+        public boolean hasNext() {
+            return next != null;
+        }
+
+        @Override
+        public String next() {
+            if(next == null) {
+                throw new NoSuchElementException();
+            }
+            final String path = next;
+            advance();
+            return path;
+        }
+
+        @Override
+        public void close() {
+            if(cursor != null) {
+                cursor.close();
+                cursor = null;
+                next = null;
+            }
+        }
     }
 }
@@ -28,6 +28,8 @@ import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
 import java.security.DigestOutputStream;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
@@ -60,10 +62,61 @@ public class HashUtils {
     }
 
     public static byte[] hashFile(File file) throws IOException {
+        final HashEvent event = beginHash();
+        final long hashed;
+        final byte[] hash;
         synchronized (DIGEST) {
             DIGEST.reset();
-            updateDigest(DIGEST, file);
-            return DIGEST.digest();
+            hashed = updateDigest(DIGEST, file);
+            hash = DIGEST.digest();
+        }
+        hashed(event, file, hashed);
+        return hash;
+    }
+
+    /**
+     * Same as {@link #hashFile(File)} but uses the digest passed in by the caller
+     * instead of the shared one, which allows files to be hashed concurrently.
+     */
+    public static byte[] hashFile(File file, MessageDigest digest) throws IOException {
+        final HashEvent event = beginHash();
+        digest.reset();
+        final long hashed = updateDigest(digest, file);
+        final byte[] hash = digest.digest();
+        hashed(event, file, hashed);
+        return hash;
+    }
+
+    /**
+     * Begins the hash event or returns null if the flight recorder is not available.
+     */
+    private static HashEvent beginHash() {
+        if (!FlightRecorderUtils.isAvailable()) {
+            return null;
+        }
+        final HashEvent event = new HashEvent();
+        event.begin();
+        return event;
+    }
+
+    private static void hashed(HashEvent event, File file, long bytes) {
+        IoStats.hashed(bytes);
+        if (event == null) {
+            return;
+        }
+        event.end();
+        if (event.shouldCommit()) {
+            event.path = file == null ? null : file.getAbsolutePath();
+            event.bytes = bytes;
+            event.commit();
+        }
+    }
+
+    public static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-1");
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException(e);
         }
     }
 
@@ -75,7 +128,39 @@ public class HashUtils {
         }
     }
 
-    private static void updateDigest(MessageDigest digest, File file) throws IOException {
+    public static byte[] hashBuffer(ByteBuffer buffer) {
+        synchronized (DIGEST) {
+            DIGEST.reset();
+            DIGEST.update(buffer.duplicate());
+            return DIGEST.digest();
+        }
+    }
+
+    /**
+     * Calculates the hash of the remaining content of the channel
+     * reading it in chunks. The channel is not closed.
+     */
+    public static byte[] hashChannel(ReadableByteChannel channel) throws IOException {
+        final HashEvent event = beginHash();
+        final ByteBuffer buf = ByteBuffer.allocate(8192);
+        long total = 0;
+        final byte[] hash;
+        synchronized (DIGEST) {
+            DIGEST.reset();
+            while (channel.read(buf) > -1) {
+                buf.flip();
+                total += buf.remaining();
+                DIGEST.update(buf);
+                buf.clear();
+            }
+            hash = DIGEST.digest();
+        }
+        hashed(event, null, total);
+        return hash;
+    }
+
+    private static long updateDigest(MessageDigest digest, File file) throws IOException {
+        long total = 0;
         if (file.isDirectory()) {
             File[] childList = file.listFiles();
             if (childList != null) {
@@ -84,7 +169,7 @@ public class HashUtils {
                     sortedChildren.put(child.getName(), child);
                 }
                 for (File child : sortedChildren.values()) {
-                    updateDigest(digest, child);
+                    total += updateDigest(digest, child);
                 }
             }
         } else {
@@ -92,7 +177,7 @@ public class HashUtils {
             // they are skipped when computing checksum to avoid different checksum for the same JBoss module depending on
             // whether the AS7 installation has been started or not.
             if (file.getName().endsWith(".jar.index")) {
-                return;
+                return 0;
             }
             BufferedInputStream bis = null;
             try {
@@ -101,12 +186,14 @@ public class HashUtils {
                 int read;
                 while ((read = bis.read(bytes)) > -1) {
                     digest.update(bytes, 0, read);
+                    total += read;
                 }
             } finally {
                 IoUtils.safeClose(bis);
             }
 
         }
+        return total;
     }
 
     public static byte[] copyAndGetHash(final InputStream is, final OutputStream os) throws IOException {
@@ -0,0 +1,128 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2016, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.provision.util;
+
+/**
+ * Counts the I/O done by the calling thread between {@link #start()} and
+ * {@link #stop()}. When no thread is collecting, reporting the I/O costs
+ * a single volatile read.
+ *
+ * <p>Only the I/O reported by the utilities of this package and the content
+ * writers is counted, e.g. the checks done with {@code File.exists()} are not,
+ * and neither is the I/O done by worker threads, such as the ones importing
+ * a directory or purging the trash.
+ *
+ * @author Alexey Loubyansky
+ */
+public class IoStats {
+
+    private static final ThreadLocal<IoStats> CURRENT = new ThreadLocal<IoStats>();
+    private static volatile int collecting;
+
+    /**
+     * Starts collecting the I/O done by the calling thread. Collections may be
+     * nested, in which case the I/O is also added to the enclosing collection
+     * when the nested one is stopped.
+     */
+    public static IoStats start() {
+        final IoStats stats = new IoStats(CURRENT.get());
+        CURRENT.set(stats);
+        synchronized(IoStats.class) {
+            ++collecting;
+        }
+        return stats;
+    }
+
+    static void attributesRead() {
+        if(collecting > 0) {
+            final IoStats stats = CURRENT.get();
+            if(stats != null) {
+                ++stats.attributeReads;
+            }
+        }
+    }
+
+    static void hashed(long bytes) {
+        if(collecting > 0) {
+            final IoStats stats = CURRENT.get();
+            if(stats != null) {
+                stats.bytesHashed += bytes;
+            }
+        }
+    }
+
+    public static void copied(long bytes) {
+        if(collecting > 0) {
+            final IoStats stats = CURRENT.get();
+            if(stats != null) {
+                stats.bytesCopied += bytes;
+            }
+        }
+    }
+
+    private final IoStats parent;
+    private long bytesCopied;
+    private long bytesHashed;
+    private int attributeReads;
+    private boolean stopped;
+
+    private IoStats(IoStats parent) {
+        this.parent = parent;
+    }
+
+    /**
+     * Stops collecting. Must be called by the thread that started the collection.
+     */
+    public IoStats stop() {
+        if(stopped) {
+            return this;
+        }
+        stopped = true;
+        synchronized(IoStats.class) {
+            --collecting;
+        }
+        if(parent == null) {
+            CURRENT.remove();
+        } else {
+            parent.bytesCopied += bytesCopied;
+            parent.bytesHashed += bytesHashed;
+            parent.attributeReads += attributeReads;
+            CURRENT.set(parent);
+        }
+        return this;
+    }
+
+    public long getBytesCopied() {
+        return bytesCopied;
+    }
+
+    public long getBytesHashed() {
+        return bytesHashed;
+    }
+
+    /**
+     * The number of the attribute reads done through {@code IoUtils.readAttributes}.
+     */
+    public int getAttributeReads() {
+        return attributeReads;
+    }
+}
@@ -29,6 +29,18 @@ import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileVisitResult;
+import java.nio.file.FileVisitOption;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.List;
 import java.util.UUID;
 import java.util.zip.ZipFile;
 
@@ -101,37 +113,84 @@ public class IoUtils {
         os.flush();
     }
 
-    public static void copyFile(File sourceFile, File targetFile) throws IOException {
-        if (sourceFile.isDirectory()) {
-            copyDir(sourceFile, targetFile);
-        } else {
-            File parent = targetFile.getParentFile();
-            if (!parent.exists()) {
-                if (!parent.mkdirs()) {
-                    throw new IOException(ProvisionErrors.couldNotCreateDir(parent));
-                }
-            }
-            final InputStream is = new FileInputStream(sourceFile);
-            final OutputStream os = new FileOutputStream(targetFile);
-            copyStreamAndClose(is, os);
+    /**
+     * Reads the basic attributes of the path in one call or returns null
+     * if the path does not exist.
+     */
+    public static BasicFileAttributes readAttributes(Path path) throws IOException {
+        IoStats.attributesRead();
+        try {
+            return Files.readAttributes(path, BasicFileAttributes.class);
+        } catch (NoSuchFileException e) {
+            return null;
         }
     }
 
-    private static void copyDir(File sourceDir, File targetDir) throws IOException {
-        if (targetDir.exists()) {
-            if (!targetDir.isDirectory()) {
-                throw new IOException(ProvisionErrors.notADir(targetDir));
+    public static BasicFileAttributes readAttributes(File f) throws IOException {
+        return readAttributes(f.toPath());
+    }
+
+    public static List<Path> listDir(Path dir) throws IOException {
+        final List<Path> children = new ArrayList<Path>();
+        DirectoryStream<Path> stream = null;
+        try {
+            stream = Files.newDirectoryStream(dir);
+            for (Path child : stream) {
+                children.add(child);
             }
-        } else if (!targetDir.mkdirs()) {
-            throw new IOException(ProvisionErrors.couldNotCreateDir(targetDir));
+        } finally {
+            safeClose(stream);
         }
+        return children;
+    }
 
-        File[] children = sourceDir.listFiles();
-        if (children != null) {
-            for (File child : children) {
-                copyFile(child, new File(targetDir, child.getName()));
+    /**
+     * Total size of the files under the path, not following symbolic links.
+     */
+    public static long sizeOf(File f) throws IOException {
+        final long[] size = new long[1];
+        Files.walkFileTree(f.toPath(), new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                size[0] += attrs.size();
+                return FileVisitResult.CONTINUE;
             }
-        }
+        });
+        return size[0];
+    }
+
+    /**
+     * Copies the file or the directory tree following symbolic links.
+     */
+    public static void copyFile(File sourceFile, File targetFile) throws IOException {
+        final Path source = sourceFile.toPath();
+        final Path target = targetFile.toPath();
+        Files.walkFileTree(source, EnumSet.of(FileVisitOption.FOLLOW_LINKS), Integer.MAX_VALUE, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException {
+                final Path targetDir = target.resolve(source.relativize(dir));
+                final BasicFileAttributes targetAttrs = readAttributes(targetDir);
+                if (targetAttrs == null) {
+                    Files.createDirectories(targetDir);
+                } else if (!targetAttrs.isDirectory()) {
+                    throw new IOException(ProvisionErrors.notADir(targetDir.toFile()));
+                }
+                return FileVisitResult.CONTINUE;
+            }
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                final Path targetFile = target.resolve(source.relativize(file));
+                if (file.equals(source)) {
+                    final Path parent = targetFile.getParent();
+                    if (parent != null && readAttributes(parent) == null) {
+                        Files.createDirectories(parent);
+                    }
+                }
+                Files.copy(file, targetFile, StandardCopyOption.REPLACE_EXISTING);
+                IoStats.copied(attrs.size());
+                return FileVisitResult.CONTINUE;
+            }
+        });
     }
 
     public static void copy(final InputStream is, final File target) throws IOException {
@@ -179,17 +238,38 @@ public class IoUtils {
         if (root == null) {
             return true;
         }
-        boolean ok = true;
-        if (root.isDirectory()) {
-            final File[] files = root.listFiles();
-            for (File file : files) {
-                ok &= recursiveDelete(file);
-            }
-            return ok && (root.delete() || !root.exists());
-        } else {
-            ok &= root.delete() || !root.exists();
+        final boolean[] ok = new boolean[]{true};
+        try {
+            Files.walkFileTree(root.toPath(), new SimpleFileVisitor<Path>() {
+                @Override
+                public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                    ok[0] &= delete(file);
+                    return FileVisitResult.CONTINUE;
+                }
+                @Override
+                public FileVisitResult visitFileFailed(Path file, IOException exc) {
+                    ok[0] &= exc instanceof NoSuchFileException;
+                    return FileVisitResult.CONTINUE;
+                }
+                @Override
+                public FileVisitResult postVisitDirectory(Path dir, IOException exc) {
+                    ok[0] &= delete(dir);
+                    return FileVisitResult.CONTINUE;
+                }
+            });
+        } catch (IOException e) {
+            return false;
+        }
+        return ok[0];
+    }
+
+    private static boolean delete(Path path) {
+        try {
+            Files.deleteIfExists(path);
+            return true;
+        } catch (IOException e) {
+            return false;
         }
-        return ok;
     }
 
     public static File mkdir(File parent, String... segments) throws IOException {
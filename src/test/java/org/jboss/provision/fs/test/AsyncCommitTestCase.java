@@ -0,0 +1,160 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2016, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.jboss.provision.fs.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.jboss.provision.fs.CommitFuture;
+import org.jboss.provision.fs.CommitProgress;
+import org.jboss.provision.test.util.FSAssert;
+import org.junit.Test;
+
+/**
+ *
+ * @author Alexey Loubyansky
+ */
+public class AsyncCommitTestCase extends FSTestBase {
+
+    @Test
+    public void testProgress() throws Exception {
+
+        final List<CommitProgress> progress = new ArrayList<CommitProgress>();
+        final ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            final CommitFuture future = env.newImage()
+                .getUserImage("userA")
+                    .write("a", "a.txt")
+                    .write("bb", "b/b.txt")
+                    .getEnvImage()
+                .commitAsync(executor, new CommitProgress.Listener() {
+                    @Override
+                    public void progress(CommitProgress p) {
+                        synchronized(progress) {
+                            progress.add(p);
+                        }
+                    }});
+            future.get(10, TimeUnit.SECONDS);
+        } finally {
+            executor.shutdown();
+        }
+
+        FSAssert.assertPaths(env, "a.txt", "b/b.txt");
+        assertContent("b/b.txt", "bb");
+
+        final CommitProgress first;
+        final CommitProgress last;
+        synchronized(progress) {
+            first = progress.get(0);
+            last = progress.get(progress.size() - 1);
+        }
+        assertEquals(CommitProgress.Phase.PLANNED, first.getPhase());
+        assertTrue(first.getTasksPlanned() > 0);
+        assertEquals(CommitProgress.Phase.DONE, last.getPhase());
+        assertEquals(0, last.getTasksRemaining());
+        assertTrue(last.getBytesWritten() >= 3);
+    }
+
+    @Test
+    public void testCancel() throws Exception {
+
+        env.newImage().getUserImage("userA").write("a", "a.txt").getEnvImage().commit();
+
+        final List<Runnable> commits = new ArrayList<Runnable>();
+        final CommitFuture[] future = new CommitFuture[1];
+        future[0] = env.newImage()
+            .getUserImage("userA")
+                .write("aa", "a.txt")
+                .write("b", "b.txt")
+                .getEnvImage()
+            .commitAsync(new Executor() {
+                @Override
+                public void execute(Runnable command) {
+                    commits.add(command);
+                }},
+                new CommitProgress.Listener() {
+                    @Override
+                    public void progress(CommitProgress progress) {
+                        if(progress.getPhase() == CommitProgress.Phase.EXECUTE
+                                && progress.getTasksRemaining() < progress.getTasksPlanned()) {
+                            future[0].requestCancel();
+                        }
+                    }});
+        commits.get(0).run();
+
+        assertTrue(future[0].isCancelled());
+        try {
+            future[0].get();
+            fail("the commit was cancelled");
+        } catch(CancellationException e) {
+        }
+
+        FSAssert.assertPaths(env, "a.txt");
+        assertContent("a.txt", "a");
+        FSAssert.assertPaths("userA", env, "a.txt");
+
+        env.newImage().getUserImage("userA").write("b", "b.txt").getEnvImage().commit();
+        FSAssert.assertPaths(env, "a.txt", "b.txt");
+    }
+
+    @Test
+    public void testCompletedOnlyByCommit() throws Exception {
+
+        final List<Runnable> commits = new ArrayList<Runnable>();
+        final CommitFuture[] future = new CommitFuture[1];
+        future[0] = env.newImage().getUserImage("userA").write("a", "a.txt").getEnvImage()
+            .commitAsync(new Executor() {
+                @Override
+                public void execute(Runnable command) {
+                    commits.add(command);
+                }},
+                new CommitProgress.Listener() {
+                    @Override
+                    public void progress(CommitProgress progress) {
+                        if(progress.getPhase() == CommitProgress.Phase.CLEANUP) {
+                            // too late to stop the commit
+                            future[0].requestCancel();
+                        }
+                    }});
+
+        future[0].toCompletionStage().toCompletableFuture().complete(null);
+        assertFalse(future[0].cancel(true));
+        assertFalse(future[0].isDone());
+
+        commits.get(0).run();
+        future[0].get();
+        assertFalse(future[0].isCancelled());
+        assertTrue(future[0].toCompletionStage().toCompletableFuture().isDone());
+        FSAssert.assertPaths(env, "a.txt");
+    }
+}
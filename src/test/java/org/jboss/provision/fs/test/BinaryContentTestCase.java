@@ -0,0 +1,100 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2016, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.jboss.provision.fs.test;
+
+import static org.junit.Assert.assertArrayEquals;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+
+import org.jboss.provision.fs.ContentSource;
+import org.jboss.provision.test.util.FSAssert;
+import org.jboss.provision.test.util.FSUtils;
+import org.jboss.provision.util.HashUtils;
+import org.jboss.provision.util.IoUtils;
+import org.junit.Test;
+
+/**
+ *
+ * @author Alexey Loubyansky
+ */
+public class BinaryContentTestCase extends FSTestBase {
+
+    private static final byte[] BYTES = new byte[] {'a', '\r', '\n', 0, (byte) 0xff, '\n'};
+    private static final byte[] OTHER_BYTES = new byte[] {'b', '\n', '\n'};
+
+    @Test
+    public void testBytes() throws Exception {
+
+        final ByteBuffer direct = ByteBuffer.allocateDirect(OTHER_BYTES.length);
+        direct.put(OTHER_BYTES).flip();
+
+        env.newImage()
+            .getUserImage("userA")
+                .write(BYTES, "a.bin")
+                .write(direct, "b/b.bin")
+                .write(new ContentSource.StreamSource() {
+                    @Override
+                    public InputStream openStream() {
+                        return new ByteArrayInputStream(BYTES);
+                    }}, "c.bin")
+                .getEnvImage()
+            .commit();
+
+        FSAssert.assertPaths(env, "a.bin", "b/b.bin", "c.bin");
+        assertBytes("a.bin", BYTES);
+        assertBytes("b/b.bin", OTHER_BYTES);
+        assertBytes("c.bin", BYTES);
+        assertArrayEquals(HashUtils.hashBytes(BYTES), env.getImage().getHash("a.bin"));
+
+        env.newImage().getUserImage("userA").write(OTHER_BYTES, "a.bin").getEnvImage().commit();
+        assertBytes("a.bin", OTHER_BYTES);
+
+        env.undoLastCommit();
+        assertBytes("a.bin", BYTES);
+    }
+
+    @Test
+    public void testPath() throws Exception {
+
+        final File src = FSUtils.newTmpFile("binary-content.bin");
+        Files.write(src.toPath(), BYTES);
+        try {
+            env.newImage().getUserImage("userA").write(src.toPath(), "a.bin").getEnvImage().commit();
+            assertBytes("a.bin", BYTES);
+
+            // the recorded hash matches the written content
+            env.newImage().getUserImage("userA").write(OTHER_BYTES, "a.bin").getEnvImage().commit();
+            assertBytes("a.bin", OTHER_BYTES);
+        } finally {
+            IoUtils.recursiveDelete(src);
+        }
+    }
+
+    private void assertBytes(String relativePath, byte[] expected) throws Exception {
+        assertArrayEquals(expected, Files.readAllBytes(env.getFile(relativePath).toPath()));
+    }
+}
@@ -0,0 +1,142 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2016, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.jboss.provision.fs.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.util.Iterator;
+
+import org.jboss.provision.ProvisionException;
+import org.jboss.provision.fs.EnvImage;
+import org.jboss.provision.test.util.FSAssert;
+import org.junit.Test;
+
+/**
+ *
+ * @author Alexey Loubyansky
+ */
+public class CheckoutTestCase extends FSTestBase {
+
+    @Test
+    public void testUnknownSession() throws Exception {
+        env.newImage().getUserImage("userA").write("a", "a.txt").getEnvImage().commit();
+        try {
+            env.checkout("unknown");
+            fail("unknown session");
+        } catch(ProvisionException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void testBackAndForth() throws Exception {
+
+        env.newImage()
+            .getUserImage("userA")
+                .write("a1", "a.txt")
+                .write("b1", "b/b.txt")
+                .write("x", "x.txt")
+                .getEnvImage()
+            .commit();
+        final String first = env.getImage().getSessionId();
+
+        env.newImage()
+            .getUserImage("userA")
+                .write("a2", "a.txt")
+                .delete("b/b.txt")
+                .write("c", "c.txt")
+                .getEnvImage()
+            .commit();
+        env.newImage().getUserImage("userB").write("d", "d.txt").getEnvImage().commit();
+        // deleting a file leaves its parent dir
+        FSAssert.assertPaths(env, "a.txt", "b/", "c.txt", "d.txt", "x.txt");
+        final String third = env.getImage().getSessionId();
+
+        final File untouched = env.getFile("x.txt");
+        untouched.setLastModified(1000L);
+
+        env.checkout(first);
+
+        FSAssert.assertPaths(env, "a.txt", "b/b.txt", "x.txt");
+        FSAssert.assertPaths("userA", env, "a.txt", "b/b.txt", "x.txt");
+        FSAssert.assertPaths("userB", env);
+        assertContent("a.txt", "a1");
+        assertContent("b/b.txt", "b1");
+        assertEquals(1000L, untouched.lastModified());
+        assertEquals(4, countSessions());
+
+        env.checkout(third);
+
+        FSAssert.assertPaths(env, "a.txt", "b/", "c.txt", "d.txt", "x.txt");
+        FSAssert.assertPaths("userA", env, "a.txt", "c.txt", "x.txt");
+        FSAssert.assertPaths("userB", env, "d.txt");
+        assertContent("a.txt", "a2");
+        assertEquals(1000L, untouched.lastModified());
+        assertEquals(5, countSessions());
+
+        env.undoLastCommit();
+        FSAssert.assertPaths(env, "a.txt", "b/b.txt", "x.txt");
+        assertContent("a.txt", "a1");
+    }
+
+    @Test
+    public void testSharedPath() throws Exception {
+
+        env.newImage().getUserImage("userA").write("s", "s.txt").getEnvImage().commit();
+        final String first = env.getImage().getSessionId();
+        env.newImage().getUserImage("userB").write("s", "s.txt").getEnvImage().commit();
+        env.newImage().getUserImage("userA").delete("s.txt").getEnvImage().commit();
+
+        FSAssert.assertPaths("userA", env);
+        FSAssert.assertPaths("userB", env, "s.txt");
+
+        // taken over by userA without being rewritten
+        final File shared = env.getFile("s.txt");
+        shared.setLastModified(1000L);
+
+        env.checkout(first);
+
+        FSAssert.assertPaths(env, "s.txt");
+        FSAssert.assertPaths("userA", env, "s.txt");
+        FSAssert.assertPaths("userB", env);
+        assertContent("s.txt", "s");
+        assertEquals(1000L, shared.lastModified());
+
+        env.undoLastCommit();
+        FSAssert.assertPaths("userA", env);
+        FSAssert.assertPaths("userB", env, "s.txt");
+        assertContent("s.txt", "s");
+    }
+
+    private int countSessions() throws Exception {
+        int i = 0;
+        final Iterator<EnvImage> history = env.envHistory();
+        while(history.hasNext()) {
+            history.next();
+            ++i;
+        }
+        return i;
+    }
+}
@@ -0,0 +1,109 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2016, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.jboss.provision.fs.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.HashSet;
+
+import org.jboss.provision.fs.CommitPlan;
+import org.jboss.provision.fs.MutableEnvImage;
+import org.jboss.provision.test.util.FSAssert;
+import org.junit.Test;
+
+/**
+ *
+ * @author Alexey Loubyansky
+ */
+public class CommitPlanTestCase extends FSTestBase {
+
+    @Test
+    public void testMain() throws Exception {
+
+        env.newImage()
+            .getUserImage("userA")
+                .write("aaaa", "a.txt")
+                .write("bb", "b/b.txt")
+                .getEnvImage()
+            .commit();
+
+        final MutableEnvImage image = env.newImage()
+            .getUserImage("userA")
+                .write("aaaaaa", "a.txt")
+                .delete("b/b.txt")
+                .getEnvImage()
+            .getUserImage("userB")
+                .write("ccc", "c/c.txt")
+                .getEnvImage();
+
+        final CommitPlan plan = image.plan();
+        assertEquals(new HashSet<String>(Arrays.asList("userA", "userB")), plan.getUsers());
+        assertTrue(plan.getTaskCount(CommitPlan.TaskType.WRITE) > 0);
+        assertTrue(plan.getTaskCount(CommitPlan.TaskType.DELETE) > 0);
+        assertTrue(plan.getTaskCount(CommitPlan.TaskType.MKDIRS) > 0);
+        assertTrue(plan.getHistoryRecords() > 0);
+        // a.txt and b/b.txt along with the history records being overwritten
+        assertTrue(plan.getBytesToBackUp() > 6);
+
+        long homeBytes = 0;
+        int homeDirs = 0;
+        for(CommitPlan.Task task : plan.getTasks()) {
+            if(task.isHistoryRecord()) {
+                continue;
+            }
+            if(task.getType() == CommitPlan.TaskType.WRITE) {
+                homeBytes += task.getBytes();
+            } else if(task.getType() == CommitPlan.TaskType.MKDIRS) {
+                ++homeDirs;
+            }
+        }
+        assertEquals(9, homeBytes);
+        assertEquals(1, homeDirs);
+
+        // nothing has been touched
+        FSAssert.assertPaths(env, "a.txt", "b/b.txt");
+        assertContent("a.txt", "aaaa");
+        assertEquals(plan.getTaskCount(), image.plan().getTaskCount());
+
+        image.commit();
+
+        FSAssert.assertPaths(env, "a.txt", "b/", "c/c.txt");
+        FSAssert.assertPaths("userA", env, "a.txt");
+        FSAssert.assertPaths("userB", env, "c/c.txt");
+        assertContent("a.txt", "aaaaaa");
+
+        env.undoLastCommit();
+        FSAssert.assertPaths(env, "a.txt", "b/b.txt");
+    }
+
+    @Test
+    public void testEmptyImage() throws Exception {
+        final CommitPlan plan = env.newImage().plan();
+        assertTrue(plan.getUsers().isEmpty());
+        assertFalse(plan.getTaskCount(CommitPlan.TaskType.DELETE) > 0);
+        FSAssert.assertNoContent(env);
+    }
+}
@@ -0,0 +1,300 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2016, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.jboss.provision.fs.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.FileWriter;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.jboss.provision.ProvisionException;
+import org.jboss.provision.fs.CommitFuture;
+import org.jboss.provision.fs.CommitQueue;
+import org.jboss.provision.fs.EnvImage;
+import org.jboss.provision.fs.FSEnvironment;
+import org.jboss.provision.fs.FSEnvironmentConfig;
+import org.jboss.provision.fs.OperationMetrics;
+import org.jboss.provision.test.util.FSAssert;
+import org.jboss.provision.util.IoUtils;
+import org.junit.Test;
+
+/**
+ * Commits images through a commit queue and checks that the images
+ * which don't conflict are committed together while each of them
+ * is recorded as a separate session.
+ *
+ * @author Alexey Loubyansky
+ */
+public class CommitQueueTestCase extends FSTestBase {
+
+    private final List<Runnable> commits = new ArrayList<Runnable>();
+    private int physicalCommits;
+    private final Set<String> commitThreads = new HashSet<String>();
+    private CommitQueue queue;
+
+    @Override
+    protected void doBefore() throws Exception {
+        env = FSEnvironment.create(FSEnvironmentConfig.builder().setHomeDir(homeDir).setMetricsListener(
+                new OperationMetrics.Listener() {
+                    @Override
+                    public synchronized void operationCompleted(OperationMetrics metrics) {
+                        if(metrics.getOperation() == OperationMetrics.Operation.EXECUTE) {
+                            ++physicalCommits;
+                            commitThreads.add(Thread.currentThread().getName());
+                        }
+                    }
+                }).build());
+        queue = env.newCommitQueue(new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                commits.add(command);
+            }}, CommitQueue.DEFAULT_MAX_BATCH_SIZE);
+    }
+
+    @Test
+    public void testSeparateSessions() throws Exception {
+
+        final CommitFuture a = queue.submit(env.newImage().getUserImage("userA").write("a", "a.txt").getEnvImage());
+        final CommitFuture b = queue.submit(env.newImage().getUserImage("userB").write("b", "b/b.txt").getEnvImage());
+        final CommitFuture c = queue.submit(env.newImage().getUserImage("userC").write("c", "c.txt").getEnvImage());
+        assertEquals(1, commits.size());
+        commits.get(0).run();
+        a.get();
+        b.get();
+        c.get();
+
+        assertEquals(1, physicalCommits);
+        assertContent("a.txt", "a");
+        assertContent("b/b.txt", "b");
+        assertContent("c.txt", "c");
+        FSAssert.assertUsers(env, "userA", "userB", "userC");
+        assertEquals(3, count(env));
+
+        env.undoLastCommit();
+        FSAssert.assertPaths(env, "a.txt", "b/b.txt");
+        FSAssert.assertUsers(env, "userA", "userB");
+        FSAssert.assertPaths("userB", env, "b/b.txt");
+
+        env.undoLastCommit();
+        FSAssert.assertPaths(env, "a.txt");
+        FSAssert.assertUsers(env, "userA");
+        FSAssert.assertPaths("userA", env, "a.txt");
+
+        env.undoLastCommit();
+        FSAssert.assertNoContent(env);
+    }
+
+    @Test
+    public void testConflicts() throws Exception {
+
+        env.newImage()
+            .getUserImage("userA").write("a", "a.txt").getEnvImage()
+            .getUserImage("userC").write("c", "c/c.txt").getEnvImage()
+            .commit();
+        physicalCommits = 0;
+
+        final List<CommitFuture> futures = new ArrayList<CommitFuture>();
+        futures.add(queue.submit(env.newImage().getUserImage("userB").write("b", "b/b.txt").getEnvImage()));
+        // creates the same dir as the previous image
+        futures.add(queue.submit(env.newImage().getUserImage("userB").write("bb", "b/bb.txt").getEnvImage()));
+        futures.add(queue.submit(env.newImage().getUserImage("userC").delete("c").getEnvImage()));
+        // a child of the path of the previous image
+        futures.add(queue.submit(env.newImage().getUserImage("userD").write("d", "c/d.txt").getEnvImage()));
+        futures.add(queue.submit(env.newImage().getUserImage("userA").write("a2", "a.txt").getEnvImage()));
+        commits.get(0).run();
+        for(CommitFuture future : futures) {
+            future.get();
+        }
+
+        assertEquals(3, physicalCommits);
+        FSAssert.assertPaths(env, "a.txt", "b/b.txt", "b/bb.txt", "c/d.txt");
+        assertContent("a.txt", "a2");
+        FSAssert.assertPaths("userA", env, "a.txt");
+        FSAssert.assertPaths("userB", env, "b/b.txt", "b/bb.txt");
+        FSAssert.assertPaths("userC", env);
+        FSAssert.assertPaths("userD", env, "c/d.txt");
+        assertEquals(6, count(env));
+
+        env.undoLastCommit();
+        assertContent("a.txt", "a");
+        env.undoLastCommit();
+        assertFalse(env.getFile("c/d.txt").exists());
+        FSAssert.assertUsers(env, "userA", "userB", "userC");
+        env.undoLastCommit();
+        FSAssert.assertPaths(env, "a.txt", "b/b.txt", "b/bb.txt", "c/c.txt");
+        FSAssert.assertPaths("userC", env, "c/c.txt");
+        env.undoLastCommit();
+        FSAssert.assertPaths(env, "a.txt", "b/b.txt", "c/c.txt");
+        FSAssert.assertPaths("userB", env, "b/b.txt");
+    }
+
+    @Test
+    public void testSameUser() throws Exception {
+
+        env.newImage().getUserImage("userA").write("a", "a.txt").getEnvImage().commit();
+        physicalCommits = 0;
+
+        final CommitFuture b = queue.submit(env.newImage().getUserImage("userA").write("b", "b.txt").getEnvImage());
+        final CommitFuture c = queue.submit(env.newImage().getUserImage("userA").write("c", "c.txt").delete("a.txt").getEnvImage());
+        final CommitFuture d = queue.submit(env.newImage().getUserImage("userA").write("d", "d.txt").getEnvImage());
+        commits.get(0).run();
+        b.get();
+        c.get();
+        d.get();
+
+        assertEquals(1, physicalCommits);
+        FSAssert.assertPaths("userA", env, "b.txt", "c.txt", "d.txt");
+        assertEquals(4, count(env));
+
+        env.undoLastCommit();
+        FSAssert.assertPaths("userA", env, "b.txt", "c.txt");
+        env.undoLastCommit();
+        FSAssert.assertPaths("userA", env, "a.txt", "b.txt");
+        assertContent("a.txt", "a");
+        env.undoLastCommit();
+        FSAssert.assertPaths("userA", env, "a.txt");
+        FSAssert.assertPaths(env, "a.txt");
+    }
+
+    @Test
+    public void testFailedImage() throws Exception {
+
+        env.newImage().getUserImage("userA").write("a", "a.txt").getEnvImage().commit();
+        physicalCommits = 0;
+
+        final CommitFuture b = queue.submit(env.newImage().getUserImage("userB").write("b", "b.txt").getEnvImage());
+        final CommitFuture a = queue.submit(env.newImage().getUserImage("userA").write("a2", "a.txt").getEnvImage());
+        final CommitFuture c = queue.submit(env.newImage().getUserImage("userC").write("c", "c.txt").getEnvImage());
+        // modified outside of the engine
+        final FileWriter writer = new FileWriter(env.getFile("a.txt"));
+        try {
+            writer.write("x");
+        } finally {
+            IoUtils.safeClose(writer);
+        }
+        commits.get(0).run();
+
+        b.get();
+        c.get();
+        try {
+            a.get();
+            fail("the content was modified");
+        } catch(ExecutionException e) {
+            assertTrue(e.getCause() instanceof ProvisionException);
+        }
+        assertEquals(1, physicalCommits);
+        assertContent("a.txt", "x");
+        FSAssert.assertUsers(env, "userA", "userB", "userC");
+        assertEquals(3, count(env));
+
+        env.undoLastCommit();
+        env.undoLastCommit();
+        FSAssert.assertUsers(env, "userA");
+    }
+
+    @Test
+    public void testCancel() throws Exception {
+
+        final CommitFuture a = queue.submit(env.newImage().getUserImage("userA").write("a", "a.txt").getEnvImage());
+        final CommitFuture b = queue.submit(env.newImage().getUserImage("userB").write("b", "b.txt").getEnvImage());
+        a.requestCancel();
+        commits.get(0).run();
+
+        assertTrue(a.isCancelled());
+        try {
+            a.get();
+            fail("the commit was cancelled");
+        } catch(CancellationException e) {
+        }
+        b.get();
+        FSAssert.assertPaths(env, "b.txt");
+        assertEquals(1, count(env));
+    }
+
+    @Test
+    public void testConcurrentSubmits() throws Exception {
+
+        final CommitQueue queue = env.newCommitQueue();
+        final ExecutorService threads = Executors.newFixedThreadPool(4);
+        try {
+            final List<Future<Void>> submitted = new ArrayList<Future<Void>>();
+            for(int t = 0; t < 4; ++t) {
+                final String user = "user" + t;
+                submitted.add(threads.submit(new Callable<Void>() {
+                    @Override
+                    public Void call() throws Exception {
+                        for(int i = 0; i < 10; ++i) {
+                            queue.submit(env.newImage().getUserImage(user).write(user, user + "/" + i + ".txt").getEnvImage()).get();
+                        }
+                        return null;
+                    }}));
+            }
+            for(Future<Void> future : submitted) {
+                future.get(1, TimeUnit.MINUTES);
+            }
+        } finally {
+            threads.shutdown();
+        }
+
+        assertEquals(40, count(env));
+        assertTrue(physicalCommits <= 40);
+        assertEquals(Collections.singleton("fs-commit-queue"), commitThreads);
+        for(int t = 0; t < 4; ++t) {
+            final String user = "user" + t;
+            final String[] paths = new String[10];
+            for(int i = 0; i < 10; ++i) {
+                paths[i] = user + "/" + i + ".txt";
+                assertContent(paths[i], user);
+            }
+            FSAssert.assertPaths(user, env, paths);
+        }
+        env.undoLastCommit();
+        assertEquals(39, count(env));
+    }
+
+    private static int count(FSEnvironment env) throws Exception {
+        int count = 0;
+        final Iterator<EnvImage> i = env.envHistory();
+        while(i.hasNext()) {
+            i.next();
+            ++count;
+        }
+        return count;
+    }
+}
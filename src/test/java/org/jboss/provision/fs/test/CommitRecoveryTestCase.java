@@ -0,0 +1,364 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2016, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.jboss.provision.fs.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.Executor;
+
+import org.jboss.provision.ProvisionException;
+import org.jboss.provision.fs.CommitFuture;
+import org.jboss.provision.fs.CommitProgress;
+import org.jboss.provision.fs.FSEnvironment;
+import org.jboss.provision.fs.FSEnvironmentConfig;
+import org.jboss.provision.fs.FSEnvironmentConfig.Durability;
+import org.jboss.provision.fs.MutableEnvImage;
+import org.jboss.provision.test.util.FSAssert;
+import org.jboss.provision.test.util.FSUtils;
+import org.jboss.provision.util.IoUtils;
+import org.junit.Test;
+
+/**
+ * Kills the process in the middle of a commit and checks that the commit
+ * is completed or rolled back when the environment is created again,
+ * or left to be resumed if the commits are resumable.
+ *
+ * @author Alexey Loubyansky
+ */
+public class CommitRecoveryTestCase extends FSTestBase {
+
+    private static final int HALTED = 3;
+
+    /**
+     * Commits the changes in a separate process halting it
+     * as soon as half of the tasks of the phase are done.
+     */
+    public static class CrashingCommit {
+        public static void main(String[] args) throws Exception {
+            final FSEnvironment env = FSEnvironment.create(config(new File(args[0]), Boolean.parseBoolean(args[2])));
+            final CommitProgress.Phase crashPhase = CommitProgress.Phase.valueOf(args[1]);
+            newCommit(env)
+                .commitAsync(new Executor() {
+                    @Override
+                    public void execute(Runnable command) {
+                        command.run();
+                    }},
+                    new CommitProgress.Listener() {
+                        @Override
+                        public void progress(CommitProgress progress) {
+                            if(progress.getPhase() == crashPhase && progress.getTasksRemaining() <= progress.getTasksPlanned() / 2) {
+                                Runtime.getRuntime().halt(HALTED);
+                            }
+                        }})
+                .get();
+        }
+    }
+
+    private static FSEnvironmentConfig config(File homeDir, boolean resumable) {
+        return config(homeDir, resumable, Durability.NONE);
+    }
+
+    private static FSEnvironmentConfig config(File homeDir, boolean resumable, Durability durability) {
+        return FSEnvironmentConfig.builder()
+                .setHomeDir(homeDir)
+                .setTrashDeletes(resumable)
+                .setResumableCommits(resumable)
+                .setDurability(durability)
+                .build();
+    }
+
+    private static MutableEnvImage newCommit(FSEnvironment env) throws ProvisionException {
+        return env.newImage()
+            .getUserImage("userA")
+                .write("a2", "a.txt")
+                .delete("b/b.txt")
+                .write("c", "c/c.txt")
+                .getEnvImage()
+            .getUserImage("userB")
+                .write("d", "d.txt")
+                .getEnvImage();
+    }
+
+    @Test
+    public void testRollback() throws Exception {
+
+        commitInitial();
+        crash(CommitProgress.Phase.EXECUTE, false);
+
+        env = FSEnvironment.create(FSEnvironmentConfig.builder().setHomeDir(homeDir).build());
+        assertInitial();
+        assertEquals(1, count(env.envHistory()));
+
+        env.newImage().getUserImage("userB").write("d", "d.txt").getEnvImage().commit();
+        FSAssert.assertUsers(env, "userA", "userB");
+        env.undoLastCommit();
+        assertInitial();
+    }
+
+    @Test
+    public void testRollForward() throws Exception {
+
+        commitInitial();
+        crash(CommitProgress.Phase.CLEANUP, false);
+
+        env = FSEnvironment.create(FSEnvironmentConfig.builder().setHomeDir(homeDir).build());
+        assertCommitted();
+
+        env.undoLastCommit();
+        assertInitial();
+    }
+
+    @Test
+    public void testResumeAfterCrash() throws Exception {
+
+        commitInitial();
+        crash(CommitProgress.Phase.EXECUTE, true);
+
+        env = FSEnvironment.create(config(homeDir, true));
+        assertTrue(env.isCommitInterrupted());
+        assertContent("a.txt", "a2");
+        try {
+            env.newImage().getUserImage("userC").write("e", "e.txt").getEnvImage().commit();
+            fail("the interrupted commit has to be resumed first");
+        } catch(ProvisionException e) {
+        }
+
+        env.resumeCommit();
+        assertFalse(env.isCommitInterrupted());
+        assertCommitted();
+
+        env.undoLastCommit();
+        assertInitial();
+    }
+
+    @Test
+    public void testAbortAfterCrash() throws Exception {
+
+        commitInitial();
+        crash(CommitProgress.Phase.EXECUTE, true);
+
+        env = FSEnvironment.create(config(homeDir, true));
+        assertTrue(env.isCommitInterrupted());
+        env.abortCommit();
+        assertFalse(env.isCommitInterrupted());
+        assertInitial();
+        assertEquals(1, count(env.envHistory()));
+
+        newCommit(env).commit();
+        assertCommitted();
+    }
+
+    @Test
+    public void testResumeAfterCancel() throws Exception {
+        resumeAfterCancel(config(homeDir, true));
+    }
+
+    @Test
+    public void testResumeAfterCancelStrict() throws Exception {
+        resumeAfterCancel(config(homeDir, true, Durability.STRICT));
+    }
+
+    private void resumeAfterCancel(FSEnvironmentConfig config) throws Exception {
+
+        env = FSEnvironment.create(config);
+        commitInitial();
+
+        final List<Runnable> commits = new ArrayList<Runnable>();
+        final CommitFuture[] future = new CommitFuture[1];
+        future[0] = newCommit(env).commitAsync(new Executor() {
+                @Override
+                public void execute(Runnable command) {
+                    commits.add(command);
+                }},
+                new CommitProgress.Listener() {
+                    @Override
+                    public void progress(CommitProgress progress) {
+                        if(progress.getPhase() == CommitProgress.Phase.EXECUTE
+                                && progress.getTasksRemaining() <= progress.getTasksPlanned() / 2) {
+                            future[0].requestCancel();
+                        }
+                    }});
+        commits.get(0).run();
+        try {
+            future[0].get();
+            fail("the commit was cancelled");
+        } catch(CancellationException e) {
+        }
+
+        assertTrue(env.isCommitInterrupted());
+        assertContent("a.txt", "a2");
+        assertEquals(1, count(env.envHistory()));
+
+        env.resumeCommit();
+        assertCommitted();
+
+        env.undoLastCommit();
+        assertInitial();
+    }
+
+    @Test
+    public void testResumeAfterSourceChanged() throws Exception {
+
+        env = FSEnvironment.create(config(homeDir, true));
+        final File source = FSUtils.newTmpFile("source.txt");
+        try {
+            FSUtils.writeFile(source, "s");
+            final List<Runnable> commits = new ArrayList<Runnable>();
+            final CommitFuture[] future = new CommitFuture[1];
+            future[0] = env.newImage().getUserImage("userA").write(source, "s.txt").getEnvImage()
+                    .commitAsync(new Executor() {
+                        @Override
+                        public void execute(Runnable command) {
+                            commits.add(command);
+                        }},
+                        new CommitProgress.Listener() {
+                            @Override
+                            public void progress(CommitProgress progress) {
+                                if(progress.getPhase() == CommitProgress.Phase.EXECUTE) {
+                                    future[0].requestCancel();
+                                }
+                            }});
+            commits.get(0).run();
+            try {
+                future[0].get();
+                fail("the commit was cancelled");
+            } catch(CancellationException e) {
+            }
+            assertTrue(env.isCommitInterrupted());
+
+            FSUtils.writeFile(source, "changed");
+            try {
+                env.resumeCommit();
+                fail("the source has changed");
+            } catch(ProvisionException e) {
+            }
+            assertTrue(env.isCommitInterrupted());
+
+            FSUtils.writeFile(source, "s");
+            env.resumeCommit();
+            assertFalse(env.isCommitInterrupted());
+            assertContent("s.txt", "s");
+            FSAssert.assertPaths("userA", env, "s.txt");
+        } finally {
+            IoUtils.recursiveDelete(source);
+        }
+    }
+
+    @Test
+    public void testCommitInProgressNotRecovered() throws Exception {
+
+        env = FSEnvironment.create(config(homeDir, true));
+        commitInitial();
+
+        final FSEnvironment[] other = new FSEnvironment[1];
+        final List<Runnable> commits = new ArrayList<Runnable>();
+        final CommitFuture[] future = new CommitFuture[1];
+        future[0] = newCommit(env).commitAsync(new Executor() {
+                @Override
+                public void execute(Runnable command) {
+                    commits.add(command);
+                }},
+                new CommitProgress.Listener() {
+                    @Override
+                    public void progress(CommitProgress progress) {
+                        if(other[0] == null && progress.getPhase() == CommitProgress.Phase.EXECUTE
+                                && progress.getTasksRemaining() <= progress.getTasksPlanned() / 2) {
+                            other[0] = FSEnvironment.create(config(homeDir, true));
+                            future[0].requestCancel();
+                        }
+                    }});
+        commits.get(0).run();
+        try {
+            future[0].get();
+            fail("the commit was cancelled");
+        } catch(CancellationException e) {
+        }
+        assertFalse(other[0].isCommitInterrupted());
+        assertFalse(FSEnvironment.create(config(homeDir, true)).isCommitInterrupted());
+        assertTrue(env.isCommitInterrupted());
+
+        env.abortCommit();
+        assertInitial();
+    }
+
+    private void commitInitial() throws Exception {
+        env.newImage().getUserImage("userA").write("a", "a.txt").write("b", "b/b.txt").getEnvImage().commit();
+    }
+
+    private void assertCommitted() throws Exception {
+        assertContent("a.txt", "a2");
+        assertFalse(env.getFile("b/b.txt").exists());
+        assertContent("c/c.txt", "c");
+        assertContent("d.txt", "d");
+        FSAssert.assertUsers(env, "userA", "userB");
+        FSAssert.assertPaths("userA", env, "a.txt", "c/c.txt");
+        FSAssert.assertPaths("userB", env, "d.txt");
+        assertEquals(2, count(env.envHistory()));
+        assertNoLog();
+    }
+
+    private void assertInitial() throws Exception {
+        assertContent("a.txt", "a");
+        assertContent("b/b.txt", "b");
+        assertFalse(env.getFile("c").exists());
+        assertFalse(env.getFile("d.txt").exists());
+        FSAssert.assertUsers(env, "userA");
+        FSAssert.assertPaths("userA", env, "a.txt", "b/b.txt");
+        assertNoLog();
+    }
+
+    private void assertNoLog() {
+        final String[] walEntries = new File(env.getFile(".fs"), "wal").list();
+        assertTrue(walEntries == null || walEntries.length == 0);
+    }
+
+    private void crash(CommitProgress.Phase phase, boolean resumable) throws Exception {
+        final Process process = new ProcessBuilder(
+                new File(new File(System.getProperty("java.home"), "bin"), "java").getAbsolutePath(),
+                "-cp", System.getProperty("java.class.path"),
+                CrashingCommit.class.getName(),
+                homeDir.getAbsolutePath(),
+                phase.name(),
+                Boolean.toString(resumable))
+            .inheritIO()
+            .start();
+        assertEquals(HALTED, process.waitFor());
+    }
+
+    private static int count(Iterator<?> i) {
+        int count = 0;
+        while(i.hasNext()) {
+            i.next();
+            ++count;
+        }
+        return count;
+    }
+}
@@ -140,4 +140,25 @@ public class DeleteUserTestCase extends FSTestBase {
 
         FSAssert.assertNoContent(env);
     }
+
+    @Test
+    public void testInterleavedUpdatesOfSharedPath() throws Exception {
+
+        env.newImage().getUserImage("userA").write("a", "shared.txt").getEnvImage().commit();
+        env.newImage().getUserImage("userB").write("b", "shared.txt").getEnvImage().commit();
+        env.newImage().getUserImage("userA").write("a2", "shared.txt").getEnvImage().commit();
+        env.newImage().getUserImage("userB").write("b2", "shared.txt").getEnvImage().commit();
+
+        env.deleteUser("userA");
+
+        FSAssert.assertUsers(env, "userB");
+        FSAssert.assertPaths("userB", env, "shared.txt");
+        assertContent("shared.txt", "b2");
+
+        env.undoLastCommit();
+        assertContent("shared.txt", "b");
+
+        env.undoLastCommit();
+        FSAssert.assertNoContent(env);
+    }
 }
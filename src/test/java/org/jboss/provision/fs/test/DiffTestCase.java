@@ -0,0 +1,110 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2016, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.jboss.provision.fs.test;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Set;
+
+import org.jboss.provision.fs.EnvImage;
+import org.jboss.provision.fs.PathDiff;
+import org.junit.Test;
+
+/**
+ *
+ * @author Alexey Loubyansky
+ */
+public class DiffTestCase extends FSTestBase {
+
+    @Test
+    public void testMain() throws Exception {
+
+        env.newImage()
+            .getUserImage("userA")
+                .write("a1", "a.txt")
+                .write("b", "b/b.txt")
+                .write("x", "x.txt")
+                .write("t", "t.txt")
+                .getEnvImage()
+            .commit();
+        final EnvImage first = env.getImage();
+
+        env.newImage()
+            .getUserImage("userA")
+                .write("a2", "a.txt")
+                .delete("b/b.txt")
+                .write("c", "c/c.txt")
+                .write("t2", "t.txt")
+                .getEnvImage()
+            .commit();
+        env.newImage()
+            .getUserImage("userA")
+                .write("t", "t.txt")
+                .getEnvImage()
+            .getUserImage("userB")
+                .write("x", "x.txt")
+                .write("d", "d.txt")
+                .getEnvImage()
+            .commit();
+        final EnvImage third = env.getImage();
+
+        assertDiff(first.diff(third),
+                "MODIFIED a.txt",
+                "REMOVED b/b.txt",
+                "ADDED c",
+                "ADDED c/c.txt",
+                "ADDED d.txt");
+
+        assertDiff(third.diff(first),
+                "MODIFIED a.txt",
+                "ADDED b/b.txt",
+                "REMOVED c",
+                "REMOVED c/c.txt",
+                "REMOVED d.txt");
+
+        assertDiff(first.diff(first));
+
+        assertDiff(first.diff(third, "userA"),
+                "MODIFIED a.txt",
+                "REMOVED b/b.txt",
+                "ADDED c/c.txt");
+
+        assertDiff(first.diff(third, "userB"),
+                "ADDED d.txt",
+                "ADDED x.txt");
+    }
+
+    private static void assertDiff(Iterator<PathDiff> diff, String... expected) {
+        final Set<String> actual = new HashSet<String>();
+        while(diff.hasNext()) {
+            actual.add(diff.next().toString());
+        }
+        final Set<String> set = new HashSet<String>();
+        for(String s : expected) {
+            set.add(s);
+        }
+        assertEquals(set, actual);
+    }
+}
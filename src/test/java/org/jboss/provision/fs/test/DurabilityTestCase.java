@@ -0,0 +1,145 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2016, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.jboss.provision.fs.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+import org.jboss.provision.fs.CommitProgress;
+import org.jboss.provision.fs.FSEnvironment;
+import org.jboss.provision.fs.FSEnvironmentConfig;
+import org.jboss.provision.fs.FSEnvironmentConfig.Durability;
+import org.jboss.provision.fs.MutableEnvImage;
+import org.jboss.provision.test.util.FSAssert;
+import org.junit.Test;
+
+/**
+ *
+ * @author Alexey Loubyansky
+ */
+public class DurabilityTestCase extends FSTestBase {
+
+    @Test
+    public void testGroup() throws Exception {
+        env = newEnvironment(Durability.GROUP, false);
+        commitAndUndo();
+    }
+
+    @Test
+    public void testGroupWithTrash() throws Exception {
+        env = newEnvironment(Durability.GROUP, true);
+        commitAndUndo();
+    }
+
+    @Test
+    public void testStrict() throws Exception {
+        env = newEnvironment(Durability.STRICT, false);
+        commitAndUndo();
+    }
+
+    private void commitAndUndo() throws Exception {
+
+        commit(env.newImage()
+            .getUserImage("userA")
+                .write("a", "a.txt")
+                .write("b", "b/b.txt")
+                .write("c", "b/c/c.txt")
+                .getEnvImage());
+        commit(env.newImage()
+            .getUserImage("userA")
+                .write("a2", "a.txt")
+                .delete("b/c/c.txt")
+                .getEnvImage()
+            .getUserImage("userB")
+                .write("d", "d/d.txt")
+                .getEnvImage());
+        assertContent("a.txt", "a2");
+        assertFalse(env.getFile("b/c/c.txt").exists());
+        FSAssert.assertPaths("userA", env, "a.txt", "b/b.txt");
+        FSAssert.assertPaths("userB", env, "d/d.txt");
+
+        env.undoLastCommit();
+        assertContent("a.txt", "a");
+        assertContent("b/c/c.txt", "c");
+        assertFalse(env.getFile("d/d.txt").exists());
+        FSAssert.assertUsers(env, "userA");
+
+        env.undoLastCommit();
+        FSAssert.assertNoContent(env);
+    }
+
+    /**
+     * Commits the image checking that the last session id is written
+     * by the last task, i.e. after the rest of the content.
+     */
+    private void commit(MutableEnvImage image) throws Exception {
+        final File lastTxt = new File(new File(homeDir, ".fs"), "last.txt");
+        final String before = readLastSession(lastTxt);
+        final List<String> executing = new ArrayList<String>();
+        image.commitAsync(new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                command.run();
+            }},
+            new CommitProgress.Listener() {
+                @Override
+                public void progress(CommitProgress progress) {
+                    if(progress.getPhase() == CommitProgress.Phase.EXECUTE && progress.getTasksRemaining() > 0) {
+                        executing.add(readLastSession(lastTxt));
+                    }
+                }})
+            .get();
+        assertTrue(executing.size() > 1);
+        for(String session : executing) {
+            assertEquals(before, session);
+        }
+        assertNotEquals(before, readLastSession(lastTxt));
+    }
+
+    private static String readLastSession(File f) {
+        if(!f.exists()) {
+            return null;
+        }
+        try {
+            return new String(Files.readAllBytes(f.toPath()), "UTF-8");
+        } catch (Exception e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private FSEnvironment newEnvironment(Durability durability, boolean trashDeletes) {
+        return FSEnvironment.create(FSEnvironmentConfig.builder()
+                .setHomeDir(homeDir)
+                .setDurability(durability)
+                .setTrashDeletes(trashDeletes)
+                .build());
+    }
+}
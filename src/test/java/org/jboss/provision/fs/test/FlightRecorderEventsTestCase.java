@@ -0,0 +1,114 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2016, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.provision.fs.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.Test;
+
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+
+/**
+ *
+ * @author Alexey Loubyansky
+ */
+public class FlightRecorderEventsTestCase extends FSTestBase {
+
+    private static final String COMMIT = "org.jboss.provision.fs.Commit";
+    private static final String CONTENT_TASK = "org.jboss.provision.fs.ContentTask";
+    private static final String UNDO = "org.jboss.provision.fs.Undo";
+    private static final String HASH = "org.jboss.provision.Hash";
+
+    @Test
+    public void testCommitAndUndo() throws Exception {
+
+        env.newImage().getUserImage("userA").write("abc", "a.txt").getEnvImage().commit();
+
+        final List<RecordedEvent> events;
+        final Recording recording = new Recording();
+        try {
+            recording.enable(COMMIT);
+            recording.enable(CONTENT_TASK);
+            recording.enable(UNDO);
+            recording.enable(HASH);
+            recording.start();
+
+            env.newImage().getUserImage("userA").write("abcdef", "a.txt").getEnvImage().commit();
+            env.undoLastCommit();
+
+            recording.stop();
+            final File dump = new File(homeDir.getParentFile(), homeDir.getName() + ".jfr");
+            try {
+                recording.dump(dump.toPath());
+                events = RecordingFile.readAllEvents(dump.toPath());
+            } finally {
+                dump.delete();
+            }
+        } finally {
+            recording.close();
+        }
+
+        final String target = env.getFile("a.txt").getAbsolutePath();
+        final Set<String> taskOperations = new HashSet<String>();
+        final List<RecordedEvent> commits = new ArrayList<RecordedEvent>();
+        final Set<Long> written = new HashSet<Long>();
+        boolean hashed = false;
+        int undos = 0;
+        for(RecordedEvent event : events) {
+            final String name = event.getEventType().getName();
+            if(COMMIT.equals(name)) {
+                commits.add(event);
+            } else if(CONTENT_TASK.equals(name)) {
+                if(target.equals(event.getString("path"))) {
+                    taskOperations.add(event.getString("operation"));
+                    if("execute".equals(event.getString("operation"))) {
+                        written.add(event.getLong("bytes"));
+                    }
+                }
+            } else if(HASH.equals(name)) {
+                hashed |= target.equals(event.getString("path")) && event.getLong("bytes") > 0;
+            } else if(UNDO.equals(name)) {
+                ++undos;
+                assertEquals(1, event.getInt("paths"));
+            }
+        }
+        // the undo executes the updates without committing a new session
+        assertEquals(1, commits.size());
+        assertTrue(commits.get(0).getLong("bytes") >= 6);
+        assertTrue(taskOperations.contains("backup"));
+        assertTrue(taskOperations.contains("execute"));
+        // the new content and the content restored by the undo
+        assertTrue(written.contains(6L));
+        assertTrue(written.contains(3L));
+        assertTrue(hashed);
+        assertEquals(1, undos);
+    }
+}
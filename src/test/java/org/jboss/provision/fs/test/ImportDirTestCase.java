@@ -0,0 +1,106 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2016, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.jboss.provision.fs.test;
+
+import static org.junit.Assert.assertArrayEquals;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.jboss.provision.test.util.FSAssert;
+import org.jboss.provision.test.util.FSUtils;
+import org.jboss.provision.util.HashUtils;
+import org.jboss.provision.util.IoUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ *
+ * @author Alexey Loubyansky
+ */
+public class ImportDirTestCase extends FSTestBase {
+
+    private File src;
+
+    @Before
+    public void initSrc() throws Exception {
+        src = FSUtils.nextTmpDir("import-dir");
+    }
+
+    @After
+    public void cleanupSrc() throws Exception {
+        IoUtils.recursiveDelete(src);
+    }
+
+    @Test
+    public void testImport() throws Exception {
+
+        final List<String> paths = new ArrayList<String>();
+        final List<String> remaining = new ArrayList<String>();
+        for(int i = 0; i < 5; ++i) {
+            for(int j = 0; j < 50; ++j) {
+                final String path = "d" + i + "/s" + (j % 3) + "/f" + j + ".txt";
+                FSUtils.writeFile(new File(src, path), path);
+                paths.add("dist/" + path);
+                if(i != 3) {
+                    remaining.add("dist/" + path);
+                }
+            }
+        }
+        new File(src, "empty").mkdirs();
+        paths.add("dist/empty/");
+
+        env.newImage().getUserImage("userA").write(src, "dist").getEnvImage().commit();
+
+        FSAssert.assertPaths(env, paths.toArray(new String[paths.size()]));
+        FSAssert.assertContent(env.getFile("dist/d3/s1/f7.txt"), "d3/s1/f7.txt");
+        assertArrayEquals(HashUtils.hashFile(new File(src, "d3/s1/f7.txt")), env.getImage().getHash("dist/d3/s1/f7.txt"));
+
+        env.newImage().getUserImage("userA").delete("dist/d3").getEnvImage().commit();
+        FSAssert.assertPaths("userA", env, remaining.toArray(new String[remaining.size()]));
+    }
+
+    @Test
+    public void testImportOverDeleted() throws Exception {
+
+        FSUtils.writeFile(new File(src, "a/b.txt"), "b");
+
+        env.newImage()
+            .getUserImage("userA")
+                .write("c", "dist/a/c.txt")
+                .getEnvImage()
+            .commit();
+
+        env.newImage()
+            .getUserImage("userA")
+                .delete("dist")
+                .write(src, "dist")
+                .getEnvImage()
+            .commit();
+
+        FSAssert.assertPaths(env, "dist/a/b.txt");
+        FSAssert.assertContent(env.getFile("dist/a/b.txt"), "b");
+    }
+}
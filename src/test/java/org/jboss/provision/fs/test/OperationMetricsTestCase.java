@@ -0,0 +1,98 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2016, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.provision.fs.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.jboss.provision.fs.FSEnvironment;
+import org.jboss.provision.fs.FSEnvironmentConfig;
+import org.jboss.provision.fs.OperationMetrics;
+import org.jboss.provision.fs.OperationMetrics.Operation;
+import org.junit.Test;
+
+/**
+ *
+ * @author Alexey Loubyansky
+ */
+public class OperationMetricsTestCase extends FSTestBase {
+
+    private final List<OperationMetrics> reported = new ArrayList<OperationMetrics>();
+
+    @Override
+    protected void doBefore() throws Exception {
+        env = FSEnvironment.create(FSEnvironmentConfig.builder().setHomeDir(homeDir).setMetricsListener(
+                new OperationMetrics.Listener() {
+                    @Override
+                    public void operationCompleted(OperationMetrics metrics) {
+                        reported.add(metrics);
+                    }
+                }).build());
+    }
+
+    @Test
+    public void testCommitPhases() throws Exception {
+
+        env.newImage().getUserImage("userA").write("abc", "a.txt").getEnvImage().commit();
+        assertOperations(Operation.SCHEDULE_PERSISTENCE, Operation.BACKUP, Operation.EXECUTE, Operation.CLEANUP);
+        final String sessionId = env.getImage().getSessionId();
+        for(OperationMetrics metrics : reported) {
+            assertEquals(sessionId, metrics.getSessionId());
+            assertTrue(metrics.getDurationNanos() >= 0);
+        }
+        assertEquals(reported.get(0).getTaskCount(), reported.get(1).getTaskCount());
+        reported.clear();
+
+        env.newImage().getUserImage("userA").write("abcdef", "a.txt").getEnvImage().commit();
+        assertOperations(Operation.SCHEDULE_PERSISTENCE, Operation.BACKUP, Operation.EXECUTE, Operation.CLEANUP);
+        // the current content is hashed and stored as a blob in the history
+        assertTrue(reported.get(0).getBytesHashed() >= 3);
+        // the current content is backed up before it is overwritten
+        assertTrue(reported.get(1).getBytesCopied() >= 3);
+        // the previous content is copied to the history
+        assertTrue(reported.get(2).getBytesCopied() >= 3);
+    }
+
+    @Test
+    public void testUndo() throws Exception {
+
+        env.newImage().getUserImage("userA").write("a", "a.txt").write("b", "b/b.txt").getEnvImage().commit();
+        final String sessionId = env.getImage().getSessionId();
+        reported.clear();
+
+        env.undoLastCommit();
+        assertEquals(Operation.UNDO, reported.get(0).getOperation());
+        assertEquals(sessionId, reported.get(0).getSessionId());
+        // a.txt, b/b.txt and b
+        assertEquals(3, reported.get(0).getTaskCount());
+    }
+
+    private void assertOperations(Operation... operations) {
+        assertEquals(operations.length, reported.size());
+        for(int i = 0; i < operations.length; ++i) {
+            assertEquals(operations[i], reported.get(i).getOperation());
+        }
+    }
+}
@@ -0,0 +1,120 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2016, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.jboss.provision.fs.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+import org.jboss.provision.fs.EnvImage;
+import org.jboss.provision.test.util.FSAssert;
+import org.junit.Test;
+
+/**
+ *
+ * @author Alexey Loubyansky
+ */
+public class SessionUsersTestCase extends FSTestBase {
+
+    @Test
+    public void testManifest() throws Exception {
+
+        commitSessions();
+        for(String sessionId : getSessionIds()) {
+            assertTrue(sessionId, new File(getHistoryDir(), sessionId + "/users.fc").exists());
+        }
+        assertSessionUsers();
+
+        env.undoLastCommit();
+        FSAssert.assertUsers(env, "userA", "userB");
+        FSAssert.assertPaths("userA", env, "a.txt");
+        FSAssert.assertPaths("userB", env, "b.txt");
+    }
+
+    @Test
+    public void testWithoutManifest() throws Exception {
+
+        commitSessions();
+        for(String sessionId : getSessionIds()) {
+            assertTrue(sessionId, new File(getHistoryDir(), sessionId + "/users.fc").delete());
+        }
+        assertSessionUsers();
+
+        env.undoLastCommit();
+        FSAssert.assertUsers(env, "userA", "userB");
+        FSAssert.assertPaths("userA", env, "a.txt");
+    }
+
+    @Test
+    public void testDeleteUser() throws Exception {
+
+        commitSessions();
+        env.newImage().getUserImage("userA").write("a2", "a2.txt").getEnvImage().commit();
+
+        env.deleteUser("userB");
+        final Iterator<EnvImage> i = env.envHistory();
+        FSAssert.assertUsers(i.next(), "userA", "userC");
+        FSAssert.assertUsers(i.next(), "userA", "userC");
+        FSAssert.assertUsers(i.next(), "userA");
+        assertEquals(false, i.hasNext());
+
+        env.undoLastCommit();
+        FSAssert.assertUsers(env, "userA", "userC");
+        FSAssert.assertPaths("userA", env, "a.txt", "c.txt");
+        FSAssert.assertPaths("userC", env, "c.txt");
+    }
+
+    private void commitSessions() throws Exception {
+        env.newImage().getUserImage("userA").write("a", "a.txt").getEnvImage().commit();
+        env.newImage().getUserImage("userB").write("b", "b.txt").getEnvImage().commit();
+        env.newImage()
+            .getUserImage("userA").write("c", "c.txt").getEnvImage()
+            .getUserImage("userC").write("c", "c.txt").getEnvImage()
+            .commit();
+    }
+
+    private void assertSessionUsers() throws Exception {
+        final Iterator<EnvImage> i = env.envHistory();
+        FSAssert.assertUsers(i.next(), "userA", "userB", "userC");
+        FSAssert.assertUsers(i.next(), "userA", "userB");
+        FSAssert.assertUsers(i.next(), "userA");
+        assertEquals(false, i.hasNext());
+    }
+
+    private List<String> getSessionIds() throws Exception {
+        final List<String> ids = new ArrayList<String>();
+        final Iterator<EnvImage> i = env.envHistory();
+        while(i.hasNext()) {
+            ids.add(i.next().getSessionId());
+        }
+        return ids;
+    }
+
+    private File getHistoryDir() {
+        return env.getFile(".fs");
+    }
+}
@@ -0,0 +1,125 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2016, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.jboss.provision.fs.test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+import org.jboss.provision.ProvisionException;
+import org.jboss.provision.fs.EnvImage;
+import org.jboss.provision.test.util.FSAssert;
+import org.jboss.provision.test.util.FSUtils;
+import org.jboss.provision.util.HashUtils;
+import org.junit.Test;
+
+/**
+ *
+ * @author Alexey Loubyansky
+ */
+public class SnapshotTestCase extends FSTestBase {
+
+    @Test
+    public void testUnknownSession() throws Exception {
+        try {
+            env.getSnapshot("unknown");
+            fail("unknown session");
+        } catch(ProvisionException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void testMain() throws Exception {
+
+        env.newImage()
+            .getUserImage("userA")
+                .write("a1", "a.txt")
+                .write("b1", "b/b.txt")
+                .getEnvImage()
+            .commit();
+
+        env.newImage()
+            .getUserImage("userA")
+                .write("a2", "a.txt")
+                .getEnvImage()
+            .getUserImage("userB")
+                .write("c2", "c.txt")
+                .getEnvImage()
+            .commit();
+
+        env.newImage()
+            .getUserImage("userA")
+                .delete("b/b.txt")
+                .getEnvImage()
+            .getUserImage("userB")
+                .write("c3", "c.txt")
+                .getEnvImage()
+            .commit();
+
+        FSUtils.writeFile(env.getFile("x.txt"), "x");
+
+        final List<String> ids = new ArrayList<String>();
+        final Iterator<EnvImage> i = env.envHistory();
+        while(i.hasNext()) {
+            ids.add(0, i.next().getSessionId());
+        }
+        assertEquals(3, ids.size());
+
+        EnvImage snapshot = env.getSnapshot(ids.get(0));
+        assertEquals("a1", snapshot.readContent("a.txt"));
+        assertArrayEquals(HashUtils.hashBytes("a1".getBytes()), snapshot.getHash("a.txt"));
+        assertTrue(snapshot.contains("b"));
+        assertEquals("b1", snapshot.readContent("b/b.txt"));
+        assertFalse(snapshot.contains("c.txt"));
+        assertNull(snapshot.readContent("c.txt"));
+        assertNull(snapshot.getHash("c.txt"));
+        assertEquals("x", snapshot.readContent("x.txt"));
+        FSAssert.assertUsers(snapshot, "userA");
+
+        snapshot = env.getSnapshot(ids.get(1));
+        assertEquals("a2", snapshot.readContent("a.txt"));
+        assertEquals("b1", snapshot.readContent("b/b.txt"));
+        assertEquals("c2", snapshot.readContent("c.txt"));
+        assertArrayEquals(HashUtils.hashBytes("c2".getBytes()), snapshot.getHash("c.txt"));
+        FSAssert.assertUsers(snapshot, "userA", "userB");
+
+        snapshot = env.getSnapshot(ids.get(2));
+        assertEquals("a2", snapshot.readContent("a.txt"));
+        assertFalse(snapshot.contains("b/b.txt"));
+        assertNull(snapshot.readContent("b/b.txt"));
+        assertEquals("c3", snapshot.readContent("c.txt"));
+
+        // nothing is restored
+        FSAssert.assertPaths(env, "a.txt", "b", "c.txt", "x.txt");
+        assertContent("a.txt", "a2");
+        assertContent("c.txt", "c3");
+    }
+}
@@ -0,0 +1,112 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2016, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.jboss.provision.fs.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+
+import org.jboss.provision.fs.EnvImage;
+import org.jboss.provision.fs.MutableEnvImage;
+import org.jboss.provision.test.util.FSUtils;
+import org.jboss.provision.util.IoUtils;
+import org.junit.Test;
+
+/**
+ *
+ * @author Alexey Loubyansky
+ */
+public class StreamingReadTestCase extends FSTestBase {
+
+    @Test
+    public void testHomeContent() throws Exception {
+
+        final EnvImage image = env.newImage();
+        assertNull(image.openContent("a.txt"));
+        assertNull(image.mapContent("a.txt"));
+
+        FSUtils.writeFile(env.getFile("a.txt"), "line1\r\nline2\n");
+        assertEquals("line1\r\nline2\n", read(image.openContent("a.txt")));
+        assertEquals("line1\r\nline2\n", toString(image.mapContent("a.txt")));
+    }
+
+    @Test
+    public void testPendingContent() throws Exception {
+
+        env.newImage().getUserImage("userA").write("a", "a.txt").write("b", "b/b.txt").getEnvImage().commit();
+
+        final File c = FSUtils.newTmpFile("c.txt");
+        FSUtils.writeFile(c, "c\n");
+        try {
+            final MutableEnvImage image = env.newImage();
+            image.getUserImage("userA")
+                .write("aa", "a.txt")
+                .write(c, "c.txt")
+                .delete("b");
+
+            assertEquals("aa", read(image.openContent("a.txt")));
+            assertEquals("aa", toString(image.mapContent("a.txt")));
+            assertEquals("c\n", read(image.openContent("c.txt")));
+            assertNull(image.openContent("b/b.txt"));
+            assertNull(image.openChannel("b/b.txt"));
+
+            // nothing has been written yet
+            assertEquals("a", read(env.getImage().openContent("a.txt")));
+            assertEquals("b", read(env.getImage().openContent("b/b.txt")));
+        } finally {
+            IoUtils.recursiveDelete(c);
+        }
+    }
+
+    @Test
+    public void testSnapshotContent() throws Exception {
+
+        env.newImage().getUserImage("userA").write("a1", "a.txt").getEnvImage().commit();
+        final String firstId = env.getImage().getSessionId();
+        env.newImage().getUserImage("userA").write("a2", "a.txt").getEnvImage().commit();
+
+        final EnvImage snapshot = env.getSnapshot(firstId);
+        assertEquals("a1", read(snapshot.openContent("a.txt")));
+        final ByteBuffer buf = snapshot.mapContent("a.txt");
+        assertTrue(buf.isReadOnly());
+        assertEquals("a1", toString(buf));
+        assertEquals("a2", read(env.getImage().openContent("a.txt")));
+    }
+
+    private static String read(InputStream is) throws Exception {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        IoUtils.copyStreamAndClose(is, out);
+        return new String(out.toByteArray());
+    }
+
+    private static String toString(ByteBuffer buf) {
+        final byte[] bytes = new byte[buf.remaining()];
+        buf.get(bytes);
+        return new String(bytes);
+    }
+}
@@ -0,0 +1,136 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2016, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.provision.fs.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.jboss.provision.ProvisionException;
+import org.jboss.provision.fs.FSEnvironment;
+import org.jboss.provision.fs.FSEnvironmentConfig;
+import org.jboss.provision.test.util.FSUtils;
+import org.junit.Test;
+
+/**
+ *
+ * @author Alexey Loubyansky
+ */
+public class TrackChangesTestCase extends FSTestBase {
+
+    @Override
+    protected void doBefore() throws Exception {
+        env = FSEnvironment.create(FSEnvironmentConfig.builder().setHomeDir(homeDir).setTrackChanges(true).build());
+    }
+
+    @Override
+    protected void doAfter() throws Exception {
+        env.close();
+    }
+
+    @Test
+    public void testExternalModification() throws Exception {
+
+        env.newImage()
+            .getUserImage("userA")
+                .write("a", "a.txt")
+                .write("b", "b/b.txt")
+                .write("c", "c.txt")
+                .getEnvImage()
+            .commit();
+
+        assertEquals(Collections.emptyList(), env.getModifiedPaths());
+
+        FSUtils.writeFile(env.getFile("b/b.txt"), "external");
+        env.getFile("c.txt").delete();
+        assertModified("b/b.txt", "c.txt");
+
+        env.newImage().getUserImage("userA").write("a2", "a.txt").getEnvImage().commit();
+        assertContent("a.txt", "a2");
+        assertModified("b/b.txt", "c.txt");
+
+        try {
+            env.newImage().getUserImage("userA").write("b2", "b/b.txt").getEnvImage().commit();
+            fail("the external modification was not detected");
+        } catch(ProvisionException e) {
+            // expected
+        }
+        assertContent("b/b.txt", "external");
+    }
+
+    @Test
+    public void testNewDirectory() throws Exception {
+
+        env.newImage().getUserImage("userA").write("a", "a.txt").getEnvImage().commit();
+        env.newImage().getUserImage("userA").write("b", "d/b.txt").getEnvImage().commit();
+
+        FSUtils.writeFile(env.getFile("d/b.txt"), "external");
+        assertModified("d/b.txt");
+
+        env.undoLastCommit();
+        assertModified();
+    }
+
+    @Test
+    public void testModifiedWhileNotTracking() throws Exception {
+
+        env.newImage().getUserImage("userA").write("v1", "a.txt").getEnvImage().commit();
+        env.close();
+        FSUtils.writeFile(env.getFile("a.txt"), "external");
+
+        env = FSEnvironment.create(FSEnvironmentConfig.builder().setHomeDir(homeDir).setTrackChanges(true).build());
+        try {
+            env.newImage().getUserImage("userA").write("v2", "a.txt").getEnvImage().commit();
+            fail("the external modification was not detected");
+        } catch(ProvisionException e) {
+            // expected
+        }
+        assertContent("a.txt", "external");
+        assertEquals(Arrays.asList("a.txt"), env.getModifiedPaths());
+    }
+
+    @Test
+    public void testWithoutTracking() throws Exception {
+
+        env.close();
+        env = FSEnvironment.create(FSEnvironmentConfig.builder().setHomeDir(homeDir).build());
+
+        env.newImage().getUserImage("userA").write("a", "a.txt").write("b", "b.txt").getEnvImage().commit();
+        FSUtils.writeFile(env.getFile("b.txt"), "external");
+        assertEquals(Arrays.asList("b.txt"), env.getModifiedPaths());
+    }
+
+    private void assertModified(String... paths) throws Exception {
+        final List<String> expected = Arrays.asList(paths);
+        // the events are delivered asynchronously
+        final long deadline = System.currentTimeMillis() + 10000;
+        List<String> modified = env.getModifiedPaths();
+        while(!expected.equals(modified) && System.currentTimeMillis() < deadline) {
+            Thread.sleep(50);
+            modified = env.getModifiedPaths();
+        }
+        assertEquals(expected, modified);
+    }
+}
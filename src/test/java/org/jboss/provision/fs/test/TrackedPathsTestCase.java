@@ -0,0 +1,157 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2016, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.jboss.provision.fs.test;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+
+import org.jboss.provision.fs.FSEnvironment;
+import org.jboss.provision.fs.FSEnvironmentConfig;
+import org.jboss.provision.fs.MutableEnvImage;
+import org.jboss.provision.test.util.FSAssert;
+import org.jboss.provision.test.util.FSUtils;
+import org.junit.Test;
+
+/**
+ *
+ * @author Alexey Loubyansky
+ */
+public class TrackedPathsTestCase extends FSTestBase {
+
+    @Test
+    public void testInterleavedImages() throws Exception {
+
+        env.newImage().getUserImage("userA").write("a", "a.txt").getEnvImage().commit();
+        final MutableEnvImage image = env.newImage().getUserImage("userA").write("x", "x.txt").getEnvImage();
+        env.newImage().getUserImage("userB").write("y", "x.txt").getEnvImage().commit();
+
+        image.commit();
+        assertContent("x.txt", "x");
+        FSAssert.assertPaths("userA", env, "a.txt", "x.txt");
+        FSAssert.assertPaths("userB", env, "x.txt");
+
+        env.newImage().getUserImage("userA").delete("x.txt").getEnvImage().commit();
+        assertContent("x.txt", "x");
+        FSAssert.assertPaths("userA", env, "a.txt");
+        FSAssert.assertPaths("userB", env, "x.txt");
+
+        env.undoLastCommit();
+        env.undoLastCommit();
+        assertContent("x.txt", "y");
+        FSAssert.assertPaths("userA", env, "a.txt");
+        FSAssert.assertPaths("userB", env, "x.txt");
+
+        env.undoLastCommit();
+        assertFalse(new File(env.getHomeDir(), "x.txt").exists());
+        FSAssert.assertPaths("userA", env, "a.txt");
+        FSAssert.assertPaths(env, "a.txt");
+    }
+
+    @Test
+    public void testInterleavedImagesOfOtherEnvironment() throws Exception {
+
+        env.newImage().getUserImage("userA").write("a", "a.txt").getEnvImage().commit();
+        final MutableEnvImage image = env.newImage().getUserImage("userA").write("x", "x.txt").getEnvImage();
+        newEnvironment().newImage().getUserImage("userB").write("y", "x.txt").getEnvImage().commit();
+
+        image.commit();
+        env.newImage().getUserImage("userA").delete("x.txt").getEnvImage().commit();
+        assertContent("x.txt", "x");
+        FSAssert.assertPaths("userB", env, "x.txt");
+    }
+
+    @Test
+    public void testPathCommittedByOtherEnvironment() throws Exception {
+
+        env.newImage().getUserImage("userA").write("a", "a.txt").getEnvImage().commit();
+        env.newImage().getUserImage("userA").write("b", "b.txt").getEnvImage().commit();
+
+        final FSEnvironment other = newEnvironment();
+        other.newImage().getUserImage("userB").write("c", "c.txt").write("a", "a.txt").getEnvImage().commit();
+
+        env.newImage().getUserImage("userA").write("c", "c.txt").getEnvImage().commit();
+        FSAssert.assertPaths("userA", env, "a.txt", "b.txt", "c.txt");
+        FSAssert.assertPaths("userB", env, "a.txt", "c.txt");
+
+        env.newImage().getUserImage("userA").delete("a.txt").delete("c.txt").getEnvImage().commit();
+        assertContent("a.txt", "a");
+        assertContent("c.txt", "c");
+        FSAssert.assertPaths("userA", env, "b.txt");
+    }
+
+    @Test
+    public void testMissingFilter() throws Exception {
+
+        env.newImage().getUserImage("userA").write("a", "a.txt").write("b", "d/b.txt").getEnvImage().commit();
+        final File filter = new File(env.getFile(".fs"), "paths.bloom");
+        assertTrue(filter.exists());
+        assertTrue(filter.delete());
+
+        newEnvironment().newImage().getUserImage("userB").write("a", "a.txt").write("b", "d/b.txt").getEnvImage().commit();
+        assertTrue(filter.exists());
+
+        env.newImage().getUserImage("userA").delete("a.txt").delete("d/b.txt").getEnvImage().commit();
+        assertContent("a.txt", "a");
+        assertContent("d/b.txt", "b");
+        FSAssert.assertPaths("userB", env, "a.txt", "d/b.txt");
+    }
+
+    @Test
+    public void testCorruptedFilter() throws Exception {
+
+        env.newImage().getUserImage("userA").write("a", "a.txt").getEnvImage().commit();
+        FSUtils.writeFile(new File(env.getFile(".fs"), "paths.bloom"), "corrupted");
+
+        newEnvironment().newImage().getUserImage("userB").write("a", "a.txt").getEnvImage().commit();
+        env.newImage().getUserImage("userA").delete("a.txt").getEnvImage().commit();
+        assertContent("a.txt", "a");
+    }
+
+    @Test
+    public void testDeleteUser() throws Exception {
+
+        env.newImage().getUserImage("userA").write("a", "a.txt").write("b", "b.txt").getEnvImage().commit();
+        env.newImage().getUserImage("userB").write("b", "b.txt").getEnvImage().commit();
+
+        env.deleteUser("userA");
+        assertFalse(env.getFile("a.txt").exists());
+        assertContent("b.txt", "b");
+
+        env.newImage().getUserImage("userC").write("a", "a.txt").write("b", "b.txt").getEnvImage().commit();
+        env.newImage().getUserImage("userB").delete("b.txt").getEnvImage().commit();
+        assertContent("b.txt", "b");
+        FSAssert.assertPaths("userC", env, "a.txt", "b.txt");
+
+        env.undoLastCommit();
+        env.undoLastCommit();
+        assertFalse(env.getFile("a.txt").exists());
+        assertContent("b.txt", "b");
+        FSAssert.assertPaths("userB", env, "b.txt");
+    }
+
+    private FSEnvironment newEnvironment() {
+        return FSEnvironment.create(FSEnvironmentConfig.builder().setHomeDir(homeDir).build());
+    }
+}
@@ -0,0 +1,171 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2016, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.jboss.provision.fs.test;
+
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.jboss.provision.fs.FSEnvironment;
+import org.jboss.provision.fs.FSEnvironmentConfig;
+import org.jboss.provision.test.util.FSAssert;
+import org.jboss.provision.test.util.FSUtils;
+import org.junit.Test;
+
+/**
+ *
+ * @author Alexey Loubyansky
+ */
+public class TrashDeleteTestCase extends FSTestBase {
+
+    @Override
+    protected void doBefore() throws Exception {
+        env = FSEnvironment.create(FSEnvironmentConfig.builder().setHomeDir(homeDir).setTrashDeletes(true).build());
+    }
+
+    @Test
+    public void testDeleteDir() throws Exception {
+
+        env.newImage()
+            .getUserImage("userA")
+                .write("a", "m/a.txt")
+                .write("b", "m/b/b.txt")
+                .write("c", "m/b/c/c.txt")
+                .write("d", "d.txt")
+                .getEnvImage()
+            .commit();
+
+        env.newImage().getUserImage("userA").delete("m").getEnvImage().commit();
+
+        FSAssert.assertPaths(env, "d.txt");
+        FSAssert.assertPaths("userA", env, "d.txt");
+        assertTrue(env.awaitTrashPurge(10, TimeUnit.SECONDS));
+        assertTrashEmpty();
+
+        env.undoLastCommit();
+
+        FSAssert.assertPaths(env, "m/a.txt", "m/b/b.txt", "m/b/c/c.txt", "d.txt");
+        assertContent("m/b/c/c.txt", "c");
+        assertTrue(env.awaitTrashPurge(10, TimeUnit.SECONDS));
+        assertTrashEmpty();
+    }
+
+    @Test
+    public void testDeletedFilesMovedToHistory() throws Exception {
+
+        env.newImage()
+            .getUserImage("userA")
+                .write("a", "m/a.txt")
+                .write("b", "m/b/b.txt")
+                .getEnvImage()
+            .commit();
+        final Object a = fileKey(env.getFile("m/a.txt"));
+        final Object b = fileKey(env.getFile("m/b/b.txt"));
+
+        env.newImage().getUserImage("userA").delete("m").getEnvImage().commit();
+
+        // the content kept for the undo is the deleted files, not their copies
+        final Set<Object> historyFiles = fileKeys(new File(env.getFile(".fs"), "paths"));
+        assertTrue(historyFiles.contains(a));
+        assertTrue(historyFiles.contains(b));
+
+        env.undoLastCommit();
+        assertContent("m/a.txt", "a");
+        assertContent("m/b/b.txt", "b");
+    }
+
+    @Test
+    public void testSharedDir() throws Exception {
+
+        env.newImage()
+            .getUserImage("userA")
+                .write("a", "m/a.txt")
+                .write("b", "m/b.txt")
+                .getEnvImage()
+            .getUserImage("userB")
+                .write("b", "m/b.txt")
+                .getEnvImage()
+            .commit();
+
+        env.newImage().getUserImage("userA").delete("m").getEnvImage().commit();
+
+        FSAssert.assertPaths(env, "m/b.txt");
+        assertContent("m/b.txt", "b");
+        assertTrue(env.awaitTrashPurge(10, TimeUnit.SECONDS));
+        assertTrashEmpty();
+    }
+
+    @Test
+    public void testPurgedAfterClose() throws Exception {
+
+        env.newImage().getUserImage("userA").write("a", "m/a.txt").getEnvImage().commit();
+        env.newImage().getUserImage("userA").delete("m").getEnvImage().commit();
+        env.close();
+
+        assertTrue(env.awaitTrashPurge(10, TimeUnit.SECONDS));
+        assertTrashEmpty();
+    }
+
+    @Test
+    public void testLeftoversPurged() throws Exception {
+
+        final File leftover = new File(env.getFile(".fs"), "trash/leftover/a/b.txt");
+        FSUtils.writeRandomContent(leftover);
+
+        env = FSEnvironment.create(FSEnvironmentConfig.builder().setHomeDir(homeDir).setTrashDeletes(true).build());
+        assertTrue(env.awaitTrashPurge(10, TimeUnit.SECONDS));
+        assertTrashEmpty();
+    }
+
+    private static Object fileKey(File f) throws IOException {
+        return Files.readAttributes(f.toPath(), BasicFileAttributes.class).fileKey();
+    }
+
+    private static Set<Object> fileKeys(File dir) throws IOException {
+        final Set<Object> keys = new HashSet<Object>();
+        Files.walkFileTree(dir.toPath(), new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                keys.add(attrs.fileKey());
+                return FileVisitResult.CONTINUE;
+            }
+        });
+        return keys;
+    }
+
+    private void assertTrashEmpty() {
+        final File trash = new File(env.getFile(".fs"), "trash");
+        if(trash.exists()) {
+            assertEmptyDir(trash);
+        }
+    }
+}
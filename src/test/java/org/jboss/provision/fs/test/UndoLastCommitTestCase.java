@@ -22,10 +22,16 @@
 
 package org.jboss.provision.fs.test;
 
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.fail;
 
+import java.io.File;
+
 import org.jboss.provision.ProvisionException;
+import org.jboss.provision.fs.FileUtils;
+import org.jboss.provision.fs.MutableEnvImage;
 import org.jboss.provision.test.util.FSAssert;
+import org.jboss.provision.test.util.FSUtils;
 import org.junit.Test;
 
 /**
@@ -95,4 +101,17 @@ public class UndoLastCommitTestCase extends FSTestBase {
         FSAssert.assertUsers(env);
         FSAssert.assertNoContent(env);
     }
+
+    @Test
+    public void testCreatedExternallyBeforeCommit() throws Exception {
+
+        final MutableEnvImage image = env.newImage().getUserImage("userA").write("a", "a.txt").getEnvImage();
+        FSUtils.writeFile(new File(env.getHomeDir(), "a.txt"), "external");
+        image.commit();
+        assertEquals("a", env.getImage().readContent("a.txt"));
+
+        env.undoLastCommit();
+        FSAssert.assertUsers(env);
+        assertEquals("external", FileUtils.readFile(new File(env.getHomeDir(), "a.txt")));
+    }
 }
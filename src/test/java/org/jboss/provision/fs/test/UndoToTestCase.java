@@ -0,0 +1,101 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2016, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.jboss.provision.fs.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.fail;
+
+import java.util.Iterator;
+
+import org.jboss.provision.ProvisionException;
+import org.jboss.provision.fs.EnvImage;
+import org.jboss.provision.test.util.FSAssert;
+import org.junit.Test;
+
+/**
+ *
+ * @author Alexey Loubyansky
+ */
+public class UndoToTestCase extends FSTestBase {
+
+    @Test
+    public void testUnknownSession() throws Exception {
+        env.newImage().getUserImage("userA").write("a", "a.txt").getEnvImage().commit();
+        try {
+            env.undoTo("unknown");
+            fail("unknown session");
+        } catch(ProvisionException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void testMain() throws Exception {
+
+        env.newImage()
+            .getUserImage("userA")
+                .write("a1", "a.txt")
+                .write("d", "d/d.txt")
+                .getEnvImage()
+            .commit();
+        final String first = env.getImage().getSessionId();
+
+        env.newImage().getUserImage("userA").write("a2", "a.txt").delete("d/d.txt").getEnvImage().commit();
+        env.newImage().getUserImage("userB").write("b", "b/b.txt").write("d2", "d/d.txt").getEnvImage().commit();
+        env.newImage()
+            .getUserImage("userA").write("a3", "a.txt").getEnvImage()
+            .getUserImage("userC").write("c", "c.txt").getEnvImage()
+            .commit();
+
+        FSAssert.assertPaths(env, "a.txt", "b/b.txt", "c.txt", "d/d.txt");
+        assertContent("a.txt", "a3");
+
+        env.undoTo(first);
+
+        assertEquals(first, env.getImage().getSessionId());
+        FSAssert.assertUsers(env, "userA");
+        FSAssert.assertPaths("userA", env, "a.txt", "d/d.txt");
+        FSAssert.assertPaths(env, "a.txt", "d/d.txt");
+        assertContent("a.txt", "a1");
+        assertContent("d/d.txt", "d");
+
+        final Iterator<EnvImage> history = env.envHistory();
+        assertEquals(first, history.next().getSessionId());
+        assertFalse(history.hasNext());
+
+        env.newImage().getUserImage("userA").write("a4", "a.txt").getEnvImage().commit();
+        assertContent("a.txt", "a4");
+        env.undoLastCommit();
+        assertContent("a.txt", "a1");
+        env.undoLastCommit();
+        FSAssert.assertNoContent(env);
+    }
+
+    @Test
+    public void testUndoToLast() throws Exception {
+        env.newImage().getUserImage("userA").write("a", "a.txt").getEnvImage().commit();
+        env.undoTo(env.getImage().getSessionId());
+        FSAssert.assertPaths(env, "a.txt");
+    }
+}
@@ -0,0 +1,130 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2016, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.provision.fs.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.jboss.provision.fs.MutableEnvImage;
+import org.jboss.provision.fs.MutableUserImage;
+import org.jboss.provision.fs.UserImage;
+import org.junit.Test;
+
+/**
+ *
+ * @author Alexey Loubyansky
+ */
+public class UserPathsTestCase extends FSTestBase {
+
+    @Test
+    public void testCommittedPaths() throws Exception {
+
+        final MutableUserImage userImage = env.newImage().getUserImage("userA");
+        final List<String> expected = new ArrayList<String>();
+        for(int i = 99; i >= 0; --i) {
+            final String path = "d" + (i % 7) + "/f" + i + ".txt";
+            userImage.write("c" + i, path);
+            expected.add(path);
+        }
+        userImage.getEnvImage().commit();
+        Collections.sort(expected);
+
+        assertEquals(expected, iterate(env.getImage().getUserImage("userA")));
+
+        UserImage committed = env.getImage().getUserImage("userA");
+        for(String path : expected) {
+            assertTrue(path, committed.contains(path));
+        }
+        assertFalse(committed.contains("d0/f1.txt"));
+        assertFalse(committed.contains("a.txt"));
+        assertFalse(committed.contains("z.txt"));
+
+        committed = env.getImage().getUserImage("userA");
+        assertEquals(expected.subList(0, 10), committed.getPaths(0, 10));
+        assertEquals(expected.subList(95, 100), committed.getPaths(95, 10));
+        assertEquals(Collections.emptyList(), committed.getPaths(100, 10));
+    }
+
+    @Test
+    public void testPendingChanges() throws Exception {
+
+        env.newImage().getUserImage("userA").write("a", "a.txt").write("b", "b.txt").getEnvImage().commit();
+
+        final MutableEnvImage image = env.newImage();
+        final MutableUserImage userImage = image.getUserImage("userA").delete("a.txt").write("c", "c.txt");
+        assertEquals(Arrays.asList("b.txt", "c.txt"), iterate(userImage));
+        assertFalse(userImage.contains("a.txt"));
+        assertTrue(userImage.contains("c.txt"));
+        assertEquals(Arrays.asList("c.txt"), userImage.getPaths(1, 5));
+
+        image.commit();
+        assertEquals(Arrays.asList("b.txt", "c.txt"), iterate(env.getImage().getUserImage("userA")));
+
+        env.undoLastCommit();
+        assertEquals(Arrays.asList("a.txt", "b.txt"), iterate(env.getImage().getUserImage("userA")));
+    }
+
+    @Test
+    public void testSharedPrefixes() throws Exception {
+
+        final MutableUserImage userImage = env.newImage().getUserImage("userA");
+        final List<String> expected = new ArrayList<String>();
+        final String prefix = "modules/system/layers/base/org/jboss/provision/main/";
+        for(int i = 0; i < 40; ++i) {
+            final String path = prefix + "lib-" + i + ".jar";
+            userImage.write("c" + i, path);
+            expected.add(path);
+        }
+        userImage.write("m", prefix + "module.xml");
+        expected.add(prefix + "module.xml");
+        userImage.getEnvImage().commit();
+        Collections.sort(expected);
+
+        final UserImage committed = env.getImage().getUserImage("userA");
+        assertEquals(expected, iterate(committed));
+        assertEquals(expected.subList(15, 18), committed.getPaths(15, 3));
+        for(String path : expected) {
+            assertTrue(path, committed.contains(path));
+        }
+        assertFalse(committed.contains(prefix + "lib-40.jar"));
+        assertFalse(committed.contains(prefix));
+    }
+
+    private static List<String> iterate(UserImage userImage) throws Exception {
+        final List<String> paths = new ArrayList<String>();
+        final UserImage.PathIterator i = userImage.iteratePaths();
+        try {
+            while(i.hasNext()) {
+                paths.add(i.next());
+            }
+        } finally {
+            i.close();
+        }
+        return paths;
+    }
+}